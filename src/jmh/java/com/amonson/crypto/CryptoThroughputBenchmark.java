@@ -0,0 +1,127 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypt and decrypt throughput of the stream and channel classes for combinations of application buffer size and
+ * file size. The streams use the default random IV format. The "bytes" secondary result is the throughput in bytes
+ * per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CryptoThroughputBenchmark {
+    @Param({"4096", "65536", "1048576"})
+    public int bufferSize;
+
+    @Param({"1048576", "67108864"})
+    public int fileSize;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        key_ = KeyData.newKeyData();
+        buffer_ = new byte[bufferSize];
+        new Random(1).nextBytes(buffer_);
+        target_ = Files.createTempFile("benchmark", ".out");
+        cbc_ = Files.createTempFile("benchmark", ".cbc");
+        try (OutputStream stream = new EncryptedFileOutputStream(cbc_.toFile(), key_, true)) {
+            write(stream);
+        }
+        gcm_ = Files.createTempFile("benchmark", ".gcm");
+        try (EncryptedFileChannelWriter channel = new EncryptedFileChannelWriter(gcm_, key_)) {
+            write(channel);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(target_);
+        Files.deleteIfExists(cbc_);
+        Files.deleteIfExists(gcm_);
+    }
+
+    @Benchmark
+    public void streamEncrypt(ByteCounter counter) throws Exception {
+        try (OutputStream stream = new EncryptedFileOutputStream(target_.toFile(), key_, true)) {
+            write(stream);
+        }
+        counter.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void streamDecrypt(ByteCounter counter, Blackhole hole) throws Exception {
+        try (InputStream stream = new EncryptedFileInputStream(cbc_.toFile(), key_, true)) {
+            int count;
+            while((count = stream.read(buffer_, 0, bufferSize)) >= 0)
+                hole.consume(count);
+        }
+        counter.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void channelEncrypt(ByteCounter counter) throws Exception {
+        try (EncryptedFileChannelWriter channel = new EncryptedFileChannelWriter(target_, key_)) {
+            write(channel);
+        }
+        counter.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void channelDecrypt(ByteCounter counter, Blackhole hole) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(buffer_);
+        try (EncryptedFileChannelReader channel = new EncryptedFileChannelReader(gcm_, key_)) {
+            while(channel.read(buffer) >= 0) {
+                hole.consume(buffer.get(0));
+                buffer.clear();
+            }
+        }
+        counter.bytes += fileSize;
+    }
+
+    private void write(OutputStream stream) throws Exception {
+        for(long written = 0L; written < fileSize; written += bufferSize)
+            stream.write(buffer_, 0, (int)Math.min(bufferSize, fileSize - written));
+    }
+
+    private void write(EncryptedFileChannelWriter channel) throws Exception {
+        for(long written = 0L; written < fileSize; written += bufferSize)
+            channel.write(ByteBuffer.wrap(buffer_, 0, (int)Math.min(bufferSize, fileSize - written)));
+    }
+
+    private KeyData key_;
+    private byte[] buffer_;
+    private Path target_;
+    private Path cbc_;
+    private Path gcm_;
+
+    /**
+     * Counts the bytes processed, reported by JMH as a rate next to the primary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ByteCounter {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0L;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of key and IV generation and of decoding key material, single threaded and with 4 threads
+ * generating at the same time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KeyGenerationBenchmark {
+    @Setup(Level.Trial)
+    public void setup() {
+        key_ = KeyDataGenerator.newKeyData();
+    }
+
+    @Benchmark
+    public KeyData newKeyData() throws Exception {
+        return KeyData.newKeyData();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public KeyData newKeyDataContended() throws Exception {
+        return KeyData.newKeyData();
+    }
+
+    @Benchmark
+    public byte[] nextIV() {
+        byte[] iv = new byte[16];
+        KeyDataGenerator.nextBytes(iv);
+        return iv;
+    }
+
+    @Benchmark
+    public byte[] decodeKey() {
+        return new KeyData(key_.IV(), key_.key()).keyAsBytes();
+    }
+
+    private KeyData key_;
+}
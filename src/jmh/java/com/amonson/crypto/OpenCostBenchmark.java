@@ -0,0 +1,110 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of opening, reading or writing and closing a small (1 KiB) encrypted file, i.e. the per file setup cost of
+ * each format. The "stream" benchmarks use the legacy fixed IV format and the "RandomIV" ones the IV header.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OpenCostBenchmark {
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        key_ = KeyData.newKeyData();
+        target_ = Files.createTempFile("benchmark", ".out");
+        cbc_ = Files.createTempFile("benchmark", ".cbc");
+        try (OutputStream stream = new EncryptedFileOutputStream(cbc_.toFile(), key_, false)) {
+            stream.write(data_);
+        }
+        randomIV_ = Files.createTempFile("benchmark", ".iv");
+        try (OutputStream stream = new EncryptedFileOutputStream(randomIV_.toFile(), key_, true)) {
+            stream.write(data_);
+        }
+        gcm_ = Files.createTempFile("benchmark", ".gcm");
+        try (EncryptedFileChannelWriter channel = new EncryptedFileChannelWriter(gcm_, key_)) {
+            channel.write(ByteBuffer.wrap(data_));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(target_);
+        Files.deleteIfExists(cbc_);
+        Files.deleteIfExists(randomIV_);
+        Files.deleteIfExists(gcm_);
+    }
+
+    @Benchmark
+    public void streamWrite() throws Exception {
+        try (OutputStream stream = new EncryptedFileOutputStream(target_.toFile(), key_, false)) {
+            stream.write(data_);
+        }
+    }
+
+    @Benchmark
+    public void streamWriteRandomIV() throws Exception {
+        try (OutputStream stream = new EncryptedFileOutputStream(target_.toFile(), key_, true)) {
+            stream.write(data_);
+        }
+    }
+
+    @Benchmark
+    public int streamRead() throws Exception {
+        try (InputStream stream = new EncryptedFileInputStream(cbc_.toFile(), key_, false)) {
+            return stream.readNBytes(buffer_, 0, buffer_.length);
+        }
+    }
+
+    @Benchmark
+    public int streamReadRandomIV() throws Exception {
+        try (InputStream stream = new EncryptedFileInputStream(randomIV_.toFile(), key_, true)) {
+            return stream.readNBytes(buffer_, 0, buffer_.length);
+        }
+    }
+
+    @Benchmark
+    public void channelWrite() throws Exception {
+        try (EncryptedFileChannelWriter channel = new EncryptedFileChannelWriter(target_, key_)) {
+            channel.write(ByteBuffer.wrap(data_));
+        }
+    }
+
+    @Benchmark
+    public int channelRead() throws Exception {
+        try (EncryptedFileChannelReader channel = new EncryptedFileChannelReader(gcm_, key_)) {
+            return channel.read(ByteBuffer.wrap(buffer_));
+        }
+    }
+
+    @Benchmark
+    public int seekableRead() throws Exception {
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(gcm_, key_)) {
+            return channel.read(ByteBuffer.wrap(buffer_), 512L);
+        }
+    }
+
+    private KeyData key_;
+    private Path target_;
+    private Path cbc_;
+    private Path randomIV_;
+    private Path gcm_;
+    private final byte[] data_ = new byte[1024];
+    private final byte[] buffer_ = new byte[2048];
+}
@@ -0,0 +1,64 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole file throughput of {@link ParallelFileCrypto} on the common ForkJoinPool. The "bytes" secondary result is the
+ * throughput in bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParallelCryptoBenchmark {
+    @Param({"67108864", "268435456"})
+    public int fileSize;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        crypto_ = new ParallelFileCrypto(KeyData.newKeyData());
+        byte[] data = new byte[fileSize];
+        new Random(1).nextBytes(data);
+        plain_ = Files.createTempFile("benchmark", ".plain");
+        Files.write(plain_, data);
+        encrypted_ = Files.createTempFile("benchmark", ".gcm");
+        crypto_.encrypt(plain_, encrypted_);
+        target_ = Files.createTempFile("benchmark", ".out");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(plain_);
+        Files.deleteIfExists(encrypted_);
+        Files.deleteIfExists(target_);
+    }
+
+    @Benchmark
+    public void parallelEncrypt(CryptoThroughputBenchmark.ByteCounter counter) throws Exception {
+        crypto_.encrypt(plain_, target_);
+        counter.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void parallelDecrypt(CryptoThroughputBenchmark.ByteCounter counter) throws Exception {
+        crypto_.decrypt(encrypted_, target_);
+        counter.bytes += fileSize;
+    }
+
+    private ParallelFileCrypto crypto_;
+    private Path plain_;
+    private Path encrypted_;
+    private Path target_;
+}
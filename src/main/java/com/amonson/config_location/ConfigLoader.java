@@ -5,14 +5,23 @@
 package com.amonson.config_location;
 
 import com.amonson.prop_store.*;
+import com.amonson.redis.RedisClientPool;
+import com.amonson.xdg.Xdg;
 import org.apache.logging.log4j.core.Logger;
 import redis.clients.jedis.*;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.regex.Pattern;
 
 /**
@@ -38,9 +47,22 @@ import java.util.regex.Pattern;
  *
  * <p>Redis configuration if used must be found in /etc/<i>application_name</i>.{json|yml}.</p>
  *
+ * <p>Merged configurations are cached by name. A cached configuration is used until one of its files is created,
+ * changed or removed, files are checked at most once a second for each name. When Redis is used a cached
+ * configuration is read again after a second, unless {@link #startWatchingRedis()} was called. Watching Redis keeps
+ * a subscription open on a background thread and clears the cache on any keyspace notification for the application
+ * hash or any message published to the "<i>application_name</i>.changed" channel; while it cannot subscribe the
+ * one second limit is used. Keyspace notifications require <code>notify-keyspace-events Kgh</code> on the Redis
+ * server. Call {@link #close()} to stop watching.</p>
+ *
+ * <p>Listeners added with {@link #addListener(String, Listener)} are pushed the new merged configuration when it
+ * changes. The system, custom and user directories that exist when the first listener is added are watched with a
+ * {@link WatchService} and only the changed source is read again before merging. Redis is read again on any
+ * notification for the application hash.</p>
+ *
  * <b>NOTE:</b> This class only works on Linux based OS distributions for filesystem config files but will work against Redis.
  */
-public class ConfigLoader {
+public class ConfigLoader implements AutoCloseable {
     /**
      * Create a configuration file locator object for finding application configuration files or other streams.
      *
@@ -51,6 +73,22 @@ public class ConfigLoader {
      * @throws IllegalArgumentException if any of the input arguments are null or applicationName is blank.
      */
     public ConfigLoader(String applicationName, Logger logger) throws PropStoreFactoryException {
+        this(applicationName, logger, null);
+    }
+
+    /**
+     * Create a configuration file locator object that reads Redis configuration through a shared connection pool
+     * instead of opening a new connection for each lookup. The Redis DB used is still read from the "redis_db"
+     * key of the base configuration file.
+     *
+     * @param applicationName This is the application name that is used as the base filename for the indirect
+     *                        configuration file in /etc. i.e. <b>/etc/<i>applicationName</i>.conf</b>.
+     * @param logger Logger created from {@link java.util.logging.LogManager}.
+     * @param pool The shared Redis connection pool or null to use the "redis_server" from the base configuration.
+     * @throws PropStoreFactoryException when the PropStore fails to load and parse the configuration file.
+     * @throws IllegalArgumentException if any of the input arguments are null or applicationName is blank.
+     */
+    public ConfigLoader(String applicationName, Logger logger, RedisClientPool pool) throws PropStoreFactoryException {
         if(applicationName == null || applicationName.isBlank())
             throw new IllegalArgumentException("applicationName must not be null or empty");
         if(!Pattern.compile("[a-zA-Z]+[-_a-zA-Z0-9]*").matcher(applicationName).matches())
@@ -60,13 +98,18 @@ public class ConfigLoader {
             throw new IllegalArgumentException("You must pass a valid logger to this class.");
         applicationName_ = applicationName;
         log_ = logger;
+        pool_ = pool;
         userDir_ = System.getProperty("user.home") + "/.config/" + applicationName_ + ".d";
         systemDir_ = "/etc/" +  applicationName_ + ".d";
         jsonParser_ = PropStoreFactory.getStore("json");
         yamlParser_ = PropStoreFactory.getStore("yaml");
+        yamlParsers_.set(yamlParser_);
         baseConfig_ = new PropMap();
         getConfigurationByNameFromFile(ETC_DIR + "/" + applicationName_, baseConfig_);
         customDir_ = baseConfig_.getStringOrDefault(CUSTOM_DIR_KEY, null);
+        int db = baseConfig_.getIntegerOrDefault(REDIS_DB_NUMBER, 0);
+        redisChannels_ = new String[] { "__keyspace@" + db + "__:" + applicationName_,
+                applicationName_ + CHANGED_SUFFIX };
     }
 
     /**
@@ -75,30 +118,325 @@ public class ConfigLoader {
      * @param name The base name for the configuration to retrieve, this does not include the extension like
      *            ".json" or ".yml".
      * @return The map of the merged configurations. If there was no configuration found the PropMap will be
-     * empty but not null.
+     * empty but not null. The map is a copy and may be changed by the caller.
      */
     public PropMap getConfigurationByName(String name) {
+        PropMap snapshot = fromSnapshot(name);
+        if(snapshot != null) {
+            PropMap config = new PropMap();
+            getConfigurationByNameFromRedis(name, config);
+            mergeProp(snapshot, config);
+            return config;
+        }
+        long now = System.currentTimeMillis();
+        PropMap cached = fromCache(name, usesRedis(), now);
+        if(cached != null)
+            return cached;
+        long generation = redisGeneration_.get();
+        long[] stamps = fileStamps(name);
         PropMap config = new PropMap();
         getConfigurationByNameFromRedis(name, config);
         getConfigurationByNameFromSystem(name, config);
         getConfigurationByNameFromCustom(name, config);
         getConfigurationByNameFromUser(name, config);
+        toCache(name, config, stamps, generation, now);
         return config;
     }
 
+    /**
+     * Subscribe to Redis changes of the application configuration on a background thread so cached Redis
+     * configuration is used until it changes instead of being read again every second. One Redis connection is held
+     * for the subscription until {@link #close()} is called. Will fail silently if Redis is not used or is already
+     * being watched.
+     */
+    public void startWatchingRedis() {
+        if(usesRedis())
+            startRedisWatch();
+    }
+
+    /**
+     * Get the PropMaps for many configuration names in one pass. Each configuration directory is listed once, all
+     * Redis configuration is fetched in one request and the files are parsed in parallel. The merge order and the
+     * cache are the same as {@link #getConfigurationByName(String)}, cached names are not read again.
+     *
+     * @param names The base names for the configurations to retrieve, these do not include the extension like
+     *            ".json" or ".yml".
+     * @return The map of name to merged configuration in the order of the names. If there was no configuration
+     * found for a name its PropMap will be empty but not null.
+     * @throws IllegalArgumentException if names is null or contains a null or blank name.
+     */
+    public Map<String,PropMap> getConfigurationsByName(Collection<String> names) {
+        if(names == null)
+            throw new IllegalArgumentException("names must not be null");
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(names));
+        for(String name: unique)
+            if(name == null || name.isBlank())
+                throw new IllegalArgumentException("names must not contain a null or empty name");
+        Map<String,PropMap> results = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        boolean redisUsed = usesRedis();
+        long now = System.currentTimeMillis();
+        for(String name: unique) {
+            PropMap cached = (snapshot_ == null) ? fromCache(name, redisUsed, now) : null;
+            results.put(name, cached); // Keeps the order of the names, missing ones are filled in below.
+            if(cached == null)
+                missing.add(name);
+        }
+        if(missing.isEmpty())
+            return results;
+        long generation = redisGeneration_.get();
+        List<long[]> stamps = new ArrayList<>(missing.size());
+        for(String name: missing)
+            stamps.add(fileStamps(name));
+        List<String> redis = getConfigurationsFromRedis(missing);
+        List<PropMap> files = new ArrayList<>(missing.size());
+        for(String name: missing) {
+            PropMap snapshot = fromSnapshot(name);
+            if(snapshot == null) {
+                files = null;
+                break;
+            }
+            files.add(snapshot);
+        }
+        boolean fromFiles = files == null;
+        if(fromFiles)
+            files = getConfigurationsFromFiles(missing);
+        for(int i = 0; i < missing.size(); i++) {
+            PropMap config = new PropMap();
+            mergeRedisJson(redis.get(i), config);
+            mergeProp(files.get(i), config);
+            if(fromFiles)
+                toCache(missing.get(i), config, stamps.get(i), generation, now);
+            results.put(missing.get(i), config);
+        }
+        return results;
+    }
+
+    /**
+     * Use a precompiled binary snapshot of all file configurations for the application, for short lived
+     * processes. The snapshot is kept in the XDG cache home and is compiled again when any configuration file was
+     * added, removed or changed (by length, or modified time and SHA-256). Once in use, configurations are decoded
+     * from the memory mapped snapshot and no configuration files are read; later file changes are not seen by this
+     * object. Redis configuration is still read from Redis. If a configuration in the snapshot turns out to be
+     * corrupt the snapshot is dropped and the configuration files are read again.
+     *
+     * @return true if the existing snapshot was current, false if it was compiled again.
+     * @throws IOException when the snapshot cannot be read or written.
+     */
+    public boolean useSnapshot() throws IOException {
+        if(snapshotFile_ == null)
+            snapshotFile_ = defaultSnapshotFile();
+        List<File> sources = snapshotSources();
+        ConfigSnapshot snapshot = ConfigSnapshot.open(snapshotFile_);
+        boolean current = snapshot != null && snapshot.isCurrent(sources);
+        if(!current) {
+            List<ConfigSnapshot.Source> described = ConfigSnapshot.describe(sources);
+            Set<String> names = new TreeSet<>();
+            for(File source: sources)
+                names.add(configurationName(source.getName()));
+            List<String> ordered = new ArrayList<>(names);
+            List<PropMap> configs = getConfigurationsFromFiles(ordered);
+            Map<String,PropMap> compiled = new LinkedHashMap<>();
+            for(int i = 0; i < ordered.size(); i++)
+                compiled.put(ordered.get(i), configs.get(i));
+            ConfigSnapshot.write(snapshotFile_, described, compiled);
+            snapshot = ConfigSnapshot.open(snapshotFile_);
+            if(snapshot == null)
+                throw new IOException("The written configuration snapshot could not be read: " + snapshotFile_);
+        }
+        snapshot_ = snapshot;
+        clearCache();
+        return current;
+    }
+
+    /**
+     * Add a listener that is pushed the merged configuration each time it changes. The listener is called from a
+     * background thread. Redis is watched as by {@link #startWatchingRedis()}, call {@link #close()} to stop the
+     * background threads.
+     *
+     * @param name The base name for the configuration to watch, this does not include the extension like
+     *            ".json" or ".yml".
+     * @param listener The listener called with the name and a copy of the new merged configuration.
+     * @throws IllegalArgumentException if any of the input arguments are null or name is blank.
+     * @throws IOException when the directories cannot be watched.
+     */
+    public void addListener(String name, Listener listener) throws IOException {
+        if(name == null || name.isBlank())
+            throw new IllegalArgumentException("name must not be null or empty");
+        if(listener == null)
+            throw new IllegalArgumentException("listener must not be null");
+        startFileWatch();
+        if(usesRedis())
+            startRedisWatch();
+        synchronized (watched_) {
+            WatchedConfig config = watched_.get(name);
+            if(config == null) {
+                config = new WatchedConfig();
+                for(int layer = 0; layer < LAYER_COUNT; layer++)
+                    config.layers[layer] = readLayer(name, layer);
+                watched_.put(name, config);
+            }
+            config.listeners.add(listener);
+        }
+    }
+
+    /**
+     * Remove a listener added with {@link #addListener(String, Listener)}. Will fail silently if the listener was
+     * not added for the name.
+     *
+     * @param name The base name for the configuration that was watched.
+     * @param listener The listener to remove.
+     */
+    public void removeListener(String name, Listener listener) {
+        synchronized (watched_) {
+            WatchedConfig config = watched_.get(name);
+            if(config != null) {
+                config.listeners.remove(listener);
+                if(config.listeners.isEmpty())
+                    watched_.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Stop watching Redis and the configuration directories for changes and clear the cache. Configuration can
+     * still be read after this but Redis configuration is not cached.
+     */
+    @Override
+    public void close() {
+        Thread redisThread;
+        Thread fileThread;
+        WatchService service;
+        synchronized (this) {
+            closed_ = true;
+            redisThread = redisWatchThread_;
+            redisWatchThread_ = null;
+            fileThread = fileWatchThread_;
+            fileWatchThread_ = null;
+            service = watchService_;
+            watchService_ = null;
+        }
+        if(service != null) {
+            try {
+                service.close();
+                fileThread.join();
+            } catch(IOException | InterruptedException e) { /* Ignore */ }
+        }
+        synchronized (watched_) {
+            watched_.clear();
+        }
+        if(redisThread != null) {
+            redisThread.interrupt();
+            try {
+                while(redisThread.isAlive()) { // The subscription may not be established yet.
+                    if(subscriber_.isSubscribed())
+                        subscriber_.unsubscribe();
+                    redisThread.join(STOP_POLL_MILLISECONDS);
+                }
+            } catch(InterruptedException e) { /* Ignore */ }
+        }
+        clearCache();
+    }
+
     private void getConfigurationByNameFromRedis(String name, PropMap config) {
-        createRedisClient();
-        if(redisClient_ != null) {
-            if(redisClient_.hexists(applicationName_, name)) {
+        String json = null;
+        if(pool_ != null) {
+            try {
+                json = pool_.execute(baseConfig_.getIntegerOrDefault(REDIS_DB_NUMBER, 0),
+                        (jedis) -> jedis.hget(applicationName_, name));
+            } catch(JedisException e) {
+                log_.warn(e.getMessage());
+            }
+        } else {
+            Jedis client = openRedisClient();
+            if(client != null) {
                 try {
-                    jsonParser_.fromStringToMap(redisClient_.hget(applicationName_, name));
-                } catch(PropStoreException e) {
-                    // Treat bad data as no data but log it.
-                    log_.warn(e.getMessage());
+                    json = client.hget(applicationName_, name);
+                } finally {
+                    client.close();
                 }
             }
         }
-        closeRedisClient();
+        mergeRedisJson(json, config);
+    }
+
+    // Returns the JSON for each name in order, null for names not found or when Redis is not available.
+    private List<String> getConfigurationsFromRedis(List<String> names) {
+        String[] fields = names.toArray(new String[0]);
+        List<String> values = null;
+        try {
+            if(pool_ != null)
+                values = pool_.execute(baseConfig_.getIntegerOrDefault(REDIS_DB_NUMBER, 0),
+                        (jedis) -> jedis.hmget(applicationName_, fields));
+            else {
+                Jedis client = openRedisClient();
+                if(client != null) {
+                    try {
+                        values = client.hmget(applicationName_, fields);
+                    } finally {
+                        client.close();
+                    }
+                }
+            }
+        } catch(JedisException e) {
+            log_.warn(e.getMessage());
+        }
+        if(values == null)
+            values = Collections.nCopies(fields.length, null);
+        return values;
+    }
+
+    private void mergeRedisJson(String json, PropMap config) {
+        if(json != null) {
+            try {
+                mergeProp(jsonParser_.fromStringToMap(json), config);
+            } catch(PropStoreException e) {
+                // Treat bad data as no data but log it.
+                log_.warn(e.getMessage());
+            }
+        }
+    }
+
+    // File layers only, each directory is listed once and the files are parsed in parallel.
+    private List<PropMap> getConfigurationsFromFiles(List<String> names) {
+        String[] dirs = { systemDir_, customDir_, userDir_ };
+        List<Set<String>> listings = new ArrayList<>();
+        for(String dir: dirs)
+            listings.add(listConfigurationFiles(dir));
+        return names.parallelStream().map((name) -> {
+            PropMap config = new PropMap();
+            for(int i = 0; i < dirs.length; i++) {
+                if(listings.get(i).contains(name + ".json"))
+                    readFile(new File(dirs[i], name + ".json"), jsonParser_, config);
+                else if(listings.get(i).contains(name + ".yml"))
+                    readFile(new File(dirs[i], name + ".yml"), yamlParsers_.get(), config);
+            }
+            return config;
+        }).collect(Collectors.toList());
+    }
+
+    private static Set<String> listConfigurationFiles(String dir) {
+        String[] files = (dir == null) ? null : new File(dir).list();
+        Set<String> result = new HashSet<>();
+        if(files != null)
+            for(String file: files)
+                if(configurationName(file) != null)
+                    result.add(file);
+        return result;
+    }
+
+    // Every configuration file in the system, custom and user directories, in a stable order.
+    private List<File> snapshotSources() {
+        List<File> sources = new ArrayList<>();
+        for(String dir: new String[] { systemDir_, customDir_, userDir_ })
+            for(String file: new TreeSet<>(listConfigurationFiles(dir)))
+                sources.add(new File(dir, file));
+        return sources;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Path defaultSnapshotFile() {
+        return new Xdg(applicationName_).getCacheHome().toPath().resolve(applicationName_ + SNAPSHOT_SUFFIX);
     }
 
     private void getConfigurationByNameFromCustom(String name, PropMap config) {
@@ -121,15 +459,27 @@ public class ConfigLoader {
             file = new File(prefix + ".yml");
             if(!file.canRead())
                 return;
-            parser_ = yamlParser_;
+            parser_ = yamlParsers_.get();
         }
+        readFile(file, parser_, config);
+    }
+
+    private void readFile(File file, PropStore parser, PropMap config) {
         try (InputStream stream = new FileInputStream(file)) {
-            mergeProp(parser_.readMap(stream), config);
+            mergeProp(parser.readMap(stream), config);
         } catch(IOException | PropStoreException e) {
             log_.warn(e.getMessage());
         }
     }
 
+    private PropStore createYamlParser() {
+        try {
+            return PropStoreFactory.getStore("yaml");
+        } catch(PropStoreFactoryException e) {
+            throw new IllegalStateException(e); // Cannot happen, the same parser was created in the ctor.
+        }
+    }
+
     private void mergeProp(PropMap newProps, PropMap target) { // On type mismatch newProps takes precedence.
         for(String key: newProps.keySet())
             if(newProps.get(key) instanceof PropMap && target.containsKey(key) && target.get(key) instanceof PropMap)
@@ -138,27 +488,249 @@ public class ConfigLoader {
                 target.put(key, newProps.get(key)); // Arrays are not merged, only replaced.
     }
 
-    private void closeRedisClient() {
-        if(redisClient_ != null) {
-            redisClient_.close();
-            redisClient_ = null;
+    private synchronized void startFileWatch() throws IOException {
+        if(watchService_ != null || closed_)
+            return;
+        WatchService service = FileSystems.getDefault().newWatchService();
+        Map<WatchKey,List<Integer>> keys = new HashMap<>();
+        String[] dirs = new String[LAYER_COUNT];
+        dirs[SYSTEM_LAYER] = systemDir_;
+        dirs[CUSTOM_LAYER] = customDir_;
+        dirs[USER_LAYER] = userDir_;
+        try {
+            for(int layer = SYSTEM_LAYER; layer < LAYER_COUNT; layer++) {
+                if(dirs[layer] == null || !Files.isDirectory(Path.of(dirs[layer])))
+                    continue;
+                WatchKey key = Path.of(dirs[layer]).register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                keys.computeIfAbsent(key, (k) -> new ArrayList<>()).add(layer);
+            }
+        } catch(IOException e) {
+            service.close();
+            throw e;
         }
+        watchService_ = service;
+        fileWatchThread_ = new Thread(() -> watchFiles(service, keys), "ConfigLoader-files-" + applicationName_);
+        fileWatchThread_.setDaemon(true);
+        fileWatchThread_.start();
     }
 
-    private void createRedisClient() {
-        if(redisClient_ == null && baseConfig_.getString(REDIS_SERVER_KEY) != null) {
-            HostAndPort authority = new HostAndPort(baseConfig_.getString(REDIS_SERVER_KEY),
-                    baseConfig_.getInteger(REDIS_PORT_KEY));
-            redisClient_ = factory_.create(authority);
-            if(redisClient_ != null) {
-                if (baseConfig_.getStringOrDefault(REDIS_SECRET_KEY, null) != null)
-                    redisClient_.auth(baseConfig_.getString(REDIS_SECRET_KEY));
-                redisClient_.connect();
-                redisClient_.select(baseConfig_.getIntegerOrDefault(REDIS_DB_NUMBER, 0));
+    private void watchFiles(WatchService service, Map<WatchKey,List<Integer>> keys) {
+        try {
+            while(true) {
+                WatchKey key = service.take();
+                for(WatchEvent<?> event: key.pollEvents()) {
+                    for(int layer: keys.getOrDefault(key, List.of())) {
+                        try {
+                            if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+                                reloadLayer(null, layer);
+                            else
+                                reloadLayer(configurationName(event.context().toString()), layer);
+                        } catch(RuntimeException e) { // i.e. a partially written file, the next event reloads it.
+                            log_.warn(e.getMessage());
+                        }
+                    }
+                }
+                key.reset();
             }
+        } catch(InterruptedException | ClosedWatchServiceException e) { /* Closed */ }
+    }
+
+    private static String configurationName(String filename) {
+        for(String extension: EXTENSIONS)
+            if(filename.endsWith(extension))
+                return filename.substring(0, filename.length() - extension.length());
+        return null;
+    }
+
+    // Read one source of a watched configuration again and notify the listeners if the merged result changed. A
+    // null name reloads the layer of every watched configuration. Each layer is only reloaded by one thread, the
+    // Redis layer by the Redis thread and the file layers by the file thread.
+    private void reloadLayer(String name, int layer) {
+        if(name == null) {
+            for(String watched: new ArrayList<>(watched_.keySet()))
+                reloadLayer(watched, layer);
+            return;
+        }
+        if(!watched_.containsKey(name))
+            return;
+        PropMap fresh = readLayer(name, layer); // Not under the lock, it reads files or Redis.
+        PropMap merged;
+        List<Listener> listeners;
+        synchronized (watched_) {
+            WatchedConfig config = watched_.get(name);
+            if(config == null || fresh.equals(config.layers[layer]))
+                return;
+            config.layers[layer] = fresh;
+            merged = new PropMap();
+            for(PropMap source: config.layers)
+                mergeProp(copyMap(source), merged);
+            listeners = new ArrayList<>(config.listeners);
+        }
+        cache_.remove(name);
+        for(Listener listener: listeners)
+            listener.configurationChanged(name, copyMap(merged));
+    }
+
+    private PropMap readLayer(String name, int layer) {
+        PropMap config = new PropMap();
+        switch(layer) {
+            case REDIS_LAYER: getConfigurationByNameFromRedis(name, config); break;
+            case SYSTEM_LAYER: getConfigurationByNameFromSystem(name, config); break;
+            case CUSTOM_LAYER: getConfigurationByNameFromCustom(name, config); break;
+            default: getConfigurationByNameFromUser(name, config); break;
+        }
+        return config;
+    }
+
+    // Last modified time and length of every file that can contribute to the named configuration.
+    private long[] fileStamps(String name) {
+        String[] dirs = { systemDir_, customDir_, userDir_ };
+        long[] stamps = new long[dirs.length * 4];
+        int index = 0;
+        for(String dir: dirs) {
+            for(String extension: EXTENSIONS) {
+                if(dir != null) {
+                    File file = new File(dir + "/" + name + extension);
+                    stamps[index] = file.lastModified();
+                    stamps[index + 1] = file.length();
+                }
+                index += 2;
+            }
+        }
+        return stamps;
+    }
+
+    private static PropMap copyMap(PropMap map) {
+        PropMap copy = new PropMap();
+        for(Map.Entry<String,Object> entry: map.entrySet())
+            copy.put(entry.getKey(), copyValue(entry.getValue()));
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if(value instanceof PropMap)
+            return copyMap((PropMap)value);
+        if(value instanceof PropList) {
+            PropList copy = new PropList();
+            for(Object item: (PropList)value)
+                copy.add(copyValue(item));
+            return copy;
+        }
+        return value; // Remaining types are immutable.
+    }
+
+    // A copy of the cached configuration or null when it is not cached or is stale.
+    private PropMap fromCache(String name, boolean redis, long now) {
+        CachedConfig cached = cache_.get(name);
+        if(cached != null && (!redis || redisWatched_ || now - cached.loaded < redisCacheMilliseconds_)) {
+            if(now - cached.checked < fileCheckMilliseconds_)
+                return copyMap(cached.config);
+            if(Arrays.equals(cached.stamps, fileStamps(name))) {
+                cached.checked = now;
+                return copyMap(cached.config);
+            }
+        }
+        return null;
+    }
+
+    // The stamps and generation must be taken before the configuration is read.
+    private void toCache(String name, PropMap config, long[] stamps, long generation, long now) {
+        synchronized (cache_) { // A Redis change while loading leaves the result uncached.
+            if(generation == redisGeneration_.get())
+                cache_.put(name, new CachedConfig(copyMap(config), stamps, now));
         }
     }
 
+    // The file configuration from the snapshot or null when no snapshot is used. A corrupt snapshot is dropped so
+    // this and later calls read the configuration files instead.
+    private PropMap fromSnapshot(String name) {
+        ConfigSnapshot snapshot = snapshot_;
+        if(snapshot == null)
+            return null;
+        try {
+            return snapshot.get(name);
+        } catch(IllegalStateException e) {
+            log_.warn(String.format("Reading the configuration files, the snapshot '%s' is corrupt: %s",
+                    snapshotFile_, e.getMessage()));
+            snapshot_ = null;
+            return null;
+        }
+    }
+
+    private void clearCache() {
+        synchronized (cache_) {
+            redisGeneration_.incrementAndGet();
+            cache_.clear();
+        }
+    }
+
+    private boolean usesRedis() {
+        return pool_ != null || baseConfig_.getString(REDIS_SERVER_KEY) != null;
+    }
+
+    private synchronized void startRedisWatch() {
+        if(redisWatchThread_ == null && !closed_) {
+            redisWatchThread_ = new Thread(this::watchRedis, "ConfigLoader-" + applicationName_);
+            redisWatchThread_.setDaemon(true);
+            redisWatchThread_.start();
+        }
+    }
+
+    private void watchRedis() {
+        long delay = MINIMUM_RETRY_DELAY;
+        int db = baseConfig_.getIntegerOrDefault(REDIS_DB_NUMBER, 0);
+        while(!Thread.currentThread().isInterrupted()) {
+            try {
+                if(pool_ != null)
+                    pool_.execute(db, (jedis) -> {
+                        jedis.subscribe(subscriber_, redisChannels_);
+                        return null;
+                    });
+                else {
+                    Jedis client = openRedisClient();
+                    if(client != null) {
+                        try {
+                            client.subscribe(subscriber_, redisChannels_);
+                        } finally {
+                            client.close();
+                        }
+                    }
+                }
+            } catch(JedisException e) {
+                if(redisWatched_ || delay == MINIMUM_RETRY_DELAY) // Only once until subscribed again.
+                    log_.warn(e.getMessage());
+                else
+                    log_.debug(e.getMessage());
+            }
+            if(redisWatched_)
+                delay = MINIMUM_RETRY_DELAY;
+            redisWatched_ = false;
+            clearCache();
+            try {
+                Thread.sleep(delay);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delay = Math.min(delay * 2L, MAXIMUM_RETRY_DELAY);
+        }
+    }
+
+    private Jedis openRedisClient() {
+        if(baseConfig_.getString(REDIS_SERVER_KEY) == null)
+            return null;
+        HostAndPort authority = new HostAndPort(baseConfig_.getString(REDIS_SERVER_KEY),
+                baseConfig_.getInteger(REDIS_PORT_KEY));
+        Jedis client = factory_.create(authority);
+        if(client != null) {
+            if (baseConfig_.getStringOrDefault(REDIS_SECRET_KEY, null) != null)
+                client.auth(baseConfig_.getString(REDIS_SECRET_KEY));
+            client.connect();
+            client.select(baseConfig_.getIntegerOrDefault(REDIS_DB_NUMBER, 0));
+        }
+        return client;
+    }
+
     private Jedis createInternalClient(HostAndPort authority) {
         try {
             return new Jedis(authority);
@@ -170,14 +742,44 @@ public class ConfigLoader {
 
     private final String applicationName_;
     private final Logger log_;
+    private final RedisClientPool pool_;
     private       String userDir_; // not marked final for UT.
     private       String systemDir_; // not marked final for UT.
     private       String customDir_; // not marked final for UT.
     private final PropMap baseConfig_;
+    private final String[] redisChannels_;
     private final PropStore jsonParser_;
     private final PropStore yamlParser_;
-    private       Jedis redisClient_;
+    private final ThreadLocal<PropStore> yamlParsers_ = ThreadLocal.withInitial(this::createYamlParser); // not thread safe
     private       JedisFactory factory_ = this::createInternalClient; // not marked final for UT.
+    private final Map<String,CachedConfig> cache_ = new ConcurrentHashMap<>();
+    private final AtomicLong redisGeneration_ = new AtomicLong(0L);
+    private final JedisPubSub subscriber_ = new JedisPubSub() {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            if(subscribedChannels != redisChannels_.length)
+                return; // Called for each channel, reload once when all are subscribed.
+            clearCache(); // Changes may have been missed while not subscribed.
+            redisWatched_ = true;
+            reloadLayer(null, REDIS_LAYER);
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            clearCache();
+            reloadLayer(null, REDIS_LAYER);
+        }
+    };
+    private volatile boolean redisWatched_ = false;
+    private       boolean closed_ = false;
+    private       Thread redisWatchThread_ = null;
+    private       long fileCheckMilliseconds_ = 1_000L; // not marked final for UT.
+    private       long redisCacheMilliseconds_ = 1_000L; // not marked final for UT.
+    private       Path snapshotFile_ = null; // not marked final for UT.
+    private volatile ConfigSnapshot snapshot_ = null;
+    private final Map<String,WatchedConfig> watched_ = new ConcurrentHashMap<>();
+    private       WatchService watchService_ = null;
+    private       Thread fileWatchThread_ = null;
 
     private static       String ETC_DIR = "/etc"; // not marked final for UT.
     private static final String CUSTOM_DIR_KEY = "custom_dir";
@@ -185,6 +787,50 @@ public class ConfigLoader {
     private static final String REDIS_PORT_KEY = "redis_port";
     private static final String REDIS_SECRET_KEY = "redis_secret";
     private static final String REDIS_DB_NUMBER = "redis_db";
+    private static final String CHANGED_SUFFIX = ".changed";
+    private static final String SNAPSHOT_SUFFIX = ".config.snapshot";
+    private static final String[] EXTENSIONS = { ".json", ".yml" };
+    private static final long MINIMUM_RETRY_DELAY = 50L;
+    private static final long MAXIMUM_RETRY_DELAY = 5_000L;
+    private static final long STOP_POLL_MILLISECONDS = 100L;
+    private static final int REDIS_LAYER = 0; // Layers are in merge order.
+    private static final int SYSTEM_LAYER = 1;
+    private static final int CUSTOM_LAYER = 2;
+    private static final int USER_LAYER = 3;
+    private static final int LAYER_COUNT = 4;
+
+    private static final class CachedConfig {
+        CachedConfig(PropMap config, long[] stamps, long loaded) {
+            this.config = config;
+            this.stamps = stamps;
+            this.loaded = loaded;
+            this.checked = loaded;
+        }
+
+        final PropMap config;
+        final long[] stamps;
+        final long loaded;
+        volatile long checked;
+    }
+
+    private static final class WatchedConfig {
+        final PropMap[] layers = new PropMap[LAYER_COUNT];
+        final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Receives the merged configuration when a watched configuration changes.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called from a background thread when the merged configuration changes.
+         *
+         * @param name The base name of the configuration.
+         * @param configuration A copy of the new merged configuration.
+         */
+        void configurationChanged(String name, PropMap configuration);
+    }
 
     @FunctionalInterface // Allows mocking of the Jedis object creation.
     interface JedisFactory {
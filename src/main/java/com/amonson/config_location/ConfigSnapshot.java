@@ -0,0 +1,320 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.config_location;
+
+import com.amonson.prop_store.PropList;
+import com.amonson.prop_store.PropMap;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary snapshot of merged configurations used by {@link ConfigLoader}. The snapshot records the path, modified
+ * time, length and SHA-256 of every source file it was compiled from. A snapshot is current when the same files
+ * exist with the same modified time and length, or when a file with a changed modified time still has the same
+ * hash. The file is memory mapped and each configuration is decoded from the mapping when it is requested.
+ *
+ * <p>Format (big endian): magic, version, source count, sources (path, modified, length, SHA-256), name count,
+ * names with the offset of their map, then the encoded maps. Values are a type tag followed by the value.</p>
+ */
+final class ConfigSnapshot {
+    private ConfigSnapshot(List<Source> sources, Map<String,Integer> offsets, ByteBuffer maps) {
+        sources_ = sources;
+        offsets_ = offsets;
+        maps_ = maps;
+    }
+
+    /**
+     * Memory map an existing snapshot.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot or null if the file does not exist or is not a snapshot of this version.
+     * @throws IOException When the file cannot be read.
+     */
+    static ConfigSnapshot open(Path file) throws IOException {
+        if(!Files.isRegularFile(file))
+            return null;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        }
+        try {
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            int count = buffer.getInt();
+            List<Source> sources = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                String path = readString(buffer);
+                long modified = buffer.getLong();
+                long length = buffer.getLong();
+                byte[] hash = new byte[HASH_BYTES];
+                buffer.get(hash);
+                sources.add(new Source(path, modified, length, hash));
+            }
+            count = buffer.getInt();
+            Map<String,Integer> offsets = new HashMap<>();
+            for(int i = 0; i < count; i++) {
+                String name = readString(buffer);
+                offsets.put(name, buffer.getInt());
+            }
+            return new ConfigSnapshot(sources, offsets, buffer.slice());
+        } catch(RuntimeException e) { // Truncated or corrupt.
+            return null;
+        }
+    }
+
+    /**
+     * Record the modified time, length and hash of source files. This must be done before the files are read
+     * so a change while compiling makes the snapshot stale rather than wrong.
+     *
+     * @param files The source files.
+     * @return The recorded sources.
+     * @throws IOException When a file cannot be read.
+     */
+    static List<Source> describe(List<File> files) throws IOException {
+        List<Source> sources = new ArrayList<>(files.size());
+        for(File file: files) {
+            long modified = file.lastModified();
+            long length = file.length();
+            sources.add(new Source(file.getPath(), modified, length, hash(file)));
+        }
+        return sources;
+    }
+
+    /**
+     * Write a snapshot, replacing any existing snapshot atomically.
+     *
+     * @param file The snapshot file.
+     * @param sources The sources recorded before the configurations were compiled.
+     * @param configs The merged configuration for each name.
+     * @throws IOException When the file cannot be written.
+     */
+    static void write(Path file, List<Source> sources, Map<String,PropMap> configs) throws IOException {
+        ByteArrayOutputStream mapBytes = new ByteArrayOutputStream();
+        DataOutputStream maps = new DataOutputStream(mapBytes);
+        Map<String,Integer> offsets = new LinkedHashMap<>();
+        for(Map.Entry<String,PropMap> entry: configs.entrySet()) {
+            offsets.put(entry.getKey(), maps.size());
+            writeValue(maps, entry.getValue());
+        }
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sources.size());
+            for(Source source: sources) {
+                writeString(out, source.path);
+                out.writeLong(source.modified);
+                out.writeLong(source.length);
+                out.write(source.hash);
+            }
+            out.writeInt(offsets.size());
+            for(Map.Entry<String,Integer> entry: offsets.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            mapBytes.writeTo(out);
+        } catch(IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Check if the snapshot was compiled from exactly the current source files.
+     *
+     * @param sources The current source files.
+     * @return true if all sources are unchanged, false otherwise.
+     */
+    boolean isCurrent(List<File> sources) {
+        if(sources.size() != sources_.size())
+            return false;
+        Map<String,Source> recorded = new HashMap<>();
+        for(Source source: sources_)
+            recorded.put(source.path, source);
+        for(File file: sources) {
+            Source source = recorded.get(file.getPath());
+            if(source == null || source.length != file.length())
+                return false;
+            if(source.modified != file.lastModified()) {
+                try {
+                    if(!Arrays.equals(source.hash, hash(file)))
+                        return false;
+                } catch(IOException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the merged configuration for a name.
+     *
+     * @param name The base name of the configuration.
+     * @return The configuration or an empty PropMap if the name has no configuration files.
+     * @throws IllegalStateException When the configuration in the snapshot is corrupt or truncated.
+     */
+    PropMap get(String name) {
+        Integer offset = offsets_.get(name);
+        if(offset == null)
+            return new PropMap();
+        try {
+            ByteBuffer buffer = maps_.duplicate(); // Position is per caller.
+            buffer.position(offset);
+            return (PropMap)readValue(buffer);
+        } catch(IllegalStateException e) {
+            throw e;
+        } catch(RuntimeException e) { // Truncated or corrupt, e.g. BufferUnderflowException.
+            throw new IllegalStateException("Corrupt configuration snapshot for the name: " + name, e);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if(value == null)
+            out.writeByte(NULL);
+        else if(value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String)value);
+        } else if(value instanceof Boolean)
+            out.writeByte((Boolean)value ? TRUE : FALSE);
+        else if(value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short)value);
+        } else if(value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)value);
+        } else if(value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)value);
+        } else if(value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float)value);
+        } else if(value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)value);
+        } else if(value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if(value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if(value instanceof PropMap) {
+            PropMap map = (PropMap)value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for(Map.Entry<String,Object> entry: map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if(value instanceof PropList) {
+            PropList list = (PropList)value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for(Object item: list)
+                writeValue(out, item);
+        } else // i.e. AtomicLong, never produced by the PropStore parsers.
+            throw new IOException("Unsupported configuration value type: " + value.getClass().getName());
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch(tag) {
+            case NULL: return null;
+            case STRING: return readString(buffer);
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            case SHORT: return buffer.getShort();
+            case INTEGER: return buffer.getInt();
+            case LONG: return buffer.getLong();
+            case FLOAT: return buffer.getFloat();
+            case DOUBLE: return buffer.getDouble();
+            case BIG_INTEGER: return new BigInteger(readString(buffer));
+            case BIG_DECIMAL: return new BigDecimal(readString(buffer));
+            case MAP: {
+                int count = buffer.getInt();
+                PropMap map = new PropMap();
+                for(int i = 0; i < count; i++) {
+                    String key = readString(buffer);
+                    map.put(key, readValue(buffer));
+                }
+                return map;
+            }
+            case LIST: {
+                int count = buffer.getInt();
+                PropList list = new PropList();
+                for(int i = 0; i < count; i++)
+                    list.add(readValue(buffer));
+                return list;
+            }
+            default: throw new IllegalStateException("Corrupt configuration snapshot, unknown tag: " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] hash(File file) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+        } catch(NoSuchAlgorithmException e) {
+            throw new IOException(e); // Cannot happen, SHA-256 is required on all Java platforms.
+        }
+    }
+
+    private final List<Source> sources_;
+    private final Map<String,Integer> offsets_;
+    private final ByteBuffer maps_;
+
+    private static final int MAGIC = 0x43464753; // "CFGS"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 32;
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte SHORT = 4;
+    private static final byte INTEGER = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte BIG_INTEGER = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte MAP = 11;
+    private static final byte LIST = 12;
+
+    static final class Source {
+        Source(String path, long modified, long length, byte[] hash) {
+            this.path = path;
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        final String path;
+        final long modified;
+        final long length;
+        final byte[] hash;
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Compression applied to the plaintext by {@link EncryptedSegmentOutputStream} before it is encrypted. The codec is
+ * recorded in the header of the encrypted data so {@link EncryptedSegmentInputStream} applies the matching
+ * decompression. The decompression fails with an IOException if any data follows the end of the compressed data.
+ */
+public enum CompressionCodec {
+    /**
+     * No compression.
+     */
+    NONE((byte)0),
+    /**
+     * The zlib format (RFC 1950), deflate data with a 2 byte header and an Adler-32 checksum of the plaintext.
+     */
+    DEFLATE((byte)1),
+    /**
+     * A single GZIP member (RFC 1952), deflate data with a 10 byte header and a CRC-32 and length of the plaintext.
+     */
+    GZIP((byte)2);
+
+    CompressionCodec(byte id) {
+        id_ = id;
+    }
+
+    /**
+     * @return The identifier stored in the header.
+     */
+    byte id() {
+        return id_;
+    }
+
+    /**
+     * Find the codec for a header identifier.
+     *
+     * @param id The identifier from the header.
+     * @return The codec.
+     * @throws IOException When the identifier is not known.
+     */
+    static CompressionCodec fromId(byte id) throws IOException {
+        for(CompressionCodec codec: values())
+            if(codec.id_ == id)
+                return codec;
+        throw new IOException("Unknown compression codec in the encrypted data header: " + id);
+    }
+
+    OutputStream compress(OutputStream out) throws IOException {
+        switch(this) {
+            case DEFLATE: {
+                Deflater deflater = new Deflater();
+                return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end(); // Not done by the stream when the Deflater is supplied.
+                        }
+                    }
+                };
+            }
+            case GZIP: return new GZIPOutputStream(out, BUFFER_SIZE);
+            default: return out;
+        }
+    }
+
+    InputStream decompress(InputStream in) {
+        switch(this) {
+            case DEFLATE: return new StrictInflaterInputStream(in, false);
+            case GZIP: return new StrictInflaterInputStream(in, true);
+            default: return in;
+        }
+    }
+
+    private final byte id_;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Inflates one zlib stream or GZIP member and fails on any data after it, which the JDK streams ignore.
+    private static final class StrictInflaterInputStream extends InflaterInputStream {
+        StrictInflaterInputStream(InputStream in, boolean gzip) {
+            super(in, new Inflater(gzip), BUFFER_SIZE); // GZIP data has no zlib wrapper.
+            gzip_ = gzip;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if(ended_)
+                return -1;
+            if(gzip_ && !started_)
+                readHeader();
+            started_ = true;
+            int count = super.read(bytes, off, len);
+            if(count > 0 && gzip_)
+                crc_.update(bytes, off, count);
+            else if(count < 0) {
+                if(!inf.finished())
+                    throw new ZipException("The compressed data requires a preset dictionary");
+                int remaining = inf.getRemaining();
+                if(gzip_)
+                    remaining = readTrailer(remaining);
+                if(remaining != 0 || in.read() >= 0)
+                    throw new IOException("Unexpected data after the end of the compressed data");
+                ended_ = true;
+            }
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return ended_ ? 0 : super.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end(); // Not done by the stream when the Inflater is supplied.
+            }
+        }
+
+        private void readHeader() throws IOException {
+            if(readByte() != 0x1f || readByte() != 0x8b || readByte() != 8)
+                throw new ZipException("The compressed data is not in the GZIP format");
+            int flags = readByte();
+            for(int i = 0; i < 6; i++) // Time, extra flags and OS.
+                readByte();
+            if((flags & FEXTRA) != 0)
+                for(int length = readByte() | (readByte() << 8); length > 0; length--)
+                    readByte();
+            if((flags & FNAME) != 0)
+                skipString();
+            if((flags & FCOMMENT) != 0)
+                skipString();
+            if((flags & FHCRC) != 0) {
+                readByte();
+                readByte();
+            }
+        }
+
+        // The trailer starts in the bytes buffered but not used by the inflater, returns the count left over.
+        private int readTrailer(int remaining) throws IOException {
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            int buffered = Math.min(remaining, trailer.capacity());
+            trailer.put(buf, len - remaining, buffered);
+            while(trailer.hasRemaining())
+                trailer.put((byte)readByte());
+            trailer.flip();
+            if(trailer.getInt() != (int)crc_.getValue() || trailer.getInt() != (int)inf.getBytesWritten())
+                throw new ZipException("The GZIP CRC or length does not match the data");
+            return remaining - buffered;
+        }
+
+        private void skipString() throws IOException {
+            int value;
+            do {
+                value = readByte();
+            } while(value != 0);
+        }
+
+        private int readByte() throws IOException {
+            int value = in.read();
+            if(value < 0)
+                throw new EOFException("Unexpected end of the GZIP data");
+            return value;
+        }
+
+        private final boolean gzip_;
+        private final CRC32 crc_ = new CRC32();
+        private       boolean started_ = false;
+        private       boolean ended_ = false;
+
+        private static final int FHCRC = 2;
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+    }
+}
@@ -0,0 +1,186 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import javax.crypto.Cipher;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * Reads a file written by {@link EncryptedFileChannelWriter} through a FileChannel. Data is decrypted a whole
+ * segment at a time between direct buffers. In {@link EncryptionMode#GCM} every segment is authenticated before
+ * any of its bytes are returned and a truncated or modified file causes an IOException.
+ * {@link EncryptionMode#CBC} also reads legacy files written by {@link EncryptedFileOutputStream} without the IV
+ * header.
+ */
+public class EncryptedFileChannelReader implements ReadableByteChannel {
+    /**
+     * Open a file written in {@link EncryptionMode#GCM}.
+     *
+     * @param file The file to read.
+     * @param key Key object for crypto.
+     * @throws IOException When the file cannot be opened or is not in the expected format.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     */
+    public EncryptedFileChannelReader(Path file, KeyData key) throws IOException, GeneralSecurityException {
+        this(file, key, EncryptionMode.GCM);
+    }
+
+    /**
+     * Open an encrypted file.
+     *
+     * @param file The file to read.
+     * @param key Key object for crypto.
+     * @param mode The encrypted file format.
+     * @throws IOException When the file cannot be opened or is not in the expected format.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public EncryptedFileChannelReader(Path file, KeyData key, EncryptionMode mode) throws IOException,
+            GeneralSecurityException {
+        if(file == null)
+            throw new IllegalArgumentException("parameter 'file' cannot be null!");
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        if(mode == null)
+            throw new IllegalArgumentException("parameter 'mode' cannot be null!");
+        channel_ = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if(mode == EncryptionMode.GCM) {
+                ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+                readFully(header, 0L);
+                header.flip();
+                segments_ = SegmentCipher.fromHeader(key, header);
+                if(segments_.codec() != SegmentCipher.CODEC_NONE)
+                    throw new IOException("The data is compressed, use EncryptedSegmentInputStream to read it");
+                segmentCount_ = segments_.segmentCount(channel_.size());
+                cbc_ = null;
+                encrypted_ = ByteBuffer.allocateDirect(segments_.encryptedSegmentSize());
+                plain_ = ByteBuffer.allocateDirect(segments_.segmentSize());
+            } else {
+                segments_ = null;
+                segmentCount_ = 0L;
+                cbc_ = KeyData.getCipher(EncryptedFileOutputStream.TRANSFORMATION);
+                cbc_.init(Cipher.DECRYPT_MODE, key.secretKey(), key.ivSpec());
+                encrypted_ = ByteBuffer.allocateDirect(SegmentCipher.DEFAULT_SEGMENT_SIZE);
+                plain_ = ByteBuffer.allocateDirect(SegmentCipher.DEFAULT_SEGMENT_SIZE + SegmentCipher.TAG_SIZE);
+            }
+        } catch(IOException | GeneralSecurityException | RuntimeException e) {
+            channel_.close();
+            throw e;
+        }
+        plain_.limit(0);
+    }
+
+    /**
+     * Read decrypted bytes.
+     *
+     * @param dst The buffer to fill.
+     * @return The number of bytes read or -1 at the end of the file.
+     * @throws IOException When the file cannot be read, fails authentication or the channel is closed.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if(!channel_.isOpen())
+            throw new ClosedChannelException();
+        if(!dst.hasRemaining())
+            return 0;
+        int total = 0;
+        while(dst.hasRemaining()) {
+            if(!plain_.hasRemaining() && !nextSegment())
+                break;
+            int count = Math.min(dst.remaining(), plain_.remaining());
+            ByteBuffer part = plain_.slice();
+            part.limit(count);
+            dst.put(part);
+            plain_.position(plain_.position() + count);
+            total += count;
+        }
+        return (total == 0) ? -1 : total;
+    }
+
+    /**
+     * Check if the channel is open.
+     *
+     * @return true if the channel is open, false otherwise.
+     */
+    @Override
+    public boolean isOpen() {
+        return channel_.isOpen();
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException When the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel_.close();
+    }
+
+    // Fill plain_ with the next decrypted bytes, false at the end of the file.
+    private boolean nextSegment() throws IOException {
+        try {
+            if(segments_ != null) {
+                if(index_ >= segmentCount_)
+                    return false;
+                long offset = segments_.segmentOffset(index_);
+                encrypted_.clear();
+                encrypted_.limit((int)Math.min(encrypted_.capacity(), channel_.size() - offset));
+                readFully(encrypted_, offset);
+                encrypted_.flip();
+                plain_.clear();
+                segments_.decrypt(index_, index_ == segmentCount_ - 1L, encrypted_, plain_);
+                index_++;
+                plain_.flip();
+                return true;
+            }
+            while(!cbcDone_) {
+                encrypted_.clear();
+                int count = channel_.read(encrypted_);
+                encrypted_.flip();
+                plain_.clear();
+                if(count < 0) {
+                    cbc_.doFinal(encrypted_, plain_);
+                    cbcDone_ = true;
+                } else
+                    cbc_.update(encrypted_, plain_);
+                plain_.flip();
+                if(plain_.hasRemaining())
+                    return true;
+            }
+            return false;
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt the data", e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int count = channel_.read(buffer, position);
+            if(count < 0)
+                throw new EOFException("The encrypted file is truncated");
+            position += count;
+        }
+    }
+
+    private final FileChannel channel_;
+    private final SegmentCipher segments_;
+    private final long segmentCount_;
+    private final Cipher cbc_;
+    private final ByteBuffer encrypted_;
+    private final ByteBuffer plain_;
+    private       long index_ = 0L;
+    private       boolean cbcDone_ = false;
+}
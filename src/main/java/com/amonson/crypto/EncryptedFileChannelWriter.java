@@ -0,0 +1,179 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * Writes an encrypted file through a FileChannel. Data is gathered in a direct buffer and encrypted a whole
+ * segment at a time with {@link Cipher#doFinal(ByteBuffer, ByteBuffer)} or {@link Cipher#update(ByteBuffer,
+ * ByteBuffer)}, so the cost per byte is the AES cost and no heap copies are made. The default
+ * {@link EncryptionMode#GCM} is authenticated; {@link EncryptionMode#CBC} writes the legacy format of
+ * {@link EncryptedFileOutputStream} without the IV header.
+ */
+public class EncryptedFileChannelWriter implements WritableByteChannel {
+    /**
+     * Create or replace an encrypted file using {@link EncryptionMode#GCM} and 64 KiB segments.
+     *
+     * @param file The file to write.
+     * @param key Key object for crypto.
+     * @throws IOException When the file cannot be opened.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     */
+    public EncryptedFileChannelWriter(Path file, KeyData key) throws IOException, GeneralSecurityException {
+        this(file, key, EncryptionMode.GCM);
+    }
+
+    /**
+     * Create or replace an encrypted file with 64 KiB segments.
+     *
+     * @param file The file to write.
+     * @param key Key object for crypto.
+     * @param mode The encrypted file format.
+     * @throws IOException When the file cannot be opened.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     */
+    public EncryptedFileChannelWriter(Path file, KeyData key, EncryptionMode mode) throws IOException,
+            GeneralSecurityException {
+        this(file, key, mode, SegmentCipher.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create or replace an encrypted file.
+     *
+     * @param file The file to write.
+     * @param key Key object for crypto.
+     * @param mode The encrypted file format.
+     * @param segmentSize The plaintext bytes encrypted at a time, from 16 bytes to 16 MiB. For GCM this is stored
+     *                    in the file and is the unit of authentication.
+     * @throws IOException When the file cannot be opened.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     * @throws IllegalArgumentException When any argument is null or the segment size is out of range.
+     */
+    public EncryptedFileChannelWriter(Path file, KeyData key, EncryptionMode mode, int segmentSize)
+            throws IOException, GeneralSecurityException {
+        if(file == null)
+            throw new IllegalArgumentException("parameter 'file' cannot be null!");
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        if(mode == null)
+            throw new IllegalArgumentException("parameter 'mode' cannot be null!");
+        if(segmentSize < SegmentCipher.MINIMUM_SEGMENT_SIZE || segmentSize > SegmentCipher.MAXIMUM_SEGMENT_SIZE)
+            throw new IllegalArgumentException("parameter 'segmentSize' must be from 16 to 16 MiB!");
+        if(mode == EncryptionMode.GCM) {
+            segments_ = SegmentCipher.create(key, segmentSize, SegmentCipher.CODEC_NONE);
+            cbc_ = null;
+        } else {
+            segments_ = null;
+            cbc_ = KeyData.getCipher(EncryptedFileOutputStream.TRANSFORMATION);
+            cbc_.init(Cipher.ENCRYPT_MODE, key.secretKey(), key.ivSpec());
+        }
+        plain_ = ByteBuffer.allocateDirect(segmentSize);
+        // CBC carries up to a block between calls and the final call adds a block of padding.
+        encrypted_ = ByteBuffer.allocateDirect(segmentSize + ((cbc_ == null) ? SegmentCipher.TAG_SIZE :
+                2 * CBC_BLOCK_SIZE));
+        channel_ = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        if(segments_ != null) {
+            try {
+                writeFully(segments_.header());
+            } catch(IOException e) {
+                channel_.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Write bytes to the file.
+     *
+     * @param src The bytes to write, all remaining bytes are written.
+     * @return The number of bytes written.
+     * @throws IOException When the file cannot be written or the channel is closed.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if(!channel_.isOpen())
+            throw new ClosedChannelException();
+        int written = src.remaining();
+        while(src.hasRemaining()) {
+            if(!plain_.hasRemaining())
+                writeSegment(false); // Only written once more data shows it is not the last segment.
+            int count = Math.min(src.remaining(), plain_.remaining());
+            ByteBuffer part = src.slice();
+            part.limit(count);
+            plain_.put(part);
+            src.position(src.position() + count);
+        }
+        return written;
+    }
+
+    /**
+     * Check if the channel is open.
+     *
+     * @return true if the channel is open, false otherwise.
+     */
+    @Override
+    public boolean isOpen() {
+        return channel_.isOpen();
+    }
+
+    /**
+     * Encrypt the remaining bytes as the final segment and close the file.
+     *
+     * @throws IOException When the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if(!channel_.isOpen())
+            return;
+        try {
+            writeSegment(true);
+        } finally {
+            channel_.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        plain_.flip();
+        encrypted_.clear();
+        try {
+            if(segments_ != null)
+                segments_.encrypt(index_++, last, plain_, encrypted_);
+            else if(last)
+                cbc_.doFinal(plain_, encrypted_);
+            else
+                cbc_.update(plain_, encrypted_);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt the data", e);
+        }
+        plain_.clear();
+        encrypted_.flip();
+        writeFully(encrypted_);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining())
+            channel_.write(buffer);
+    }
+
+    private static final int CBC_BLOCK_SIZE = 16;
+
+    private final FileChannel channel_;
+    private final SegmentCipher segments_;
+    private final Cipher cbc_;
+    private final ByteBuffer plain_;
+    private final ByteBuffer encrypted_;
+    private       long index_ = 0L;
+}
@@ -9,48 +9,86 @@ import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 
 /**
- * Class to open an encrypted file stream for read.
+ * Class to open an encrypted file stream for read. Files written by {@link EncryptedFileOutputStream} have a header
+ * with their random IV. Legacy files without the header are decrypted with the IV of the KeyData. The two are told
+ * apart by length as legacy files are a whole number of AES blocks and files with the header are not.
  */
 public class EncryptedFileInputStream extends InputStream {
+    /**
+     * Open a file for read, with or without the IV header.
+     * @param filename File to open for read.
+     * @param key Key object for crypto.
+     * @throws IOException When the file cannot be opened or has a bad header.
+     * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
+     * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
+     * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
+     * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
+     */
+    public EncryptedFileInputStream(String filename, KeyData key) throws IOException,
+            InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException {
+        this(new File(filename), key);
+    }
+
     /**
      * Open a file for read.
      * @param filename File to open for read.
      * @param key Key object for crypto.
-     * @throws FileNotFoundException When an input file is not found.
+     * @param randomIV true if the file was written with a random IV in its header, false for a legacy file using
+     *                 the IV of the key.
+     * @throws IOException When the file cannot be opened or does not have the expected header.
      * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
      * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
      * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
      * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
      */
-    public EncryptedFileInputStream(String filename, KeyData key) throws FileNotFoundException,
+    public EncryptedFileInputStream(String filename, KeyData key, boolean randomIV) throws IOException,
             InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException {
-        super();
-        key_ = key;
-        init(new File(filename));
+        this(new File(filename), key, randomIV);
+    }
+
+    /**
+     * Open a file for read, with or without the IV header.
+     * @param file File to open for read.
+     * @param key Key object for crypto.
+     * @throws IOException When the file cannot be opened or has a bad header.
+     * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
+     * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
+     * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
+     * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
+     */
+    public EncryptedFileInputStream(File file, KeyData key) throws IOException,
+            InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException {
+        this(file, key, file.length() % BLOCK_SIZE == EncryptedFileOutputStream.HEADER_SIZE % BLOCK_SIZE);
     }
 
     /**
      * Open a file for read.
      * @param file File to open for read.
      * @param key Key object for crypto.
-     * @throws FileNotFoundException When an input file is not found.
+     * @param randomIV true if the file was written with a random IV in its header, false for a legacy file using
+     *                 the IV of the key.
+     * @throws IOException When the file cannot be opened or does not have the expected header.
      * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
      * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
      * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
      * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
      */
-    public EncryptedFileInputStream(File file, KeyData key) throws FileNotFoundException,
+    public EncryptedFileInputStream(File file, KeyData key, boolean randomIV) throws IOException,
             InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException {
         super();
         key_ = key;
-        init(file);
+        if(randomIV)
+            initWithHeader(file);
+        else
+            init(file);
     }
 
     /**
@@ -99,13 +137,32 @@ public class EncryptedFileInputStream extends InputStream {
 
     private void init(File file) throws NoSuchPaddingException, NoSuchAlgorithmException,
             InvalidAlgorithmParameterException, InvalidKeyException, FileNotFoundException {
-        IvParameterSpec ivSpec = new IvParameterSpec(key_.IVAsBytes());
-        SecretKeySpec keySpec = new SecretKeySpec(key_.keyAsBytes(), "AES");
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-        cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
+        Cipher cipher = KeyData.getCipher(EncryptedFileOutputStream.TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key_.secretKey(), key_.ivSpec());
         in_ = new CipherInputStream(new FileInputStream(file), cipher);
     }
 
+    private void initWithHeader(File file) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidAlgorithmParameterException, InvalidKeyException, IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            byte[] header = stream.readNBytes(EncryptedFileOutputStream.HEADER_SIZE);
+            ByteBuffer view = ByteBuffer.wrap(header);
+            if(header.length != EncryptedFileOutputStream.HEADER_SIZE ||
+                    view.getInt() != EncryptedFileOutputStream.MAGIC || view.get() != EncryptedFileOutputStream.VERSION)
+                throw new IOException("The file does not have an encrypted file header: " + file);
+            Cipher cipher = KeyData.getCipher(EncryptedFileOutputStream.TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key_.secretKey(),
+                    new IvParameterSpec(header, view.position(), EncryptedFileOutputStream.IV_SIZE));
+            in_ = new CipherInputStream(stream, cipher);
+        } catch(IOException | GeneralSecurityException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
     private final KeyData key_;
     private CipherInputStream in_;
+
+    private static final int BLOCK_SIZE = 16;
 }
@@ -8,48 +8,86 @@ package com.amonson.crypto;
 import javax.crypto.Cipher;
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
 /**
- * Class to open an encrypted file stream for write.
+ * Class to open an encrypted file stream for write. A new random IV is generated for every file and stored in a small
+ * header so no two files share a key and IV pair. {@link EncryptedFileInputStream} reads both these files and legacy
+ * files without the header. Legacy files, encrypted with the IV of the KeyData, are only written when randomIV is
+ * false and must only be used for readers that predate the header.
  */
 public class EncryptedFileOutputStream extends OutputStream {
     /**
-     * Open a file for write that is AES encrypted.
+     * Open a file for write that is AES encrypted with a new random IV.
      * @param filename File to open for writing.
      * @param key Key object for crypto.
-     * @throws FileNotFoundException When an input file is not found.
+     * @throws IOException When the file cannot be opened or the header cannot be written.
      * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
      * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
      * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
      * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
      */
-    public EncryptedFileOutputStream(String filename, KeyData key) throws FileNotFoundException, NoSuchPaddingException,
+    public EncryptedFileOutputStream(String filename, KeyData key) throws IOException, NoSuchPaddingException,
             NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
-        super();
-        key_ = key;
-        init(new File(filename));
+        this(new File(filename), key, true);
     }
 
     /**
      * Open a file for write that is AES encrypted.
+     * @param filename File to open for writing.
+     * @param key Key object for crypto.
+     * @param randomIV true to use a new random IV stored in the file, false to write a legacy file using the IV of
+     *                 the key, which reuses that IV for every legacy file.
+     * @throws IOException When the file cannot be opened or the header cannot be written.
+     * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
+     * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
+     * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
+     * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
+     */
+    public EncryptedFileOutputStream(String filename, KeyData key, boolean randomIV) throws IOException,
+            NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+        this(new File(filename), key, randomIV);
+    }
+
+    /**
+     * Open a file for write that is AES encrypted with a new random IV.
      * @param file File to open for writing.
      * @param key Key object for crypto.
-     * @throws FileNotFoundException When an input file is not found.
+     * @throws IOException When the file cannot be opened or the header cannot be written.
      * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
      * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
      * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
      * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
      */
-    public EncryptedFileOutputStream(File file, KeyData key) throws FileNotFoundException, NoSuchPaddingException,
+    public EncryptedFileOutputStream(File file, KeyData key) throws IOException, NoSuchPaddingException,
             NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+        this(file, key, true);
+    }
+
+    /**
+     * Open a file for write that is AES encrypted.
+     * @param file File to open for writing.
+     * @param key Key object for crypto.
+     * @param randomIV true to use a new random IV stored in the file, false to write a legacy file using the IV of
+     *                 the key, which reuses that IV for every legacy file.
+     * @throws IOException When the file cannot be opened or the header cannot be written.
+     * @throws InvalidAlgorithmParameterException When the AES/CBC is not supported.
+     * @throws NoSuchAlgorithmException When the AES algorithm is not supported.
+     * @throws InvalidKeyException When a bad key is used, usually the wrong bit length.
+     * @throws NoSuchPaddingException When the AES/CBC/PKCS5PADDING is not supported.
+     */
+    public EncryptedFileOutputStream(File file, KeyData key, boolean randomIV) throws IOException,
+            NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
         super();
         key_ = key;
-        init(file);
+        if(randomIV)
+            initWithHeader(file);
+        else
+            init(file);
     }
 
     /**
@@ -106,13 +144,33 @@ public class EncryptedFileOutputStream extends OutputStream {
 
     private void init(File file) throws NoSuchPaddingException, NoSuchAlgorithmException,
             InvalidAlgorithmParameterException, InvalidKeyException, FileNotFoundException {
-        IvParameterSpec ivSpec = new IvParameterSpec(key_.IVAsBytes());
-        SecretKeySpec keySpec = new SecretKeySpec(key_.keyAsBytes(), "AES");
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+        Cipher cipher = KeyData.getCipher(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key_.secretKey(), key_.ivSpec());
         out_ = new CipherOutputStream(new FileOutputStream(file), cipher);
     }
 
+    private void initWithHeader(File file) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidAlgorithmParameterException, InvalidKeyException, IOException {
+        byte[] iv = new byte[IV_SIZE];
+        KeyDataGenerator.nextBytes(iv);
+        Cipher cipher = KeyData.getCipher(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key_.secretKey(), new IvParameterSpec(iv));
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).put(iv).array());
+        } catch(IOException e) {
+            stream.close();
+            throw e;
+        }
+        out_ = new CipherOutputStream(stream, cipher);
+    }
+
     private final KeyData key_;
     private CipherOutputStream out_;
+
+    static final String TRANSFORMATION = "AES/CBC/PKCS5PADDING";
+    static final int MAGIC = 0x41455343; // "AESC"
+    static final byte VERSION = 1;
+    static final int IV_SIZE = 16;
+    static final int HEADER_SIZE = Integer.BYTES + 1 + IV_SIZE;
 }
@@ -0,0 +1,230 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * Read only random access to a file written by {@link EncryptedFileChannelWriter} in {@link EncryptionMode#GCM}.
+ * Segments have a fixed size so the segment holding any plaintext offset is found by division and only that
+ * segment is read and decrypted. The most recently decrypted segment is kept so sequential reads decrypt each
+ * segment once. The last segment is authenticated when the file is opened so {@link #size()} cannot be changed by
+ * truncating the file on a segment boundary.
+ */
+public class EncryptedSeekableFileChannel implements SeekableByteChannel {
+    /**
+     * Open an encrypted file for random access.
+     *
+     * @param file The file to read.
+     * @param key Key object for crypto.
+     * @throws IOException When the file cannot be read, is truncated or fails authentication.
+     * @throws GeneralSecurityException When the file is not in the segmented format, the cipher is not supported or
+     *                                  the key is not valid.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public EncryptedSeekableFileChannel(Path file, KeyData key) throws IOException, GeneralSecurityException {
+        if(file == null)
+            throw new IllegalArgumentException("parameter 'file' cannot be null!");
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        channel_ = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+            readFully(header, 0L);
+            header.flip();
+            segments_ = SegmentCipher.fromHeader(key, header);
+            if(segments_.codec() != SegmentCipher.CODEC_NONE)
+                throw new IOException("The data is compressed, use EncryptedSegmentInputStream to read it");
+            fileSize_ = channel_.size();
+            segmentCount_ = segments_.segmentCount(fileSize_);
+            size_ = segments_.plaintextSize(fileSize_);
+            encrypted_ = ByteBuffer.allocateDirect(segments_.encryptedSegmentSize());
+            plain_ = ByteBuffer.allocateDirect(segments_.segmentSize());
+            load(segmentCount_ - 1L);
+        } catch(IOException | GeneralSecurityException | RuntimeException e) {
+            channel_.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read decrypted bytes at the current position and advance the position.
+     *
+     * @param dst The buffer to fill.
+     * @return The number of bytes read or -1 if the position is at or past the end of the data.
+     * @throws IOException When the file cannot be read, fails authentication or the channel is closed.
+     */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int count = read(dst, position_);
+        if(count > 0)
+            position_ += count;
+        return count;
+    }
+
+    /**
+     * Read decrypted bytes at a position without changing the current position.
+     *
+     * @param dst The buffer to fill.
+     * @param position The plaintext offset to read from.
+     * @return The number of bytes read or -1 if the position is at or past the end of the data.
+     * @throws IOException When the file cannot be read, fails authentication or the channel is closed.
+     * @throws IllegalArgumentException When the position is negative.
+     */
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        if(position < 0L)
+            throw new IllegalArgumentException("parameter 'position' cannot be negative!");
+        if(!channel_.isOpen())
+            throw new ClosedChannelException();
+        if(position >= size_)
+            return -1;
+        int total = 0;
+        while(dst.hasRemaining() && position < size_) {
+            long index = position / segments_.segmentSize();
+            load(index);
+            int offset = (int)(position - index * segments_.segmentSize());
+            ByteBuffer part = plain_.duplicate();
+            part.position(offset);
+            part.limit(Math.min(plain_.limit(), offset + dst.remaining()));
+            total += part.remaining();
+            position += part.remaining();
+            dst.put(part);
+        }
+        return total;
+    }
+
+    /**
+     * Not supported, the channel is read only.
+     *
+     * @throws NonWritableChannelException Always.
+     */
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * Get the current plaintext position.
+     *
+     * @return The position in bytes.
+     * @throws IOException When the channel is closed.
+     */
+    @Override
+    public synchronized long position() throws IOException {
+        if(!channel_.isOpen())
+            throw new ClosedChannelException();
+        return position_;
+    }
+
+    /**
+     * Set the plaintext position of the next {@link #read(ByteBuffer)}. Nothing is read until then.
+     *
+     * @param newPosition The new position, may be past the end of the data.
+     * @return This channel.
+     * @throws IOException When the channel is closed.
+     * @throws IllegalArgumentException When the position is negative.
+     */
+    @Override
+    public synchronized EncryptedSeekableFileChannel position(long newPosition) throws IOException {
+        if(newPosition < 0L)
+            throw new IllegalArgumentException("parameter 'newPosition' cannot be negative!");
+        if(!channel_.isOpen())
+            throw new ClosedChannelException();
+        position_ = newPosition;
+        return this;
+    }
+
+    /**
+     * Get the size of the decrypted data.
+     *
+     * @return The size in bytes.
+     * @throws IOException When the channel is closed.
+     */
+    @Override
+    public long size() throws IOException {
+        if(!channel_.isOpen())
+            throw new ClosedChannelException();
+        return size_;
+    }
+
+    /**
+     * Not supported, the channel is read only.
+     *
+     * @throws NonWritableChannelException Always.
+     */
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * Check if the channel is open.
+     *
+     * @return true if the channel is open, false otherwise.
+     */
+    @Override
+    public boolean isOpen() {
+        return channel_.isOpen();
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException When the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel_.close();
+    }
+
+    // Decrypt a segment into plain_ unless it is already there.
+    private void load(long index) throws IOException {
+        if(index == current_)
+            return;
+        current_ = -1L; // plain_ is invalid until the segment is authenticated.
+        long offset = segments_.segmentOffset(index);
+        encrypted_.clear();
+        encrypted_.limit((int)Math.min(encrypted_.capacity(), fileSize_ - offset));
+        readFully(encrypted_, offset);
+        encrypted_.flip();
+        plain_.clear();
+        try {
+            segments_.decrypt(index, index == segmentCount_ - 1L, encrypted_, plain_);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt the data", e);
+        }
+        plain_.flip();
+        current_ = index;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int count = channel_.read(buffer, position);
+            if(count < 0)
+                throw new EOFException("The encrypted file is truncated");
+            position += count;
+        }
+    }
+
+    private final FileChannel channel_;
+    private final SegmentCipher segments_;
+    private final long fileSize_;
+    private final long segmentCount_;
+    private final long size_;
+    private final ByteBuffer encrypted_;
+    private final ByteBuffer plain_;
+    private       long current_ = -1L;
+    private       long position_ = 0L;
+}
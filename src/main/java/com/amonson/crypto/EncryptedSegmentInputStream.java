@@ -0,0 +1,169 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Decrypts and then decompresses a stream written by {@link EncryptedSegmentOutputStream} or
+ * {@link EncryptedFileChannelWriter}. The codec is taken from the header. Every segment is authenticated before any
+ * of its bytes are decompressed and the end of the data is authenticated before -1 is returned, so truncated or
+ * modified data causes an IOException.
+ */
+public class EncryptedSegmentInputStream extends InputStream {
+    /**
+     * Open encrypted data for read.
+     *
+     * @param in The source of the encrypted data.
+     * @param key Key object for crypto.
+     * @throws IOException When the header cannot be read or the data is not valid.
+     * @throws GeneralSecurityException When the data is not in the segmented format, the cipher is not supported or
+     *                                  the key is not valid.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public EncryptedSegmentInputStream(InputStream in, KeyData key) throws IOException, GeneralSecurityException {
+        if(in == null)
+            throw new IllegalArgumentException("parameter 'in' cannot be null!");
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        in_ = in;
+        segments_ = SegmentCipher.fromHeader(key, ByteBuffer.wrap(in.readNBytes(SegmentCipher.HEADER_SIZE)));
+        plain_ = ByteBuffer.allocate(segments_.segmentSize());
+        plain_.limit(0);
+        encrypted_ = new byte[segments_.encryptedSegmentSize() + 1]; // One more byte to find the last segment.
+        stream_ = CompressionCodec.fromId(segments_.codec()).decompress(new SegmentSource());
+    }
+
+    /**
+     * Read a byte.
+     *
+     * @return The byte read or -1 at the end of the data.
+     * @throws IOException When a stream cannot be read or fails authentication.
+     */
+    @Override
+    public int read() throws IOException {
+        int result = stream_.read();
+        if(result < 0)
+            verifyEnd();
+        return result;
+    }
+
+    /**
+     * Read bytes.
+     *
+     * @param bytes Buffer for bytes.
+     * @param off offset in byte buffer.
+     * @param len length of bytes.
+     * @return count of bytes read or -1 at the end of the data.
+     * @throws IOException When a stream cannot be read or fails authentication.
+     */
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        int result = stream_.read(bytes, off, len);
+        if(result < 0)
+            verifyEnd();
+        return result;
+    }
+
+    /**
+     * Get the number of bytes that can be read without blocking.
+     *
+     * @return The count of bytes.
+     * @throws IOException When a stream cannot be read.
+     */
+    @Override
+    public int available() throws IOException {
+        return stream_.available();
+    }
+
+    /**
+     * Close the stream and the source.
+     *
+     * @throws IOException When a stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        stream_.close();
+    }
+
+    // The compressed data can end before the rest of its segment or an empty last segment is read, check and
+    // authenticate the rest.
+    private void verifyEnd() throws IOException {
+        do {
+            if(plain_.hasRemaining())
+                throw new IOException("Unexpected data after the end of the compressed data");
+        } while(nextSegment());
+    }
+
+    // Decrypt the next segment into plain_, false when the last segment was already decrypted.
+    private boolean nextSegment() throws IOException {
+        if(done_)
+            return false;
+        int count = pending_ + in_.readNBytes(encrypted_, pending_, encrypted_.length - pending_);
+        boolean last = count < encrypted_.length;
+        int length = last ? count : encrypted_.length - 1;
+        if(length < SegmentCipher.TAG_SIZE)
+            throw new EOFException("The encrypted data is truncated");
+        plain_.clear();
+        try {
+            segments_.decrypt(index_++, last, ByteBuffer.wrap(encrypted_, 0, length), plain_);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt the data", e);
+        }
+        plain_.flip();
+        if(last)
+            done_ = true;
+        else {
+            encrypted_[0] = encrypted_[length];
+            pending_ = 1;
+        }
+        return true;
+    }
+
+    private final InputStream in_;
+    private final InputStream stream_;
+    private final SegmentCipher segments_;
+    private final ByteBuffer plain_;
+    private final byte[] encrypted_;
+    private       int pending_ = 0;
+    private       long index_ = 0L;
+    private       boolean done_ = false;
+
+    // Supplies the decrypted bytes to the decompression.
+    private final class SegmentSource extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            while(!plain_.hasRemaining())
+                if(!nextSegment())
+                    return -1;
+            int count = Math.min(len, plain_.remaining());
+            plain_.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return plain_.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in_.close();
+        }
+    }
+}
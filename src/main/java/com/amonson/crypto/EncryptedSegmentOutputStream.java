@@ -0,0 +1,184 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Compresses and then encrypts a stream in the segmented AES-GCM format of {@link EncryptedFileChannelWriter}. The
+ * compression codec and segment size are recorded in the header. Any OutputStream can be the destination and any
+ * writer of OutputStreams can be the source, i.e. {@link com.amonson.prop_store.PropStore#writeTo(OutputStream,
+ * com.amonson.prop_store.PropMap)}. Data written with a codec other than {@link CompressionCodec#NONE} must be read
+ * with {@link EncryptedSegmentInputStream}.
+ *
+ * Closing the stream finishes the compression, writes the last segment and closes the destination. The data is not
+ * complete or readable until the stream is closed.
+ */
+public class EncryptedSegmentOutputStream extends OutputStream {
+    /**
+     * Encrypt without compression using 64 KiB segments.
+     *
+     * @param out The destination of the encrypted data.
+     * @param key Key object for crypto.
+     * @throws IOException When the header cannot be written.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     */
+    public EncryptedSegmentOutputStream(OutputStream out, KeyData key) throws IOException,
+            GeneralSecurityException {
+        this(out, key, CompressionCodec.NONE);
+    }
+
+    /**
+     * Compress and encrypt using 64 KiB segments.
+     *
+     * @param out The destination of the encrypted data.
+     * @param key Key object for crypto.
+     * @param codec The compression applied before encryption.
+     * @throws IOException When the header cannot be written.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     */
+    public EncryptedSegmentOutputStream(OutputStream out, KeyData key, CompressionCodec codec) throws IOException,
+            GeneralSecurityException {
+        this(out, key, codec, SegmentCipher.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Compress and encrypt.
+     *
+     * @param out The destination of the encrypted data.
+     * @param key Key object for crypto.
+     * @param codec The compression applied before encryption.
+     * @param segmentSize The compressed bytes in each encrypted segment, from 16 bytes to 16 MiB.
+     * @throws IOException When the header cannot be written.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     * @throws IllegalArgumentException When any argument is null or the segment size is out of range.
+     */
+    public EncryptedSegmentOutputStream(OutputStream out, KeyData key, CompressionCodec codec, int segmentSize)
+            throws IOException, GeneralSecurityException {
+        if(out == null)
+            throw new IllegalArgumentException("parameter 'out' cannot be null!");
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        if(codec == null)
+            throw new IllegalArgumentException("parameter 'codec' cannot be null!");
+        if(segmentSize < SegmentCipher.MINIMUM_SEGMENT_SIZE || segmentSize > SegmentCipher.MAXIMUM_SEGMENT_SIZE)
+            throw new IllegalArgumentException("parameter 'segmentSize' must be from 16 to 16 MiB!");
+        segments_ = SegmentCipher.create(key, segmentSize, codec.id());
+        out_ = out;
+        plain_ = new byte[segmentSize];
+        encrypted_ = new byte[segments_.encryptedSegmentSize()];
+        out_.write(segments_.header().array());
+        stream_ = codec.compress(new SegmentSink());
+    }
+
+    /**
+     * Write a byte to the stream.
+     *
+     * @param n The byte to write.
+     * @throws IOException When a stream cannot be written.
+     */
+    @Override
+    public void write(int n) throws IOException {
+        stream_.write(n);
+    }
+
+    /**
+     * Write bytes to the stream.
+     *
+     * @param bytes The bytes to write.
+     * @param off offset in byte buffer.
+     * @param len length of bytes.
+     * @throws IOException When a stream cannot be written.
+     */
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        stream_.write(bytes, off, len);
+    }
+
+    /**
+     * Flush the complete segments to the destination. Buffered bytes of an incomplete segment are only written when
+     * the segment is full or the stream is closed.
+     *
+     * @throws IOException When a stream cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        stream_.flush();
+    }
+
+    /**
+     * Finish the compression, write the last segment and close the destination.
+     *
+     * @throws IOException When a stream cannot be written or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        stream_.close();
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        ByteBuffer encrypted = ByteBuffer.wrap(encrypted_);
+        try {
+            segments_.encrypt(index_++, last, ByteBuffer.wrap(plain_, 0, count_), encrypted);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt the data", e);
+        }
+        out_.write(encrypted_, 0, encrypted.position());
+        count_ = 0;
+    }
+
+    private final SegmentCipher segments_;
+    private final OutputStream out_;
+    private final OutputStream stream_;
+    private final byte[] plain_;
+    private final byte[] encrypted_;
+    private       int count_ = 0;
+    private       long index_ = 0L;
+    private       boolean closed_ = false;
+
+    // Receives the compressed bytes and encrypts them a segment at a time.
+    private final class SegmentSink extends OutputStream {
+        @Override
+        public void write(int n) throws IOException {
+            write(new byte[] { (byte)n }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            if(closed_)
+                throw new IOException("The stream is closed");
+            while(len > 0) {
+                if(count_ == plain_.length)
+                    writeSegment(false); // Only written once more data shows it is not the last segment.
+                int count = Math.min(len, plain_.length - count_);
+                System.arraycopy(bytes, off, plain_, count_, count);
+                count_ += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out_.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed_)
+                return;
+            closed_ = true;
+            try {
+                writeSegment(true);
+            } finally {
+                out_.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+/**
+ * The file formats of the encrypted file channels.
+ */
+public enum EncryptionMode {
+    /**
+     * AES/CBC/PKCS5PADDING over the whole file using the KeyData IV. This is the legacy format of
+     * {@link EncryptedFileOutputStream} without the IV header, it reuses the IV for every file and is not
+     * authenticated.
+     */
+    CBC,
+
+    /**
+     * Authenticated AES/GCM in independently encrypted segments with a random per file key and nonce stored in a
+     * header. The KeyData IV is not used.
+     */
+    GCM
+}
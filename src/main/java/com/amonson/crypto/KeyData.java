@@ -4,18 +4,23 @@
 //
 package com.amonson.crypto;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.security.Provider;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.amonson.prop_store.*;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.annotations.Since;
 
 /**
- * Class to create/store initialization vectors and keys for AES encryption/decryption.
+ * Class to create/store initialization vectors and keys for AES encryption/decryption. The decoded key and IV are
+ * cached on first use so opening many encrypted files with the same KeyData does not decode Base64 each time.
  */
 public class KeyData {
     /**
@@ -38,21 +43,13 @@ public class KeyData {
     }
 
     /**
-     * Generates new strong IV and Key's for AES encryption/decryption.
+     * Generates new strong IV and Key's for AES encryption/decryption. Uses {@link KeyDataGenerator} so the call
+     * does not block waiting for OS entropy.
      * @return The new KeyData instance.
-     * @throws NoSuchAlgorithmException Thrown when the JRE platform does not support strong algorithms for
-     * IV/Key generation.
+     * @throws NoSuchAlgorithmException Never thrown, kept for compatibility.
      */
     public static KeyData newKeyData() throws NoSuchAlgorithmException {
-        SecureRandom randomSecureRandom = SecureRandom.getInstance(getAlgorithm());
-        byte[] iv = new byte[16];
-        randomSecureRandom.nextBytes(iv);
-        String sIv = Base64.getEncoder().encodeToString(iv);
-        KeyGenerator kgen = KeyGenerator.getInstance("HmacSHA256");
-        kgen.init(BITS);
-        SecretKey aesKey = kgen.generateKey();
-        String sKey = Base64.getEncoder().encodeToString(aesKey.getEncoded());
-        return new KeyData(sIv, sKey);
+        return KeyDataGenerator.newKeyData();
     }
 
     /**
@@ -107,7 +104,7 @@ public class KeyData {
      * @return The IV as bytes.
      */
     public byte[] IVAsBytes() {
-        return Base64.getDecoder().decode(iv_);
+        return decoded().iv.clone();
     }
 
     /**
@@ -115,7 +112,50 @@ public class KeyData {
      * @return The Key as bytes.
      */
     public byte[] keyAsBytes() {
-        return Base64.getDecoder().decode(key_);
+        return decoded().key.clone();
+    }
+
+    /**
+     * Gets the cached AES key specification.
+     * @return The key specification, it is immutable and may be shared.
+     */
+    SecretKeySpec secretKey() {
+        return decoded().keySpec;
+    }
+
+    /**
+     * Gets the cached IV specification.
+     * @return The IV specification, it is immutable and may be shared.
+     */
+    IvParameterSpec ivSpec() {
+        return decoded().ivSpec;
+    }
+
+    /**
+     * Create a Cipher from the provider that was selected the first time the transformation was requested, this
+     * skips searching the installed providers on every call.
+     * @param transformation The cipher transformation, i.e. "AES/CBC/PKCS5PADDING".
+     * @return The new uninitialized Cipher.
+     * @throws NoSuchAlgorithmException When the transformation is not supported.
+     * @throws NoSuchPaddingException When the padding is not supported.
+     */
+    static Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Provider provider = providers_.get(transformation);
+        if(provider != null)
+            return Cipher.getInstance(transformation, provider);
+        Cipher cipher = Cipher.getInstance(transformation);
+        providers_.put(transformation, cipher.getProvider());
+        return cipher;
+    }
+
+    // Decoded again only if the strings were replaced (i.e. by Gson), racing threads create equal objects.
+    private Decoded decoded() {
+        Decoded decoded = decoded_;
+        if(decoded == null || decoded.ivSource != iv_ || decoded.keySource != key_) {
+            decoded = new Decoded(iv_, key_);
+            decoded_ = decoded;
+        }
+        return decoded;
     }
 
     /**
@@ -142,15 +182,28 @@ public class KeyData {
 
     @Since(value=1.7) @SerializedName(value = "A", alternate = "iv") String iv_;
     @Since(value=1.7) @SerializedName(value="B", alternate = "key") String key_;
+    private transient volatile Decoded decoded_ = null; // Not serialized.
 
-    // Strong but may block on some OSes. Try "NativePRNGNonBlocking" if you have problems.
-    private static String getAlgorithm() {
-        if(System.getProperty("os.name").matches(".*[wW]indows.*"))
-            return "Windows-PRNG";
-        else
-            return "NativePRNGBlocking";
-    }
+    private static final Map<String,Provider> providers_ = new ConcurrentHashMap<>();
 
     static int BITS  = 256;
     static int BYTES = BITS / 8;
+
+    private static final class Decoded {
+        Decoded(String ivSource, String keySource) {
+            this.ivSource = ivSource;
+            this.keySource = keySource;
+            iv = (ivSource == null) ? null : Base64.getDecoder().decode(ivSource); // i.e. only the key is used.
+            key = (keySource == null) ? null : Base64.getDecoder().decode(keySource);
+            keySpec = (key == null || key.length == 0) ? null : new SecretKeySpec(key, "AES");
+            ivSpec = (iv == null) ? null : new IvParameterSpec(iv);
+        }
+
+        final String ivSource;
+        final String keySource;
+        final byte[] iv;
+        final byte[] key;
+        final SecretKeySpec keySpec;
+        final IvParameterSpec ivSpec;
+    }
 }
@@ -0,0 +1,66 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.crypto;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+/**
+ * Generates keys, IVs and other random bytes without blocking. Each thread has its own 256 bit strength DRBG
+ * SecureRandom so there is no lock contention between threads. The DRBG instances are seeded from the JDK seeder
+ * that reads system entropy once per JVM, after that generation never waits for the OS entropy pool.
+ */
+public final class KeyDataGenerator {
+    private KeyDataGenerator() {}
+
+    /**
+     * Generates a new random IV and key for AES encryption/decryption.
+     *
+     * @return The new KeyData instance.
+     */
+    public static KeyData newKeyData() {
+        byte[] iv = new byte[IV_BYTES];
+        byte[] key = new byte[KeyData.BYTES];
+        SecureRandom random = random();
+        random.nextBytes(iv);
+        random.nextBytes(key);
+        return new KeyData(Base64.getEncoder().encodeToString(iv), Base64.getEncoder().encodeToString(key));
+    }
+
+    /**
+     * Fill an array with random bytes.
+     *
+     * @param bytes The array to fill.
+     */
+    public static void nextBytes(byte[] bytes) {
+        random().nextBytes(bytes);
+    }
+
+    /**
+     * Get the SecureRandom of the calling thread. It must not be passed to other threads.
+     *
+     * @return The SecureRandom.
+     */
+    public static SecureRandom random() {
+        return randoms_.get();
+    }
+
+    private static SecureRandom newRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(STRENGTH, RESEED_ONLY, null));
+        } catch(NoSuchAlgorithmException e) {
+            return new SecureRandom(); // The default is also non-blocking once seeded.
+        }
+    }
+
+    private static final ThreadLocal<SecureRandom> randoms_ = ThreadLocal.withInitial(KeyDataGenerator::newRandom);
+
+    private static final int STRENGTH = 256;
+    private static final int IV_BYTES = 16;
+}
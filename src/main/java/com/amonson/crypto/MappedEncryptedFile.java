@@ -0,0 +1,310 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory maps a file written by {@link EncryptedFileChannelWriter} in {@link EncryptionMode#GCM} and decrypts its
+ * segments on demand. Decrypted segments are kept in a small LRU cache of direct buffers that are reused when a
+ * segment is evicted, so repeated reads of hot data neither make system calls nor decrypt again. Any number of
+ * InputStreams and positional reads can share one instance and its cache, all methods are thread safe. The cache lock
+ * is only held to look up and insert segments, each segment is decrypted once by its first reader without blocking
+ * readers of other segments.
+ *
+ * The last segment is authenticated when the file is opened so {@link #size()} cannot be changed by truncating the
+ * file on a segment boundary. The mapping is released by the garbage collector after the file is closed.
+ */
+public class MappedEncryptedFile implements AutoCloseable {
+    /**
+     * Map an encrypted file with a cache of 8 decrypted segments.
+     *
+     * @param file The file to read.
+     * @param key Key object for crypto.
+     * @throws IOException When the file cannot be mapped, is truncated or fails authentication.
+     * @throws GeneralSecurityException When the file is not in the segmented format, the cipher is not supported or
+     *                                  the key is not valid.
+     */
+    public MappedEncryptedFile(Path file, KeyData key) throws IOException, GeneralSecurityException {
+        this(file, key, DEFAULT_CACHED_SEGMENTS);
+    }
+
+    /**
+     * Map an encrypted file.
+     *
+     * @param file The file to read.
+     * @param key Key object for crypto.
+     * @param cachedSegments The number of decrypted segments to cache, at least 1.
+     * @throws IOException When the file cannot be mapped, is truncated or fails authentication.
+     * @throws GeneralSecurityException When the file is not in the segmented format, the cipher is not supported or
+     *                                  the key is not valid.
+     * @throws IllegalArgumentException When any argument is null or cachedSegments is less than 1.
+     */
+    public MappedEncryptedFile(Path file, KeyData key, int cachedSegments) throws IOException,
+            GeneralSecurityException {
+        if(file == null)
+            throw new IllegalArgumentException("parameter 'file' cannot be null!");
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        if(cachedSegments < 1)
+            throw new IllegalArgumentException("parameter 'cachedSegments' must be at least 1!");
+        cachedSegments_ = cachedSegments;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if(fileSize < SegmentCipher.HEADER_SIZE)
+                throw new GeneralSecurityException("The encrypted data is too short to contain a header");
+            segments_ = SegmentCipher.fromHeader(key, channel.map(FileChannel.MapMode.READ_ONLY, 0L,
+                    SegmentCipher.HEADER_SIZE));
+            if(segments_.codec() != SegmentCipher.CODEC_NONE)
+                throw new IOException("The data is compressed, use EncryptedSegmentInputStream to read it");
+            segmentCount_ = segments_.segmentCount(fileSize);
+            size_ = segments_.plaintextSize(fileSize);
+            segmentsPerRegion_ = Integer.MAX_VALUE / segments_.encryptedSegmentSize();
+            long regionSize = (long)segmentsPerRegion_ * segments_.encryptedSegmentSize();
+            for(long start = SegmentCipher.HEADER_SIZE; start < fileSize; start += regionSize)
+                regions_.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize,
+                        fileSize - start)));
+        }
+        Segment last = acquire(segmentCount_ - 1L);
+        try {
+            last.plain();
+        } finally {
+            release(last);
+        }
+    }
+
+    /**
+     * Get the size of the decrypted data.
+     *
+     * @return The size in bytes.
+     */
+    public long size() {
+        return size_;
+    }
+
+    /**
+     * Read decrypted bytes at a position.
+     *
+     * @param dst The buffer to fill.
+     * @param position The plaintext offset to read from.
+     * @return The number of bytes read or -1 if the position is at or past the end of the data.
+     * @throws IOException When a segment fails authentication or the file is closed.
+     * @throws IllegalArgumentException When the position is negative.
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if(position < 0L)
+            throw new IllegalArgumentException("parameter 'position' cannot be negative!");
+        if(position >= size_)
+            return -1;
+        int total = 0;
+        while(dst.hasRemaining() && position < size_) {
+            long index = position / segments_.segmentSize();
+            Segment segment = acquire(index);
+            try {
+                ByteBuffer part = segment.plain().duplicate();
+                part.position((int)(position - index * segments_.segmentSize()));
+                if(part.remaining() > dst.remaining())
+                    part.limit(part.position() + dst.remaining());
+                total += part.remaining();
+                position += part.remaining();
+                dst.put(part);
+            } finally {
+                release(segment);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Create an InputStream starting at the beginning of the data. Closing the stream does not close this file.
+     *
+     * @return The new stream, it supports mark, reset and skip without decrypting skipped segments.
+     */
+    public InputStream newInputStream() {
+        return new SegmentStream();
+    }
+
+    /**
+     * Close the file, later reads fail. The mapping is released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        synchronized(cache_) {
+            closed_ = true;
+            cache_.clear();
+            free_.clear();
+            regions_.clear();
+        }
+    }
+
+    // Get the cached segment or insert a new one, it is decrypted by its first reader. The buffer of a segment is
+    // not reused until every reader released it.
+    private Segment acquire(long index) throws IOException {
+        synchronized(cache_) {
+            if(closed_)
+                throw new IOException("The encrypted file is closed");
+            Segment segment = cache_.get(index);
+            if(segment == null) {
+                ByteBuffer encrypted = regions_.get((int)(index / segmentsPerRegion_)).duplicate();
+                int offset = (int)(index % segmentsPerRegion_) * segments_.encryptedSegmentSize();
+                encrypted.position(offset);
+                encrypted.limit(Math.min(encrypted.capacity(), offset + segments_.encryptedSegmentSize()));
+                segment = new Segment(index, encrypted.slice());
+                cache_.put(index, segment);
+            }
+            segment.users_++;
+            return segment;
+        }
+    }
+
+    private void release(Segment segment) {
+        synchronized(cache_) {
+            if(--segment.users_ == 0 && segment.evicted_)
+                recycle(segment.plain_);
+        }
+    }
+
+    // Called with the cache_ lock held.
+    private void recycle(ByteBuffer plain) {
+        if(plain != null && !closed_ && free_.size() < cachedSegments_)
+            free_.push(plain);
+    }
+
+    private final SegmentCipher segments_;
+    private final long segmentCount_;
+    private final long size_;
+    private final int segmentsPerRegion_;
+    private final int cachedSegments_;
+    private final List<MappedByteBuffer> regions_ = new ArrayList<>();
+    private final Map<Long,Segment> cache_ = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long,Segment> eldest) {
+            if(size() <= cachedSegments_)
+                return false;
+            Segment segment = eldest.getValue();
+            segment.evicted_ = true;
+            if(segment.users_ == 0)
+                recycle(segment.plain_); // Reused for the next segment decrypted.
+            return true;
+        }
+    };
+    private final Deque<ByteBuffer> free_ = new ArrayDeque<>(); // Guarded by cache_.
+    private       boolean closed_ = false;
+
+    static final int DEFAULT_CACHED_SEGMENTS = 8;
+
+    // A cached segment, users_ and evicted_ are guarded by the cache_ lock.
+    private final class Segment {
+        Segment(long index, ByteBuffer encrypted) {
+            index_ = index;
+            encrypted_ = encrypted;
+        }
+
+        // The decrypted segment, only the first caller decrypts it and later callers for the segment wait for it.
+        ByteBuffer plain() throws IOException {
+            ByteBuffer plain = plain_;
+            if(plain != null)
+                return plain;
+            synchronized(this) {
+                if(plain_ != null)
+                    return plain_;
+                synchronized(cache_) {
+                    plain = free_.poll();
+                }
+                if(plain == null)
+                    plain = ByteBuffer.allocateDirect(segments_.segmentSize());
+                plain.clear();
+                try {
+                    segments_.decrypt(index_, index_ == segmentCount_ - 1L, encrypted_.duplicate(), plain);
+                } catch(GeneralSecurityException e) {
+                    discard(plain);
+                    throw new IOException("Failed to decrypt the data", e);
+                } catch(IOException e) {
+                    discard(plain);
+                    throw e;
+                }
+                plain.flip();
+                plain_ = plain;
+                return plain;
+            }
+        }
+
+        // Remove the failed segment so a later read tries again.
+        private void discard(ByteBuffer plain) {
+            synchronized(cache_) {
+                recycle(plain);
+                cache_.remove(index_, this);
+            }
+        }
+
+        private final long index_;
+        private final ByteBuffer encrypted_;
+        private volatile ByteBuffer plain_ = null;
+        private int users_ = 0;
+        private boolean evicted_ = false;
+    }
+
+    private final class SegmentStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            return (read(one.array(), 0, 1) < 0) ? -1 : (one.get(0) & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            int count = MappedEncryptedFile.this.read(ByteBuffer.wrap(bytes, off, len), position_);
+            if(count > 0)
+                position_ += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long count = Math.max(0L, Math.min(n, size_ - position_));
+            position_ += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int)Math.min(Integer.MAX_VALUE, Math.max(0L, size_ - position_));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mark_ = position_;
+        }
+
+        @Override
+        public void reset() {
+            position_ = mark_;
+        }
+
+        private long position_ = 0L;
+        private long mark_ = 0L;
+    }
+}
@@ -0,0 +1,245 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Encrypts and decrypts whole files on a ForkJoinPool using the segmented AES-GCM format of
+ * {@link EncryptedFileChannelWriter}, so the files are interchangeable with the channel classes. Every segment is
+ * read, encrypted or decrypted and written by one task using positional I/O. The file offset of each segment is
+ * fixed by its index so the output is in order without any reordering buffer. Memory is bounded by two buffers per
+ * segment in flight and at most twice the pool parallelism segments are in flight.
+ *
+ * The tasks block on file I/O so they do not run on the common ForkJoinPool; by default a pool shared by all
+ * instances of this class is used. The calling thread blocks until every segment is done, so a caller running on a
+ * worker of a pool must not pass that same pool.
+ */
+public class ParallelFileCrypto {
+    /**
+     * Construct using the pool shared by this class, with one thread per processor, and 1 MiB segments.
+     *
+     * @param key Key object for crypto.
+     * @throws IllegalArgumentException When the key is null.
+     */
+    public ParallelFileCrypto(KeyData key) {
+        this(key, SharedPool.POOL, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Construct the parallel file encryption.
+     *
+     * @param key Key object for crypto.
+     * @param pool The pool running the segment tasks. Must not be the pool the caller of encrypt or decrypt runs
+     *             on, and should not be the common pool as the tasks block on file I/O.
+     * @param segmentSize The plaintext bytes in each segment when encrypting, from 16 bytes to 16 MiB. Decryption
+     *                    uses the segment size recorded in the file.
+     * @throws IllegalArgumentException When any argument is null or the segment size is out of range.
+     */
+    public ParallelFileCrypto(KeyData key, ForkJoinPool pool, int segmentSize) {
+        if(key == null)
+            throw new IllegalArgumentException("parameter 'key' cannot be null!");
+        if(pool == null)
+            throw new IllegalArgumentException("parameter 'pool' cannot be null!");
+        if(segmentSize < SegmentCipher.MINIMUM_SEGMENT_SIZE || segmentSize > SegmentCipher.MAXIMUM_SEGMENT_SIZE)
+            throw new IllegalArgumentException("parameter 'segmentSize' must be from 16 to 16 MiB!");
+        key_ = key;
+        pool_ = pool;
+        segmentSize_ = segmentSize;
+        inFlight_ = Math.max(2, pool.getParallelism() * 2);
+    }
+
+    /**
+     * Encrypt a file. The target is deleted if encryption fails.
+     *
+     * @param source The plaintext file.
+     * @param target The encrypted file to create or replace.
+     * @throws IOException When a file cannot be read or written.
+     * @throws GeneralSecurityException When the cipher is not supported or the key is not valid.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public void encrypt(Path source, Path target) throws IOException, GeneralSecurityException {
+        checkPaths(source, target);
+        SegmentCipher segments = SegmentCipher.create(key_, segmentSize_, SegmentCipher.CODEC_NONE);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = open(target)) {
+            long size = in.size();
+            long count = Math.max(1L, (size + segmentSize_ - 1L) / segmentSize_); // Empty data is one segment.
+            writeFully(out, segments.header(), 0L);
+            run(target, segments, count, (index, plain, encrypted) -> {
+                long position = index * segmentSize_;
+                plain.limit((int)Math.min(segmentSize_, size - position));
+                readFully(in, plain, position);
+                plain.flip();
+                segments.encrypt(index, index == count - 1L, plain, encrypted);
+                encrypted.flip();
+                writeFully(out, encrypted, segments.segmentOffset(index));
+            });
+        } catch(IOException | GeneralSecurityException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Decrypt a file. The target is deleted if decryption fails so unauthenticated data is never left behind.
+     *
+     * @param source The encrypted file.
+     * @param target The plaintext file to create or replace.
+     * @throws IOException When a file cannot be read or written, is truncated or fails authentication.
+     * @throws GeneralSecurityException When the file is not in the segmented format, the cipher is not supported or
+     *                                  the key is not valid.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public void decrypt(Path source, Path target) throws IOException, GeneralSecurityException {
+        checkPaths(source, target);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = open(target)) {
+            ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+            readFully(in, header, 0L);
+            header.flip();
+            SegmentCipher segments = SegmentCipher.fromHeader(key_, header);
+            if(segments.codec() != SegmentCipher.CODEC_NONE)
+                throw new IOException("The data is compressed, use EncryptedSegmentInputStream to read it");
+            long size = in.size();
+            long count = segments.segmentCount(size);
+            run(target, segments, count, (index, plain, encrypted) -> {
+                long position = segments.segmentOffset(index);
+                encrypted.limit((int)Math.min(segments.encryptedSegmentSize(), size - position));
+                readFully(in, encrypted, position);
+                encrypted.flip();
+                segments.decrypt(index, index == count - 1L, encrypted, plain);
+                plain.flip();
+                writeFully(out, plain, index * segments.segmentSize());
+            });
+        } catch(IOException | GeneralSecurityException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    // Run a task for every segment, taking a pair of buffers before each submit bounds the segments in flight. The
+    // waits are managed so a caller on a worker of another pool lets that pool add a thread while blocked.
+    private void run(Path target, SegmentCipher segments, long count, SegmentTask task)
+            throws IOException, GeneralSecurityException {
+        BlockingQueue<ByteBuffer[]> buffers = new ArrayBlockingQueue<>(inFlight_);
+        for(int i = 0; i < inFlight_; i++)
+            buffers.add(new ByteBuffer[] { ByteBuffer.allocateDirect(segments.segmentSize()),
+                    ByteBuffer.allocateDirect(segments.encryptedSegmentSize()) });
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try {
+            for(long index = 0L; index < count && failure.get() == null; index++) {
+                ByteBuffer[] pair = take(buffers);
+                long segment = index;
+                pool_.execute(() -> {
+                    try {
+                        pair[0].clear();
+                        pair[1].clear();
+                        task.process(segment, pair[0], pair[1]);
+                    } catch(IOException | GeneralSecurityException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        buffers.add(pair);
+                    }
+                });
+            }
+            for(int i = 0; i < inFlight_; i++) // All buffers returned means all tasks finished.
+                take(buffers);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing " + target);
+        }
+        Exception e = failure.get();
+        if(e instanceof IOException)
+            throw (IOException)e;
+        if(e instanceof GeneralSecurityException)
+            throw (GeneralSecurityException)e;
+        if(e != null)
+            throw (RuntimeException)e;
+    }
+
+    private static ByteBuffer[] take(BlockingQueue<ByteBuffer[]> buffers) throws InterruptedException {
+        BufferTaker taker = new BufferTaker(buffers);
+        ForkJoinPool.managedBlock(taker);
+        return taker.pair;
+    }
+
+    private static void checkPaths(Path source, Path target) {
+        if(source == null)
+            throw new IllegalArgumentException("parameter 'source' cannot be null!");
+        if(target == null)
+            throw new IllegalArgumentException("parameter 'target' cannot be null!");
+    }
+
+    private static FileChannel open(Path target) throws IOException {
+        return FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if(count < 0)
+                throw new EOFException("The file is shorter than expected");
+            position += count;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private final KeyData key_;
+    private final ForkJoinPool pool_;
+    private final int segmentSize_;
+    private final int inFlight_;
+
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final class SharedPool { // Created on first use.
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class BufferTaker implements ForkJoinPool.ManagedBlocker {
+        BufferTaker(BlockingQueue<ByteBuffer[]> buffers) {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if(pair == null)
+                pair = buffers.take();
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return pair != null || (pair = buffers.poll()) != null;
+        }
+
+        private final BlockingQueue<ByteBuffer[]> buffers;
+        ByteBuffer[] pair = null;
+    }
+
+    @FunctionalInterface
+    private interface SegmentTask {
+        void process(long index, ByteBuffer plain, ByteBuffer encrypted) throws IOException,
+                GeneralSecurityException;
+    }
+}
@@ -0,0 +1,238 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * The segmented AES-GCM format shared by the channel, seekable and parallel encrypted file classes. Plaintext is
+ * split into fixed size segments that are encrypted independently so they can be read in any order or in parallel.
+ *
+ * <p>Header: magic (4), version (1), codec (1), segment size (4), salt (16), nonce prefix (7). Each file uses a
+ * key derived with HMAC-SHA256 from the KeyData key and the random salt. The 12 byte nonce of a segment is the nonce
+ * prefix, the 4 byte segment index and a byte that is 1 only for the last segment, so segments cannot be reordered
+ * or the file truncated without failing authentication. The header is the additional authenticated data of every
+ * segment. Every segment except the last holds exactly segment size bytes of plaintext followed by a 16 byte
+ * tag.</p>
+ *
+ * Instances are thread safe, each thread uses its own Cipher.
+ */
+final class SegmentCipher {
+    private SegmentCipher(KeyData key, ByteBuffer header) throws GeneralSecurityException {
+        header_ = new byte[HEADER_SIZE];
+        header.get(header_);
+        ByteBuffer view = ByteBuffer.wrap(header_);
+        if(view.getInt() != MAGIC)
+            throw new GeneralSecurityException("The data is not in the segmented encrypted format");
+        if(view.get() != VERSION)
+            throw new GeneralSecurityException("The segmented encrypted format version is not supported");
+        codec_ = view.get();
+        segmentSize_ = view.getInt();
+        if(segmentSize_ < MINIMUM_SEGMENT_SIZE || segmentSize_ > MAXIMUM_SEGMENT_SIZE)
+            throw new GeneralSecurityException("The segment size in the header is not valid");
+        byte[] salt = new byte[SALT_SIZE];
+        view.get(salt);
+        noncePrefix_ = new byte[NONCE_PREFIX_SIZE];
+        view.get(noncePrefix_);
+        key_ = deriveKey(key, salt);
+        KeyData.getCipher(TRANSFORMATION); // Fail here rather than on first use.
+    }
+
+    /**
+     * Create the cipher for a new file with a random salt and nonce prefix.
+     *
+     * @param key The key, its IV is not used.
+     * @param segmentSize The plaintext bytes in each segment.
+     * @param codec The codec identifier recorded in the header, 0 for none.
+     * @return The new cipher.
+     * @throws GeneralSecurityException When AES/GCM is not supported or the key is not valid.
+     */
+    static SegmentCipher create(KeyData key, int segmentSize, byte codec) throws GeneralSecurityException {
+        if(segmentSize < MINIMUM_SEGMENT_SIZE || segmentSize > MAXIMUM_SEGMENT_SIZE)
+            throw new IllegalArgumentException("The segment size must be from 16 to 16 MiB");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).put(codec).putInt(segmentSize);
+        byte[] random = new byte[SALT_SIZE + NONCE_PREFIX_SIZE];
+        KeyDataGenerator.nextBytes(random);
+        header.put(random).flip();
+        return new SegmentCipher(key, header);
+    }
+
+    /**
+     * Create the cipher for an existing file from its header.
+     *
+     * @param key The key the file was written with.
+     * @param header The header, HEADER_SIZE bytes are consumed.
+     * @return The cipher.
+     * @throws GeneralSecurityException When the header is not valid or AES/GCM is not supported.
+     */
+    static SegmentCipher fromHeader(KeyData key, ByteBuffer header) throws GeneralSecurityException {
+        if(header.remaining() < HEADER_SIZE)
+            throw new GeneralSecurityException("The encrypted data is too short to contain a header");
+        return new SegmentCipher(key, header);
+    }
+
+    /**
+     * @return A new buffer containing the header to write before the first segment.
+     */
+    ByteBuffer header() {
+        return ByteBuffer.wrap(header_.clone());
+    }
+
+    int segmentSize() {
+        return segmentSize_;
+    }
+
+    byte codec() {
+        return codec_;
+    }
+
+    /**
+     * @return The size of a full segment including its tag.
+     */
+    int encryptedSegmentSize() {
+        return segmentSize_ + TAG_SIZE;
+    }
+
+    /**
+     * Get the offset of a segment from the start of the file.
+     *
+     * @param index The segment index.
+     * @return The offset in bytes.
+     */
+    long segmentOffset(long index) {
+        return HEADER_SIZE + index * encryptedSegmentSize();
+    }
+
+    /**
+     * Get the number of segments in a file, the file size acts as the index of the segments.
+     *
+     * @param fileSize The size of the encrypted file.
+     * @return The number of segments.
+     * @throws IOException When the size is not possible for this format (i.e. truncated).
+     */
+    long segmentCount(long fileSize) throws IOException {
+        long data = fileSize - HEADER_SIZE;
+        long count = data / encryptedSegmentSize();
+        long remainder = data % encryptedSegmentSize();
+        if(remainder != 0L) {
+            if(remainder < TAG_SIZE)
+                throw new IOException("The encrypted file is truncated");
+            count++;
+        }
+        if(count == 0L)
+            throw new IOException("The encrypted file is truncated");
+        return count;
+    }
+
+    /**
+     * Get the plaintext size of a file.
+     *
+     * @param fileSize The size of the encrypted file.
+     * @return The size in bytes of the plaintext.
+     * @throws IOException When the size is not possible for this format.
+     */
+    long plaintextSize(long fileSize) throws IOException {
+        return fileSize - HEADER_SIZE - segmentCount(fileSize) * TAG_SIZE;
+    }
+
+    /**
+     * Encrypt one segment, all remaining bytes of plain are consumed.
+     *
+     * @param index The segment index.
+     * @param last true only for the last segment of the file.
+     * @param plain The plaintext, at most segmentSize bytes.
+     * @param out Receives the ciphertext and tag.
+     * @throws GeneralSecurityException When encryption fails.
+     */
+    void encrypt(long index, boolean last, ByteBuffer plain, ByteBuffer out) throws GeneralSecurityException {
+        Cipher cipher = init(Cipher.ENCRYPT_MODE, index, last);
+        cipher.doFinal(plain, out);
+    }
+
+    /**
+     * Decrypt and authenticate one segment, all remaining bytes of encrypted are consumed.
+     *
+     * @param index The segment index.
+     * @param last true only for the last segment of the file.
+     * @param encrypted The ciphertext and tag.
+     * @param out Receives the plaintext.
+     * @throws IOException When the segment fails authentication.
+     * @throws GeneralSecurityException When decryption fails.
+     */
+    void decrypt(long index, boolean last, ByteBuffer encrypted, ByteBuffer out) throws IOException,
+            GeneralSecurityException {
+        Cipher cipher = init(Cipher.DECRYPT_MODE, index, last);
+        try {
+            cipher.doFinal(encrypted, out);
+        } catch(AEADBadTagException e) {
+            throw new IOException("Encrypted segment " + index + " failed authentication", e);
+        } catch(ShortBufferException e) {
+            throw new IOException("The output buffer is too small for segment " + index, e);
+        }
+    }
+
+    private Cipher init(int mode, long index, boolean last) throws GeneralSecurityException {
+        if(index < 0L || index > MAXIMUM_SEGMENT_INDEX)
+            throw new GeneralSecurityException("The segment index is out of range");
+        byte[] nonce = new byte[NONCE_SIZE];
+        System.arraycopy(noncePrefix_, 0, nonce, 0, NONCE_PREFIX_SIZE);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_SIZE, Integer.BYTES + 1).putInt((int)index).put(last ? (byte)1 : (byte)0);
+        Cipher cipher = ciphers_.get();
+        cipher.init(mode, key_, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        cipher.updateAAD(header_);
+        return cipher;
+    }
+
+    private static SecretKeySpec deriveKey(KeyData key, byte[] salt) throws GeneralSecurityException {
+        byte[] master = key.keyAsBytes();
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(master, "HmacSHA256"));
+        mac.update(KEY_LABEL);
+        byte[] derived = mac.doFinal(salt);
+        return new SecretKeySpec(derived, 0, Math.min(master.length, derived.length), "AES");
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return KeyData.getCipher(TRANSFORMATION);
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException(e); // Cannot happen, the ctor created one.
+        }
+    }
+
+    private final byte[] header_;
+    private final byte codec_;
+    private final int segmentSize_;
+    private final byte[] noncePrefix_;
+    private final SecretKeySpec key_;
+    private final ThreadLocal<Cipher> ciphers_ = ThreadLocal.withInitial(SegmentCipher::newCipher);
+
+    static final int HEADER_SIZE = 33;
+    static final int TAG_SIZE = 16;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int MINIMUM_SEGMENT_SIZE = 16;
+    static final int MAXIMUM_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final byte CODEC_NONE = 0;
+
+    private static final int MAGIC = 0x41455347; // "AESG"
+    private static final byte VERSION = 1;
+    private static final int SALT_SIZE = 16;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+    private static final long MAXIMUM_SEGMENT_INDEX = 0xffffffffL;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte[] KEY_LABEL = "com.amonson.crypto.SegmentCipher".getBytes(StandardCharsets.UTF_8);
+}
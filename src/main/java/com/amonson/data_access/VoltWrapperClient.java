@@ -5,15 +5,17 @@
 package com.amonson.data_access;
 
 import org.apache.logging.log4j.core.Logger;
+import org.voltdb.VoltTable;
 import org.voltdb.client.*;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.util.Map;
-import java.util.Properties;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -153,25 +155,35 @@ class VoltWrapperClient extends ClientStatusListenerExt {
     /**
      * Using the configuration properties "resource_file", "filename", and "jar_files". initialize the schema and
      * stored Java procedures (JARs). Resource files are attempted before file in the filesystem. Loading JARs is
-     * last.
+     * last, one JAR at a time as each is a catalog update.
+     *
+     * A SHA-256 checksum of each item is recorded in the "BOOTSTRAP_CHECKSUMS" table so that only items whose
+     * contents changed since the last successful load are applied on subsequent calls. An empty database has
+     * everything loaded. A database with a schema but without the checksum table (created before checksums
+     * were recorded) is assumed to be up to date and its checksums are recorded without loading anything.
+     *
+     * Changed JARs are loaded again as replacing classes is safe. Changed SQL is NOT run again because the DDL
+     * already exists in the schema; a warning is logged and the old checksum is kept so the warning repeats on
+     * every call until the change is applied to the existing database with a migration.
      *
      * @return true if everything present is loaded ok, false something was attempted to load and failed.
      */
     public boolean initializeVoltDBAfterConnect() {
-        if(!checkSchema()) {
-            if (properties_.containsKey(RESOURCE_FILE)) {
-                if (!loadSQLFromResource(properties_.getProperty(RESOURCE_FILE)))
-                    return false;
-            }
-            if (properties_.containsKey(FILENAME)) {
-                if (!loadSQLFromFile(properties_.getProperty(FILENAME)))
-                    return false;
-            }
-            if (properties_.containsKey(JAR_FILES)) {
-                return loadJarFiles(properties_.getProperty(JAR_FILES));
-            }
+        Set<String> tables = getTableNames();
+        boolean haveSchema = tables.stream().anyMatch((name) -> !name.equalsIgnoreCase(CHECKSUM_TABLE));
+        boolean tracked = tables.stream().anyMatch((name) -> name.equalsIgnoreCase(CHECKSUM_TABLE));
+        if(!tracked && !createChecksumTable()) {
+            log_.warn("Failed to create the bootstrap checksum table, falling back to loading only into an " +
+                    "empty database.");
+            return haveSchema || loadAll(null, false, true);
         }
-        return true;
+        Map<String,String> recorded = new HashMap<>();
+        if(haveSchema) {
+            recorded = readChecksums();
+            if(recorded == null)
+                return true; // Cannot tell what changed so treat an existing schema as current.
+        }
+        return loadAll(recorded, tracked, !haveSchema);
     }
 
     @Override
@@ -192,104 +204,210 @@ class VoltWrapperClient extends ClientStatusListenerExt {
             connections_.put(hostname, false);
     }
 
-    private boolean checkSchema() {
+    private boolean loadAll(Map<String,String> recorded, boolean tracked, boolean loadEverything) {
+        if (properties_.containsKey(RESOURCE_FILE)) {
+            String resourceName = properties_.getProperty(RESOURCE_FILE);
+            byte[] sql = readSQLFromResource(resourceName);
+            if (sql == null || !loadIfChanged(RESOURCE_FILE + ":" + resourceName, sql, recorded, tracked,
+                    loadEverything, false, () -> loadSQL(sql, String.format("resource SQL '%s'", resourceName))))
+                return false;
+        }
+        if (properties_.containsKey(FILENAME)) {
+            String filename = properties_.getProperty(FILENAME);
+            byte[] sql = readSQLFromFile(filename);
+            if (sql == null || !loadIfChanged(FILENAME + ":" + filename, sql, recorded, tracked, loadEverything,
+                    false, () -> loadSQL(sql, String.format("SQL file '%s'", filename))))
+                return false;
+        }
+        if (properties_.containsKey(JAR_FILES)) {
+            return loadJarFiles(properties_.getProperty(JAR_FILES), recorded, tracked, loadEverything);
+        }
+        return true;
+    }
+
+    // When 'recorded' is null no checksums are read or written and the item is loaded only when loadEverything.
+    // A changed item is only loaded again when 'reload' is true, i.e. it can be applied over the previous one,
+    // otherwise it is reported and its checksum is left unchanged.
+    private boolean loadIfChanged(String key, byte[] contents, Map<String,String> recorded, boolean tracked,
+                                  boolean loadEverything, boolean reload, Loader loader) {
+        String checksum = checksum(contents);
+        boolean load = loadEverything;
+        if(!load && recorded != null) {
+            String previous = recorded.get(key);
+            if(previous == null)
+                load = tracked;
+            else if(!previous.equals(checksum)) {
+                if(!reload) {
+                    log_.warn(String.format("'%s' changed since it was loaded into VoltDB but is not loaded again " +
+                            "into the existing schema, apply the change with a migration.", key));
+                    return true; // Keep the old checksum, the schema does not match the new contents.
+                }
+                load = true;
+            }
+        }
+        if(load) {
+            log_.info(String.format("Loading '%s' into VoltDB.", key));
+            if(!loader.load())
+                return false;
+        } else
+            log_.debug(String.format("Skipping '%s' as it is unchanged in VoltDB.", key));
+        if(recorded != null && !checksum.equals(recorded.get(key)))
+            recordChecksum(key, checksum);
+        return true;
+    }
+
+    private Set<String> getTableNames() {
+        Set<String> names = new HashSet<>();
         try {
             ClientResponse response = client_.callProcedure("@SystemCatalog", "tables");
             if(response.getStatus() != ClientResponse.SUCCESS) {
                 log_.warn("Call to '@SystemCatalog' built-in procedure failed with: " +
                         response.getStatusString());
-                return false;
+                return names;
             }
-            return response.getResults()[0].getRowCount() > 0;
+            VoltTable table = response.getResults()[0];
+            while(table.advanceRow())
+                names.add(table.getString("TABLE_NAME"));
         } catch (NoConnectionsException e) {
             log_.warn("No connection to VoltDB databases!");
             log_.catching(e);
-            return false;
         } catch (IOException e) {
             log_.warn("I/O exception when calling to VoltDB databases!");
             log_.catching(e);
-            return false;
         } catch (ProcCallException e) {
             log_.warn("Call to built in '@SystemCatalog' failed! Is the name correct?");
             log_.catching(e);
-            return false;
         }
+        return names;
     }
 
-    private boolean loadJarFiles(String jarFiles) {
-        String[] jars = jarFiles.split(",");
-        for(String jarFilename: jars) {
-            File jar = new File(jarFilename);
-            if(!jar.canRead()) {
-                log_.fatal(String.format("Jar file '%s' is missing or cannot be read!", jar));
-                return false;
-            }
-            try {
-                ClientResponse response = client_.updateClasses(jar, "");
-                if(response.getStatus() != ClientResponse.SUCCESS) {
-                    log_.fatal(String.format("Failed to call VoltDB: %s", response.getStatusString()));
-                    return false;
-                }
-            } catch (IOException | ProcCallException e) {
-                log_.fatal(String.format("Failed to load the JAR file '%s' into VoltDB!", jar));
-                log_.catching(e);
-                return false;
+    private boolean createChecksumTable() {
+        return callAdHoc(String.format("CREATE TABLE %s (NAME VARCHAR(1024) NOT NULL, CHECKSUM VARCHAR(64) " +
+                "NOT NULL, PRIMARY KEY (NAME));", CHECKSUM_TABLE)) != null;
+    }
+
+    private Map<String,String> readChecksums() {
+        ClientResponse response = callAdHoc(String.format("SELECT NAME, CHECKSUM FROM %s;", CHECKSUM_TABLE));
+        if(response == null)
+            return null;
+        Map<String,String> checksums = new HashMap<>();
+        VoltTable table = response.getResults()[0];
+        while(table.advanceRow())
+            checksums.put(table.getString(0), table.getString(1));
+        return checksums;
+    }
+
+    private void recordChecksum(String key, String checksum) {
+        if(callAdHoc(String.format("UPSERT INTO %s (NAME, CHECKSUM) VALUES (?, ?);", CHECKSUM_TABLE), key,
+                checksum) == null)
+            log_.warn(String.format("Failed to record the checksum for '%s', it will be reloaded next time.", key));
+    }
+
+    private ClientResponse callAdHoc(String sql, Object... params) {
+        Object[] args = new Object[params.length + 1];
+        args[0] = sql;
+        System.arraycopy(params, 0, args, 1, params.length);
+        try {
+            ClientResponse response = callProcedureSync("@AdHoc", args);
+            if(response.getStatus() != ClientResponse.SUCCESS) {
+                log_.warn(String.format("Failed to call VoltDB: %s", response.getStatusString()));
+                return null;
             }
+            return response;
+        } catch(IOException | ProcCallException e) {
+            log_.warn(String.format("Failed to execute '%s' in VoltDB!", sql));
+            log_.catching(e);
+            return null;
         }
-        return true;
     }
 
-    private boolean loadSQLFromFile(String filename) {
-        File file = new File(filename);
-        if(!file.canRead()) {
-            log_.fatal(String.format("File '%s' does not exist or is not readable!", file));
+    private static String checksum(byte[] contents) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contents));
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform!", e);
+        }
+    }
+
+    private boolean loadJarFiles(String jarFiles, Map<String,String> recorded, boolean tracked,
+                                 boolean loadEverything) {
+        boolean result = true;
+        for(String jarFilename: jarFiles.split(","))
+            result = loadJarFile(new File(jarFilename), recorded, tracked, loadEverything) && result;
+        return result;
+    }
+
+    private boolean loadJarFile(File jar, Map<String,String> recorded, boolean tracked, boolean loadEverything) {
+        if(!jar.canRead()) {
+            log_.fatal(String.format("Jar file '%s' is missing or cannot be read!", jar));
             return false;
         }
-        String sql;
+        byte[] contents;
         try {
-            sql = new String(Files.readAllBytes(file.toPath()));
+            contents = Files.readAllBytes(jar.toPath());
         } catch (IOException e) {
-            log_.fatal(String.format("Failed to read SQL file '%s'", file));
+            log_.fatal(String.format("Failed to read JAR file '%s'", jar));
             log_.catching(e);
             return false;
         }
+        return loadIfChanged(JAR_FILES + ":" + jar.getPath(), contents, recorded, tracked, loadEverything, true,
+                () -> loadJar(jar));
+    }
+
+    private boolean loadJar(File jar) {
         try {
-            ClientResponse response = callProcedureSync("@AdHoc", sql);
+            ClientResponse response = client_.updateClasses(jar, "");
             if(response.getStatus() != ClientResponse.SUCCESS) {
                 log_.fatal(String.format("Failed to call VoltDB: %s", response.getStatusString()));
                 return false;
             }
-        } catch(IOException | ProcCallException e) {
-            log_.fatal(String.format("Failed to load the SQL file '%s' into VoltDB!", file));
+        } catch (IOException | ProcCallException e) {
+            log_.fatal(String.format("Failed to load the JAR file '%s' into VoltDB!", jar));
             log_.catching(e);
             return false;
         }
         return true;
     }
 
-    private boolean loadSQLFromResource(String resourceName) {
+    private byte[] readSQLFromFile(String filename) {
+        File file = new File(filename);
+        if(!file.canRead()) {
+            log_.fatal(String.format("File '%s' does not exist or is not readable!", file));
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            log_.fatal(String.format("Failed to read SQL file '%s'", file));
+            log_.catching(e);
+            return null;
+        }
+    }
+
+    private byte[] readSQLFromResource(String resourceName) {
         InputStream stream = ClassLoader.getSystemResourceAsStream(resourceName);
         if(stream == null) {
             log_.fatal(String.format("ClassLoader failed to get resource stream for '%s'!", resourceName));
-            return false;
+            return null;
         }
-
-        String sql;
-        try {
-            sql = IOUtils.toString(stream, StandardCharsets.UTF_8);
+        try (stream) {
+            return IOUtils.toByteArray(stream);
         } catch (IOException e) {
             log_.fatal(String.format("ClassLoader failed to get read the stream for '%s'!", resourceName));
             log_.catching(e);
-            return false;
+            return null;
         }
+    }
+
+    private boolean loadSQL(byte[] sql, String description) {
         try {
-            ClientResponse response = callProcedureSync("@AdHoc", sql);
+            ClientResponse response = callProcedureSync("@AdHoc", new String(sql, StandardCharsets.UTF_8));
             if(response.getStatus() != ClientResponse.SUCCESS) {
                 log_.fatal(String.format("Failed to call VoltDB: %s", response.getStatusString()));
                 return false;
             }
         } catch(IOException | ProcCallException e) {
-            log_.fatal(String.format("Failed to load the resource SQL '%s' into VoltDB!", resourceName));
+            log_.fatal(String.format("Failed to load the %s into VoltDB!", description));
             log_.catching(e);
             return false;
         }
@@ -330,4 +448,8 @@ class VoltWrapperClient extends ClientStatusListenerExt {
     public static final String RESOURCE_FILE             = "resource_file";
     public static final String FILENAME                  = "filename";
     public static final String JAR_FILES                 = "jar_files";
+
+    private static final String CHECKSUM_TABLE           = "BOOTSTRAP_CHECKSUMS";
+
+    @FunctionalInterface private interface Loader { boolean load(); }
 }
@@ -4,6 +4,8 @@
 //
 package com.amonson.node_monitoring;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -58,7 +60,7 @@ public class Message {
         targets_.addAll(Arrays.asList(targets.split(",")));
         if(messageParts != null)
             for(String part: messageParts)
-                frames_.add(part);
+                frames_.add(new Part(part));
     }
 
     /**
@@ -82,7 +84,7 @@ public class Message {
             throw new IllegalArgumentException("The 'targets' cannot be empty!");
         if(messageParts != null)
             for(String part: messageParts)
-                frames_.add(part);
+                frames_.add(new Part(part));
     }
 
     /**
@@ -109,7 +111,14 @@ public class Message {
      * @param node The hostname to check for inclusion in the targets list.
      * @return true indicates the passed node is present in the targets list, false otherwise.
      */
-    public boolean targetsContains(String node) { return targets_.contains(node); }
+    public boolean targetsContains(String node) {
+        if(nodes_ != null) {
+            int index = nodes_.indexOf(node);
+            if(index >= 0)
+                return nodeTargets_.get(index);
+        }
+        return targets_.contains(node);
+    }
 
     /**
      * Get the targets list as a string.
@@ -117,10 +126,7 @@ public class Message {
      * @return The comma separated list of targets in this instance.
      */
     public String getTargetsAsString() {
-        if(targets_.size() == 1)
-            return targets_.iterator().next();
-        else
-            return String.join(",", targets_);
+        return String.join(",", getAllTargets());
     }
 
     /**
@@ -143,7 +149,7 @@ public class Message {
      * @param arg Any object you want to pass through into the callback.
      */
     public void forEachTargetDo(FECallback action, Object arg) {
-        for(String target: targets_)
+        for(String target: getAllTargets())
             action.call(target, arg);
     }
 
@@ -154,16 +160,62 @@ public class Message {
      */
     public String[] getMessageParts() {
         String[] results = new String[frames_.size()];
-        return frames_.toArray(results);
+        for(int i = 0; i < results.length; i++)
+            results[i] = frames_.get(i).text();
+        return results;
     }
 
     /**
-     * Get the payload message parts as a string iterable.
+     * Get the payload message parts as a string iterable. Each part is only converted to a String when the iterator
+     * reaches it.
      *
      * @return The iterable for the list of payload message parts.
      */
     public Iterable<String> getMessagePartsIterable() {
-        return frames_;
+        return new AbstractList<>() {
+            @Override public String get(int index) { return frames_.get(index).text(); }
+            @Override public int size() { return frames_.size(); }
+        };
+    }
+
+    /**
+     * Get the payload message parts as they are sent, without any conversion of binary parts. The arrays are not
+     * copied and must not be modified.
+     *
+     * @return The read only list of payload message parts.
+     */
+    public List<byte[]> getMessagePartsAsBytes() {
+        return new AbstractList<>() {
+            @Override public byte[] get(int index) { return frames_.get(index).bytes(); }
+            @Override public int size() { return frames_.size(); }
+        };
+    }
+
+    /**
+     * Get the number of payload message parts.
+     *
+     * @return The count of parts.
+     */
+    public int getMessagePartCount() { return frames_.size(); }
+
+    /**
+     * Get one payload message part as a String, only this part is converted.
+     *
+     * @param index The index of the part.
+     * @return The part decoded as UTF-8.
+     * @throws IndexOutOfBoundsException if the index is not a valid part index.
+     */
+    public String getMessagePart(int index) { return frames_.get(index).text(); }
+
+    /**
+     * Get one payload message part as a read only buffer wrapping the part's bytes, no copy is made.
+     *
+     * @param index The index of the part.
+     * @return The part as a ByteBuffer.
+     * @throws IndexOutOfBoundsException if the index is not a valid part index.
+     */
+    public ByteBuffer getMessagePartAsBuffer(int index) {
+        return ByteBuffer.wrap(frames_.get(index).bytes()).asReadOnlyBuffer();
     }
 
     /**
@@ -171,42 +223,151 @@ public class Message {
      *
      * @param newTargets The collection of new targets.
      */
-    public void addTargets(Collection<String> newTargets) { targets_.addAll(newTargets); }
+    public void addTargets(Collection<String> newTargets) {
+        for(String target: newTargets)
+            addTarget(target);
+    }
 
     /**
      * Add one or more targets to the targets list as a String[].
      *
      * @param newTargets The String[] of new targets.
      */
-    public void addTargets(String... newTargets) { Collections.addAll(targets_, newTargets); }
+    public void addTargets(String... newTargets) { addTargets(Arrays.asList(newTargets)); }
 
     /**
      * Replace targets with one or more targets to the targets list as a collection.
      *
      * @param newTargets The collection of new targets.
      */
-    public void replaceTargets(Collection<String> newTargets) { targets_.clear(); addTargets(newTargets); }
+    public void replaceTargets(Collection<String> newTargets) { clearTargets(); addTargets(newTargets); }
 
     /**
      * Replace targets with one or more targets to the targets list as a String[].
      *
      * @param newTargets The String[] of new targets.
      */
-    public void replaceTargets(String... newTargets) { targets_.clear(); addTargets(newTargets); }
+    public void replaceTargets(String... newTargets) { clearTargets(); addTargets(newTargets); }
 
     /**
      * Add one or more parts to the payload message parts list as a String[].
      *
      * @param newParts The String[] of new targets.
      */
-    public void addMessageParts(String... newParts) { frames_.addAll(Arrays.asList(newParts)); }
+    public void addMessageParts(String... newParts) { addMessageParts(Arrays.asList(newParts)); }
 
     /**
      * Add one or more parts to the payload message parts list as a collection.
      *
      * @param newParts The collection of new targets.
      */
-    public void addMessageParts(Collection<String> newParts) { frames_.addAll(newParts); }
+    public void addMessageParts(Collection<String> newParts) {
+        for(String part: newParts)
+            frames_.add(new Part(part));
+    }
+
+    /**
+     * Add one or more binary parts to the payload message parts list. The parts are sent as they are with no
+     * encoding and are not copied, so they must not be modified after being added.
+     *
+     * @param newParts The byte[] parts to add.
+     */
+    public void addMessagePartsAsBytes(byte[]... newParts) {
+        for(byte[] part: newParts)
+            frames_.add(new Part(part));
+    }
+
+    /**
+     * Add one or more binary parts to the payload message parts list, each part is the remaining bytes of the
+     * buffer. A heap buffer that wraps a whole array is sent without a copy, other buffers are copied once. The
+     * positions of the buffers are not changed.
+     *
+     * @param newParts The ByteBuffer parts to add.
+     */
+    public void addMessagePartsAsBuffers(ByteBuffer... newParts) {
+        for(ByteBuffer part: newParts) {
+            if(part.hasArray() && part.arrayOffset() == 0 && part.position() == 0 &&
+                    part.limit() == part.array().length)
+                frames_.add(new Part(part.array()));
+            else {
+                byte[] bytes = new byte[part.remaining()];
+                part.duplicate().get(bytes);
+                frames_.add(new Part(bytes));
+            }
+        }
+    }
+
+    /**
+     * Used by the package to store the targets as indexes in a node table, the targets are not changed. Targets
+     * not in the table are kept by name. Nothing is done if the targets already use this table.
+     *
+     * @param nodes The node table for the indexes.
+     */
+    void internTargets(NodeTable nodes) {
+        if(nodes_ == nodes)
+            return;
+        List<String> targets = getAllTargets();
+        clearTargets();
+        nodes_ = nodes;
+        addTargets(targets);
+    }
+
+    /**
+     * Used by the package to replace the targets with every node in a node table.
+     *
+     * @param nodes The node table of the cluster.
+     */
+    void targetAllNodes(NodeTable nodes) {
+        clearTargets();
+        nodes_ = nodes;
+        nodeTargets_.set(0, nodes.size());
+    }
+
+    /**
+     * Used by the package to check for a target by its index, a single bit test when the targets use the table.
+     *
+     * @param nodes The node table for the index.
+     * @param index The index of the node in the table.
+     * @return true indicates the node is present in the targets list, false otherwise.
+     */
+    boolean targetsContainsNode(NodeTable nodes, int index) {
+        if(nodes_ == nodes)
+            return nodeTargets_.get(index);
+        return targetsContains(nodes.nameOf(index));
+    }
+
+    /**
+     * Used by the package to count the targets.
+     *
+     * @return The number of targets.
+     */
+    int getTargetCount() { return nodeTargets_.cardinality() + targets_.size(); }
+
+    /**
+     * Used by the package to find messages sent to only one node.
+     *
+     * @return The only target or null if there are more targets.
+     */
+    String getSingleTarget() {
+        if(getTargetCount() != 1)
+            return null;
+        return targets_.isEmpty() ? nodes_.nameOf(nodeTargets_.nextSetBit(0)) : targets_.iterator().next();
+    }
+
+    /**
+     * Used by the package to access the indexes of the targets after {@link #internTargets(NodeTable)}.
+     *
+     * @return The live set of target indexes.
+     */
+    BitSet getNodeTargets() { return nodeTargets_; }
+
+    /**
+     * Used by the package to access the targets that are not in the node table, or all targets if the targets
+     * were never interned.
+     *
+     * @return The live set of target names.
+     */
+    Set<String> getNamedTargets() { return targets_; }
 
     /**
      * Get the message's topic.
@@ -235,5 +396,58 @@ public class Message {
     private final String topic_;
     private final String sender_;
     private final Set<String> targets_ = new HashSet<>();
-    private final ArrayList<String> frames_ = new ArrayList<>();
+    private final BitSet nodeTargets_ = new BitSet();
+    private       NodeTable nodes_ = null;
+    private final ArrayList<Part> frames_ = new ArrayList<>();
+
+    private void addTarget(String target) {
+        int index = (nodes_ == null) ? -1 : nodes_.indexOf(target);
+        if(index < 0)
+            targets_.add(target);
+        else
+            nodeTargets_.set(index);
+    }
+
+    private void clearTargets() {
+        targets_.clear();
+        nodeTargets_.clear();
+    }
+
+    private List<String> getAllTargets() {
+        List<String> results = new ArrayList<>(nodeTargets_.cardinality() + targets_.size());
+        for(int index = nodeTargets_.nextSetBit(0); index >= 0; index = nodeTargets_.nextSetBit(index + 1))
+            results.add(nodes_.nameOf(index));
+        results.addAll(targets_);
+        return results;
+    }
+
+    // A payload part converted between String and UTF-8 bytes only when the other form is first requested.
+    private static final class Part {
+        Part(String text) {
+            if(text == null)
+                throw new IllegalArgumentException("A message part cannot be null!");
+            text_ = text;
+        }
+
+        Part(byte[] bytes) {
+            if(bytes == null)
+                throw new IllegalArgumentException("A message part cannot be null!");
+            bytes_ = bytes;
+        }
+
+        String text() {
+            if(text_ == null)
+                text_ = new String(bytes_, StandardCharsets.UTF_8);
+            return text_;
+        }
+
+        byte[] bytes() {
+            if(bytes_ == null)
+                bytes_ = text_.getBytes(StandardCharsets.UTF_8);
+            return bytes_;
+        }
+
+        private String text_ = null;
+        private byte[] bytes_ = null;
+    }
 }
@@ -0,0 +1,298 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.node_monitoring;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Binary wire format of a {@link Message}. The first frame is the address so ZeroMQ subscriptions can filter on it,
+ * the second frame is the binary header and each payload part follows as its own frame exactly as it was added.
+ *
+ * <p>Header: version (1), node table fingerprint (4), sender, targets. All counts are unsigned varints. A node is a
+ * varint of its {@link NodeTable} index + 1, or 0 followed by the length and UTF-8 bytes of a hostname that is not
+ * in the table. Targets start with a varint of (count &lt;&lt; 1 | bitmap); as a list the count nodes follow, as a
+ * bitmap count bytes with one bit per table index follow (index i is bit i % 8 of byte i / 8, the order of
+ * {@link java.util.BitSet#toByteArray()}), then a count and the hostnames not in the table. The smaller of the two
+ * forms is sent.</p>
+ *
+ * <p>Address: a message with a single target is addressed to that node as "\0hostname\0topic", all other
+ * messages are addressed to their topic as "topic\0". Topics and hostnames cannot contain '\0' so a subscription
+ * to {@link #nodePrefix(String)} or {@link #topicPrefix(String)} only matches those messages.</p>
+ *
+ * A sender using the empty table or a table {@link NodeTable#withoutIndexes()} only sends hostnames so any receiver
+ * can decode its messages. A header from a sender with a different non-zero fingerprint is decoded as long as it
+ * only contains hostnames, a header with node indexes from a different table cannot be decoded.
+ */
+final class MessageCodec {
+    private MessageCodec() {}
+
+    /**
+     * Convert a message to the frames sent on the wire.
+     *
+     * @param message The message to convert.
+     * @param nodes The node table of the sender.
+     * @return The ZMsg containing the topic, header and payload frames.
+     */
+    static ZMsg toZMsg(Message message, NodeTable nodes) {
+        ZMsg msg = new ZMsg();
+        byte[] header = encodeHeader(message, nodes);
+        String target = message.getSingleTarget();
+        msg.add((target == null) ? topicPrefix(message.getTopic()) : nodePrefix(target) + message.getTopic());
+        msg.add(header);
+        for(byte[] part: message.getMessagePartsAsBytes())
+            msg.add(part);
+        return msg;
+    }
+
+    /**
+     * Convert a message to one copy addressed to each of its targets. The copies share the header and payload
+     * arrays. Used for small target sets, a PUB socket only sends each copy to the node subscribed to its address.
+     *
+     * @param message The message to convert.
+     * @param nodes The node table of the sender.
+     * @param exclude The target that gets no copy (normally the sender), may be null.
+     * @return A ZMsg for each target except the excluded one.
+     */
+    static List<ZMsg> toDirectZMsgs(Message message, NodeTable nodes, String exclude) {
+        byte[] header = encodeHeader(message, nodes);
+        List<byte[]> parts = message.getMessagePartsAsBytes();
+        List<ZMsg> msgs = new ArrayList<>(message.getTargetCount());
+        message.forEachTargetDo((target, arg) -> {
+            if(target.equals(exclude))
+                return;
+            ZMsg msg = new ZMsg();
+            msg.add(nodePrefix(target) + message.getTopic());
+            msg.add(header);
+            for(byte[] part: parts)
+                msg.add(part);
+            msgs.add(msg);
+        }, null);
+        return msgs;
+    }
+
+    /**
+     * Convert the frames following the address frame to a message, the frames are consumed.
+     *
+     * @param topic The topic from the address, see {@link #topicOf(String)}.
+     * @param msg The header and payload frames.
+     * @param nodes The node table of the receiver.
+     * @return The message or null if the header is missing, corrupt or uses the indexes of a different node table.
+     */
+    static Message fromZMsg(String topic, ZMsg msg, NodeTable nodes) {
+        ZFrame header = msg.pollFirst();
+        if(header == null)
+            return null;
+        Message message = decodeHeader(topic, header.getData(), nodes);
+        if(message != null)
+            for(ZFrame frame: msg)
+                message.addMessagePartsAsBytes(frame.getData());
+        return message;
+    }
+
+    /**
+     * Get the topic from the address frame.
+     *
+     * @param address The first frame of a message.
+     * @return The topic or null if the address is not valid.
+     */
+    static String topicOf(String address) {
+        if(address.startsWith("\0")) {
+            int end = address.indexOf('\0', 1);
+            return (end < 0) ? null : address.substring(end + 1);
+        }
+        if(address.endsWith("\0"))
+            return address.substring(0, address.length() - 1);
+        return null;
+    }
+
+    /**
+     * @param topic The topic.
+     * @return The subscription prefix matching messages with this topic that are not addressed to one node.
+     */
+    static String topicPrefix(String topic) {
+        return topic + "\0";
+    }
+
+    /**
+     * @param hostname The hostname.
+     * @return The subscription prefix matching all messages addressed only to this node.
+     */
+    static String nodePrefix(String hostname) {
+        return "\0" + hostname + "\0";
+    }
+
+    /**
+     * Encode the sender and targets of a message.
+     *
+     * @param message The message to encode.
+     * @param nodes The node table of the sender.
+     * @return The header bytes.
+     */
+    static byte[] encodeHeader(Message message, NodeTable nodes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        out.write(VERSION);
+        int fingerprint = nodes.fingerprint();
+        out.write(fingerprint >>> 24);
+        out.write(fingerprint >>> 16);
+        out.write(fingerprint >>> 8);
+        out.write(fingerprint);
+        writeNode(out, message.getSender(), nodes);
+        message.internTargets(nodes);
+        BitSet indexes = message.getNodeTargets();
+        Set<String> names = message.getNamedTargets();
+        int listSize = 0;
+        for(int index = indexes.nextSetBit(0); index >= 0; index = indexes.nextSetBit(index + 1))
+            listSize += varintSize(index + 1);
+        int bitmapSize = (nodes.size() + 7) / 8;
+        if(listSize > bitmapSize) {
+            byte[] bitmap = Arrays.copyOf(indexes.toByteArray(), bitmapSize);
+            writeVarint(out, (bitmapSize << 1) | 1);
+            out.write(bitmap, 0, bitmapSize);
+            writeVarint(out, names.size());
+        } else {
+            writeVarint(out, (indexes.cardinality() + names.size()) << 1);
+            for(int index = indexes.nextSetBit(0); index >= 0; index = indexes.nextSetBit(index + 1))
+                writeVarint(out, index + 1);
+        }
+        for(String name: names)
+            writeName(out, name);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a header to a message without any payload parts.
+     *
+     * @param topic The topic of the message.
+     * @param header The header bytes.
+     * @param nodes The node table of the receiver.
+     * @return The message or null if the header is corrupt or uses the indexes of a different node table.
+     */
+    static Message decodeHeader(String topic, byte[] header, NodeTable nodes) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(header);
+            if(in.get() != VERSION)
+                return null;
+            int fingerprint = in.getInt();
+            if(fingerprint != 0 && fingerprint != nodes.fingerprint())
+                nodes = NodeTable.EMPTY; // Only hostnames can be decoded, any index fails below.
+            Message message = new Message(topic, readNode(in, nodes));
+            message.internTargets(nodes);
+            int targets = readVarint(in);
+            if((targets & 1) != 0) {
+                byte[] bitmap = new byte[targets >>> 1];
+                if(bitmap.length != (nodes.size() + 7) / 8)
+                    return null;
+                in.get(bitmap);
+                BitSet indexes = BitSet.valueOf(bitmap);
+                if(indexes.length() > nodes.size())
+                    return null;
+                message.getNodeTargets().or(indexes);
+                for(int count = readVarint(in); count > 0; count--)
+                    message.addTargets(readName(in));
+            } else
+                for(int count = targets >>> 1; count > 0; count--) {
+                    int node = readVarint(in);
+                    if(node == 0)
+                        message.addTargets(readString(in));
+                    else if(node > nodes.size())
+                        return null;
+                    else
+                        message.getNodeTargets().set(node - 1);
+                }
+            return message;
+        } catch(RuntimeException e) { // Truncated or corrupt.
+            return null;
+        }
+    }
+
+    /**
+     * Get the node table fingerprint of the sender of a header.
+     *
+     * @param header The header bytes.
+     * @return The fingerprint or 0 if the sender used the empty table or the header is not valid.
+     */
+    static int fingerprintOf(byte[] header) {
+        if(header.length < 5 || header[0] != VERSION)
+            return 0;
+        return ByteBuffer.wrap(header, 1, 4).getInt();
+    }
+
+    private static void writeNode(ByteArrayOutputStream out, String hostname, NodeTable nodes) {
+        int index = nodes.indexOf(hostname);
+        if(index < 0)
+            writeName(out, hostname);
+        else
+            writeVarint(out, index + 1);
+    }
+
+    private static void writeName(ByteArrayOutputStream out, String hostname) {
+        byte[] bytes = hostname.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, 0);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readNode(ByteBuffer in, NodeTable nodes) {
+        int node = readVarint(in);
+        if(node != 0)
+            return nodes.nameOf(node - 1);
+        return readString(in);
+    }
+
+    private static String readName(ByteBuffer in) {
+        if(readVarint(in) != 0)
+            throw new IllegalStateException("Expected a hostname in the message header");
+        return readString(in);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if(b >= 0) {
+                if(value < 0)
+                    throw new IllegalStateException("Varint in the message header is out of range");
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint in the message header is too long");
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static final byte VERSION = 1;
+}
@@ -84,10 +84,8 @@ class NodeMonitoringClientZeroMQ implements NodeMonitoringClient {
     }
 
     private ZMsg convertMessage(Message message) {
-        ZMsg msg = ZMsg.newStringMsg(message.getTopic(), message.getSender(), message.getTargetsAsString());
-        for(String part: message.getMessagePartsIterable())
-            msg.add(part);
-        return msg;
+        // Hostnames are sent by name, the server may have been given a different list of hostnames.
+        return MessageCodec.toZMsg(message, NodeTable.EMPTY);
     }
 
     private ZMQ.Context indirectCtx(int threads) {
@@ -22,6 +22,16 @@ import java.util.Properties;
  *
  * Current implementations are:
  *      "zeromq" - A JeroMQ-based implementation.
+ *      "swim"   - The JeroMQ-based implementation using SWIM probing instead of heartbeats from every node, for
+ *                 large clusters. All nodes of a cluster must use the same implementation.
+ *
+ * Messages name nodes by their index in the sorted list of all hostnames, so every node of a cluster should be
+ * configured with the same list. A node that sees another node using a different list, e.g. while a node is added
+ * and the configuration is rolled out, logs a warning and sends hostnames instead of indexes until it is restarted.
+ * Messages continue to flow but are larger, and indexed messages sent before the other node noticed are dropped.
+ *
+ * The binary message format is not compatible with releases that sent the targets as text. All nodes and all
+ * {@link NodeMonitoringClient}s of a cluster must be upgraded at the same time.
  */
 public class NodeMonitoringFactory {
     /**
@@ -32,7 +42,8 @@ public class NodeMonitoringFactory {
      *                       new implementation it will only receive the original implementation.
      * @param myHostname This needs to be the network resolvable hostname of this node.
      * @param allHostnames This is a list of all hostnames in the cluster. It may contain "myHostname". All names
-     *                    must be network resolvable. This may be null denoting a cluster of only this node.
+     *                    must be network resolvable. This may be null denoting a cluster of only this node. It
+     *                    should be the same on all nodes, see above.
      * @param port The base port used for node to node communication. The next numeric port (port + 1) is used
      *             for another process on the same node to communicate with this class use a REQ socket for this.
      *             Privileged ports are not allowed (ports &lt; 1024) .
@@ -47,10 +58,15 @@ public class NodeMonitoringFactory {
                                                          List<String> allHostnames, int port,
                                                          NodeStateChangeHandler nodeStateChangeHandler, Logger logger,
                                                          Properties config) {
-        if(implementation.equals("zeromq")) {
-            if(singleton_ == null)
-                singleton_ = new NodeMonitoringZeroMQ(myHostname, allHostnames, port, nodeStateChangeHandler, logger, config);
-            else
+        if(implementation.equals("zeromq") || implementation.equals("swim")) {
+            if(singleton_ == null) {
+                if(implementation.equals("swim"))
+                    singleton_ = new NodeMonitoringSwim(myHostname, allHostnames, port, nodeStateChangeHandler,
+                            logger, config);
+                else
+                    singleton_ = new NodeMonitoringZeroMQ(myHostname, allHostnames, port, nodeStateChangeHandler,
+                            logger, config);
+            } else
                 logger.warn("Returning an already created instance, the instance will not represent " +
                         "the new passed parameters!");
             return singleton_;
@@ -78,7 +94,7 @@ public class NodeMonitoringFactory {
      */
     public static NodeMonitoringClient createClient(String implementation, String myHostname,
                                                     List<String> allHostnames, int port, Logger logger) {
-        if(implementation.equals("zeromq")) {
+        if(implementation.equals("zeromq") || implementation.equals("swim")) {
             return new NodeMonitoringClientZeroMQ(myHostname, allHostnames, port, logger);
         } else
             throw new IllegalArgumentException("Unknown implementation name: " + implementation);
@@ -0,0 +1,301 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.node_monitoring;
+
+import org.apache.logging.log4j.core.Logger;
+import org.zeromq.ZMsg;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * A SWIM failure detector using the JeroMQ transport of {@link NodeMonitoringZeroMQ}. Instead of every node sending
+ * a heartbeat to every other node each period, each node probes one member per period chosen in a shuffled round
+ * robin order. A member that does not acknowledge a ping in time is probed indirectly through other members, and a
+ * member that still does not answer is only suspected. Suspicion is spread by piggybacking membership updates on the
+ * probe messages and the suspected member can refute it by increasing its incarnation number. A member is only
+ * reported missing when the suspicion is not refuted in time, so a GC pause shorter than NodeExpirationTime does not
+ * cause missing/active flapping. Each node sends a constant number of messages per period regardless of cluster
+ * size.
+ *
+ * Probe messages are addressed to single nodes so the PUB socket only sends them to that node. User messages and
+ * the localhost client work exactly as in {@link NodeMonitoringZeroMQ}.
+ *
+ * Specific configuration for this implementation (in addition to {@link NodeMonitoringZeroMQ}) are:
+ *
+ *      NodeAlivePeriod    - (def. 1900ms) The protocol period, one member is probed each period.
+ *      NodeExpirationTime - (def. 4000ms) How long a suspected member has to refute the suspicion before it is
+ *                           reported missing. One period per doubling of the cluster size is added to allow the
+ *                           suspicion to reach the member.
+ *      ProbeTimeout       - (def. 500ms) The wait for a direct acknowledgement before probing indirectly. Must be
+ *                           less than NodeAlivePeriod.
+ *      IndirectProbes     - (def. 3) The number of members asked to probe an unresponsive member.
+ */
+class NodeMonitoringSwim extends NodeMonitoringZeroMQ {
+    NodeMonitoringSwim(String myHostname, List<String> allHostnames, int port,
+                       NodeStateChangeHandler nodeStateChangeHandler, Logger logger, Properties config) {
+        super(myHostname, allHostnames, port, nodeStateChangeHandler, logger, config);
+        if(config != null) {
+            probeTimeoutMilliseconds_ = Long.parseLong(config.getProperty("ProbeTimeout",
+                    Long.toString(probeTimeoutMilliseconds_)));
+            indirectProbes_ = Integer.parseInt(config.getProperty("IndirectProbes",
+                    Integer.toString(indirectProbes_)));
+        }
+        if(probeTimeoutMilliseconds_ < 1L || probeTimeoutMilliseconds_ >= super.timerPeriod())
+            throw new IllegalArgumentException("The 'ProbeTimeout' must be greater than 0 and less than the " +
+                    "'NodeAlivePeriod'!");
+        NodeTable nodes = getNodeTable();
+        for(int i = 0; i < nodes.size(); i++)
+            if(!nodes.nameOf(i).equals(myHostname))
+                members_.put(nodes.nameOf(i), new Member());
+        probeOrder_.addAll(members_.keySet());
+        int rounds = Math.max(1, 32 - Integer.numberOfLeadingZeros(nodes.size())); // ~log2(N + 1)
+        retransmitLimit_ = RETRANSMIT_MULTIPLIER * rounds;
+        suspicionMilliseconds_ = getNodeExpirationTime() + rounds * super.timerPeriod();
+    }
+
+    @Override
+    long timerPeriod() {
+        return Math.max(MINIMUM_TICK, probeTimeoutMilliseconds_ / 2L);
+    }
+
+    @Override
+    void onTimer() {
+        long now = Instant.now().toEpochMilli();
+        if(probe_ != null) {
+            if(!probe_.acknowledged && !probe_.indirect && now >= probe_.started + probeTimeoutMilliseconds_) {
+                probe_.indirect = true;
+                probeIndirectly(probe_);
+            }
+            if(now >= probe_.started + super.timerPeriod()) {
+                if(!probe_.acknowledged)
+                    suspect(probe_.target, members_.get(probe_.target).incarnation, now);
+                probe_ = null;
+            }
+        }
+        if(probe_ == null && now >= nextProbe_) {
+            String target = nextProbeTarget();
+            if(target != null) {
+                probe_ = new Probe(target, sequence_++, now);
+                send(target, PING, probe_.sequence, target, "");
+            }
+            nextProbe_ = now + super.timerPeriod();
+        }
+        for(Map.Entry<String,Member> entry: members_.entrySet()) {
+            Member member = entry.getValue();
+            if(member.state == SUSPECT && now >= member.suspected + suspicionMilliseconds_)
+                dead(entry.getKey(), member.incarnation, now);
+        }
+    }
+
+    @Override
+    boolean onProtocolMessage(String topic, ZMsg msg) {
+        if(!topic.equals(TOPIC))
+            return false;
+        Message message = decodeMessage(topic, msg);
+        List<byte[]> parts = (message == null) ? null : message.getMessagePartsAsBytes();
+        if(parts == null || parts.size() < 3 || parts.get(0).length != HEADER_SIZE ||
+                !members_.containsKey(message.getSender())) {
+            getLogger().warn("Dropped a membership message that could not be decoded!");
+            return true;
+        }
+        long now = Instant.now().toEpochMilli();
+        ByteBuffer header = ByteBuffer.wrap(parts.get(0));
+        byte type = header.get();
+        int sequence = header.getInt();
+        alive(message.getSender(), header.getInt(), now); // Any message is direct evidence of the sender.
+        String subject = new String(parts.get(1), StandardCharsets.UTF_8);
+        String origin = new String(parts.get(2), StandardCharsets.UTF_8);
+        for(int i = 3; i < parts.size(); i++)
+            applyUpdate(ByteBuffer.wrap(parts.get(i)), now);
+        if(type == PING)
+            send(message.getSender(), ACK, sequence, getMyHostname(), origin);
+        else if(type == PING_REQ && members_.containsKey(subject))
+            send(subject, PING, sequence, subject, message.getSender());
+        else if(type == ACK) {
+            if(!origin.isEmpty() && !origin.equals(getMyHostname())) {
+                if(members_.containsKey(origin))
+                    send(origin, ACK, sequence, subject, "");
+            } else if(probe_ != null && probe_.sequence == sequence && probe_.target.equals(subject))
+                probe_.acknowledged = true;
+        }
+        return true;
+    }
+
+    // Ask other active members to ping the target and forward the acknowledgement.
+    private void probeIndirectly(Probe probe) {
+        if(members_.get(probe.target).state == DEAD)
+            return; // Only needs the direct ping to notice it is back.
+        List<String> helpers = new ArrayList<>();
+        for(Map.Entry<String,Member> entry: members_.entrySet())
+            if(entry.getValue().state == ALIVE && !entry.getKey().equals(probe.target))
+                helpers.add(entry.getKey());
+        Collections.shuffle(helpers, random_);
+        for(String helper: helpers.subList(0, Math.min(indirectProbes_, helpers.size())))
+            send(helper, PING_REQ, probe.sequence, probe.target, "");
+    }
+
+    // Every member is probed once per round, the order is shuffled each round.
+    private String nextProbeTarget() {
+        if(probeOrder_.isEmpty())
+            return null;
+        if(probeIndex_ >= probeOrder_.size()) {
+            Collections.shuffle(probeOrder_, random_);
+            probeIndex_ = 0;
+        }
+        return probeOrder_.get(probeIndex_++);
+    }
+
+    private void send(String target, byte type, int sequence, String subject, String origin) {
+        Message message = new Message(TOPIC, getMyHostname(), target);
+        byte[] header = ByteBuffer.allocate(HEADER_SIZE).put(type).putInt(sequence).putInt(incarnation_).array();
+        message.addMessagePartsAsBytes(header, subject.getBytes(StandardCharsets.UTF_8),
+                origin.getBytes(StandardCharsets.UTF_8));
+        Member member = members_.get(target);
+        if(member.state != ALIVE && member.incarnation >= 0) // Tell the target what the cluster believes of it.
+            message.addMessagePartsAsBytes(encodeUpdate(target, member.state, member.incarnation));
+        for(byte[] update: piggyback())
+            message.addMessagePartsAsBytes(update);
+        sendMessage(message);
+    }
+
+    // The least sent updates, each update is dropped after it has been sent retransmitLimit_ times.
+    private List<byte[]> piggyback() {
+        List<Update> updates = new ArrayList<>(updates_.values());
+        updates.sort(Comparator.comparingInt(update -> update.transmits));
+        List<byte[]> results = new ArrayList<>();
+        for(Update update: updates.subList(0, Math.min(MAXIMUM_PIGGYBACK, updates.size()))) {
+            results.add(update.encoded);
+            if(++update.transmits >= retransmitLimit_)
+                updates_.remove(update.node);
+        }
+        return results;
+    }
+
+    private void applyUpdate(ByteBuffer update, long now) {
+        if(update.remaining() < 5)
+            return;
+        byte state = update.get();
+        int incarnation = update.getInt();
+        byte[] name = new byte[update.remaining()];
+        update.get(name);
+        String node = new String(name, StandardCharsets.UTF_8);
+        if(node.equals(getMyHostname())) {
+            if(state != ALIVE && incarnation >= incarnation_) { // Refute the suspicion.
+                incarnation_ = incarnation + 1;
+                gossip(node, ALIVE, incarnation_);
+            }
+        } else if(members_.containsKey(node)) {
+            if(state == ALIVE)
+                alive(node, incarnation, now);
+            else if(state == SUSPECT)
+                suspect(node, incarnation, now);
+            else if(state == DEAD)
+                dead(node, incarnation, now);
+        }
+    }
+
+    private void alive(String node, int incarnation, long now) {
+        Member member = members_.get(node);
+        if(incarnation <= member.incarnation)
+            return;
+        byte previous = member.state;
+        member.state = ALIVE;
+        member.incarnation = incarnation;
+        gossip(node, ALIVE, incarnation);
+        if(previous == DEAD)
+            callNodeStateChangeHandlerOnThread(node, RemoteNodeState.ACTIVE, now);
+    }
+
+    private void suspect(String node, int incarnation, long now) {
+        Member member = members_.get(node);
+        if(member.state == DEAD || incarnation < member.incarnation ||
+                (member.state == SUSPECT && incarnation == member.incarnation))
+            return;
+        if(member.state == ALIVE)
+            member.suspected = now;
+        member.state = SUSPECT;
+        member.incarnation = incarnation;
+        gossip(node, SUSPECT, incarnation);
+        getLogger().debug(String.format("Node '%s' is suspected to have failed.", node));
+    }
+
+    private void dead(String node, int incarnation, long now) {
+        Member member = members_.get(node);
+        if(member.state == DEAD || incarnation < member.incarnation)
+            return;
+        member.state = DEAD;
+        member.incarnation = incarnation;
+        gossip(node, DEAD, incarnation);
+        callNodeStateChangeHandlerOnThread(node, RemoteNodeState.MISSING, now);
+    }
+
+    private void gossip(String node, byte state, int incarnation) {
+        updates_.put(node, new Update(node, encodeUpdate(node, state, incarnation)));
+    }
+
+    private static byte[] encodeUpdate(String node, byte state, int incarnation) {
+        byte[] name = node.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(5 + name.length).put(state).putInt(incarnation).put(name).array();
+    }
+
+    // All state is only used on the ZeroMQ thread.
+    private final Map<String,Member> members_ = new HashMap<>();
+    private final Map<String,Update> updates_ = new LinkedHashMap<>();
+    private final List<String> probeOrder_ = new ArrayList<>();
+    private final Random random_ = new Random();
+    private final int retransmitLimit_;
+    private final long suspicionMilliseconds_;
+    private       long probeTimeoutMilliseconds_ = 500L;
+    private       int indirectProbes_ = 3;
+    private       int probeIndex_ = Integer.MAX_VALUE;
+    private       int incarnation_ = 0;
+    private       int sequence_ = 0;
+    private       long nextProbe_ = 0L;
+    private       Probe probe_ = null;
+
+    // Reserved topic, it starts with '\0' so no user topic can match it.
+    static final String TOPIC = "\0SWIM";
+
+    private static final byte PING = 1;
+    private static final byte PING_REQ = 2;
+    private static final byte ACK = 3;
+    private static final byte ALIVE = 1;
+    private static final byte SUSPECT = 2;
+    private static final byte DEAD = 3;
+    private static final int HEADER_SIZE = 9; // type, sequence, sender incarnation
+    private static final int MAXIMUM_PIGGYBACK = 6;
+    private static final int RETRANSMIT_MULTIPLIER = 3;
+    private static final long MINIMUM_TICK = 10L;
+
+    // Internal classes
+    private static class Member {
+        byte state = DEAD; // Reported MISSING at start like NodeMonitoringZeroMQ.
+        int incarnation = -1; // Never heard from, any incarnation is newer.
+        long suspected = 0L;
+    }
+
+    private static class Probe {
+        Probe(String target, int sequence, long started) {
+            this.target = target;
+            this.sequence = sequence;
+            this.started = started;
+        }
+        final String target;
+        final int sequence;
+        final long started;
+        boolean acknowledged = false;
+        boolean indirect = false;
+    }
+
+    private static class Update {
+        Update(String node, byte[] encoded) { this.node = node; this.encoded = encoded; }
+        final String node;
+        final byte[] encoded;
+        int transmits = 0;
+    }
+}
@@ -7,6 +7,7 @@ package com.amonson.node_monitoring;
 import org.apache.logging.log4j.core.Logger;
 import org.zeromq.*;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
@@ -15,34 +16,41 @@ import java.util.*;
  * This is a JeroMQ based (a specific Java implementation of ZeroMQ) implementation of the
  * {@link NodeMonitoring} interface.
  *
+ * The SUB socket only subscribes to ALIVE, to messages addressed only to this node and to the topics with a
+ * registered {@link MessageHandler}, so ZeroMQ drops all other cluster traffic before it is received. Subscriptions
+ * are forwarded to the connected PUB sockets which only send to matching peers, so a message addressed to one node
+ * is a single network send.
+ *
  * Specific implementation for this JeroMQ-based implementation are:
  *
  *      ZeroMQThreads      - (def. 1) This is the number of internal threads used by ZeroMQ for I/O. 1-4 is typical.
+ *      DirectTargetLimit  - (def. 8) A message with 2 up to this many targets is sent as one copy addressed to each
+ *                           target instead of one copy to every node subscribed to the topic. 0 or 1 disables it.
+ *                           Broadcasts ("*") are always sent as one copy to the topic subscribers.
  */
 class NodeMonitoringZeroMQ implements NodeMonitoring {
     @Override
     public void sendMessage(Message message) {
         if(zeroMQThreadId_ != Long.MIN_VALUE) {
-            if(message.targetsContains("*")) {
-                message.replaceTargets(lastSeen_.keySet());
-                message.addTargets(me_);
-            }
-            ZMsg msg = convertMessage(message);
+            // A broadcast stays one topic addressed copy so the PUB socket only fans it out to subscribers.
+            boolean broadcast = message.targetsContains("*");
+            if(broadcast)
+                message.targetAllNodes(nodes_);
+            int targets = message.getTargetCount();
+            List<ZMsg> msgs = (!broadcast && targets > 1 && targets <= directTargetLimit_) ?
+                    MessageCodec.toDirectZMsgs(message, sendNodes_, me_) : List.of(convertMessage(message));
             boolean useRelay = Thread.currentThread().getId() != zeroMQThreadId_;
-            if(useRelay)
-                msg.addFirst(RELAY);
             ZMQ.Socket socket = publish_;
             if(useRelay) {
                 log_.debug("Sending inproc message across threads first: " + message);
-                socket = nonZeroMQThreads_.getOrDefault(Thread.currentThread().getId(), null);
-                if (socket == null) {
-                    socket = CTX.socket(SocketType.PUSH);
-                    socket.connect(INPROC_URL);
-                    nonZeroMQThreads_.put(Thread.currentThread().getId(), socket);
-                }
+                socket = inprocSocket();
             } else
                 log_.debug("Sending message directly to cluster network: " + message);
-            msg.send(socket);
+            for(ZMsg msg: msgs) {
+                if(useRelay)
+                    msg.addFirst(RELAY);
+                msg.send(socket);
+            }
         }
     }
 
@@ -63,7 +71,7 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
         if(zeroMQThreadId_ != Long.MIN_VALUE) {
             log_.debug("Stopping listening.");
             if (zeroMQThreadId_ != Thread.currentThread().getId())
-                sendMessage(new Message(STOP, me_, me_));
+                ZMsg.newStringMsg(STOP).send(inprocSocket());
             else
                 Thread.currentThread().interrupt();
             if(zeroMQThread_ != null) {
@@ -99,9 +107,12 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
     public MessageHandler addOrReplaceMessageHandler(String topic, MessageHandler handler) {
         assert topic != null:"The 'topic' may not be null!";
         assert handler != null:"The 'handler' may not be null!";
+        MessageHandler previous;
         synchronized (messageHandlers_) {
-            return messageHandlers_.put(topic, handler);
+            previous = messageHandlers_.put(topic, handler);
         }
+        syncSubscription(topic);
+        return previous;
     }
 
     @Override
@@ -111,14 +122,18 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
         synchronized (messageHandlers_) {
             messageHandlers_.putIfAbsent(topic, handler);
         }
+        syncSubscription(topic);
     }
 
     @Override
     public MessageHandler removeMessageHandler(String topic) {
         assert topic != null:"The 'topic' may not be null!";
+        MessageHandler removed;
         synchronized (messageHandlers_) {
-            return messageHandlers_.remove(topic);
+            removed = messageHandlers_.remove(topic);
         }
+        syncSubscription(topic);
+        return removed;
     }
 
     @Override
@@ -157,6 +172,11 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
         if(logger == null)
             throw new IllegalArgumentException("The 'logger' cannot be null!");
         me_ = myHostname;
+        List<String> hostnames = new ArrayList<>(allHostnames);
+        hostnames.add(me_);
+        nodes_ = new NodeTable(hostnames);
+        sendNodes_ = nodes_;
+        myIndex_ = nodes_.indexOf(me_);
         for(String hostname: allHostnames)
             if (!myHostname.equals(hostname))
                 lastSeen_.put(hostname, new Pair<>(0L, RemoteNodeState.MISSING));
@@ -180,6 +200,8 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
                     Integer.toString(zeroMQThreadCount_)));
             threadPoolCount_ = Integer.parseInt(config.getProperty("ThreadsPoolCount",
                     Integer.toString(threadPoolCount_)));
+            directTargetLimit_ = Integer.parseInt(config.getProperty("DirectTargetLimit",
+                    Integer.toString(directTargetLimit_)));
         }
     }
 
@@ -190,9 +212,16 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
             reportAllMissing();
             String bindUrl = String.format("tcp://*:%d", port_);
             String connectUrl = String.format("tcp://%%s:%d", port_);
-            ZMQ.Socket subExternal = CTX.socket(SocketType.SUB);
-            subExternal.subscribe("");
-            subExternal.bind(bindUrl);
+            subscriber_ = CTX.socket(SocketType.SUB);
+            subscriber_.subscribe(ALIVE);
+            subscriber_.subscribe(MessageCodec.nodePrefix(me_));
+            List<String> topics;
+            synchronized (messageHandlers_) {
+                topics = new ArrayList<>(messageHandlers_.keySet());
+            }
+            for(String topic: topics)
+                updateSubscription(topic);
+            subscriber_.bind(bindUrl);
             ZMQ.Socket pullLocalhost = CTX.socket(SocketType.PULL);
             pullLocalhost.bind(String.format("tcp://localhost:%d", port_ + 1));
             ZMQ.Socket inproc = CTX.socket(SocketType.PULL);
@@ -201,9 +230,9 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
             for (String hostname : lastSeen_.keySet())
                 publish_.connect(String.format(connectUrl, hostname));
             loop_.addPoller(new ZMQ.PollItem(pullLocalhost, ZMQ.Poller.POLLIN), this::localhostIncomingRequest, null);
-            loop_.addPoller(new ZMQ.PollItem(subExternal, ZMQ.Poller.POLLIN), this::fromExternalCluster, null);
+            loop_.addPoller(new ZMQ.PollItem(subscriber_, ZMQ.Poller.POLLIN), this::fromExternalCluster, null);
             loop_.addPoller(new ZMQ.PollItem(inproc, ZMQ.Poller.POLLIN), this::fromOtherThreadInProcess, null);
-            loop_.addTimer((int) checkPeriodMilliseconds_, 0, this::timerTick, null);
+            loop_.addTimer((int) timerPeriod(), 0, this::timerTick, null);
 
             // Block this thread here...
             loop_.start();
@@ -211,7 +240,9 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
             inproc.close();
             publish_.close();
             pullLocalhost.close();
-            subExternal.close();
+            subscriber_.close();
+            subscriber_ = null;
+            subscriptions_.clear();
             stopPool();
             zeroMQThreadId_ = Long.MIN_VALUE;
         }
@@ -225,36 +256,96 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
     // Incoming handler for tcp://localhost PULL incoming messages.
     private int localhostIncomingRequest(ZLoop zLoop, ZMQ.PollItem pollItem, Object o) {
         ZMsg msg = indirectCall_.call(pollItem.getSocket(), true);
-        Message message = new Message(msg.removeFirst().getString(StandardCharsets.UTF_8),
-                msg.removeFirst().getString(StandardCharsets.UTF_8),
-                msg.removeFirst().getString(StandardCharsets.UTF_8), parseFrames(msg));
-        if(message.targetsContains(me_))
+        String topic = MessageCodec.topicOf(msg.removeFirst().getString(StandardCharsets.UTF_8));
+        Message message = (topic == null) ? null : MessageCodec.fromZMsg(topic, msg, nodes_);
+        if(message == null) {
+            log_.warn("Dropped a message from localhost that could not be decoded!");
+            return 0;
+        }
+        if(message.targetsContainsNode(nodes_, myIndex_))
             callMessageHandlerOnThread(message);
         sendMessage(message);
         return 0;
     }
 
-    private String[] parseFrames(ZMsg msg) {
-        String[] frames = new String[msg.size()];
-        int i = 0;
-        for(ZFrame frame: msg)
-            frames[i++] = frame.getString(StandardCharsets.UTF_8);
-        return frames;
+    private int timerTick(ZLoop zLoop, ZMQ.PollItem pollItem, Object o) {
+        onTimer();
+        return 0;
     }
 
-    private int timerTick(ZLoop zLoop, ZMQ.PollItem pollItem, Object o) {
+    /**
+     * Called on the ZeroMQ thread every {@link #timerPeriod()} ms to detect failed nodes. Sends the ALIVE heartbeat
+     * and reports nodes that have not sent one within the expiration time.
+     */
+    void onTimer() {
         sendAlive();
         checkForMissingNodes();
-        return 0;
+    }
+
+    /**
+     * @return The period in ms of calls to {@link #onTimer()}.
+     */
+    long timerPeriod() {
+        return checkPeriodMilliseconds_;
+    }
+
+    /**
+     * Called on the ZeroMQ thread for each external message before topic handlers are checked, so a failure
+     * detector can use reserved topics. Reserved topics start with '\0' so they cannot be registered by users.
+     *
+     * @param topic The topic of the message.
+     * @param msg The remaining frames after the address frame.
+     * @return true if the message was consumed, false to continue with the topic handlers.
+     */
+    boolean onProtocolMessage(String topic, ZMsg msg) {
+        return false;
+    }
+
+    /**
+     * Decode the frames following the address frame of a message from another node. A sender with a different
+     * list of hostnames switches this node to sending hostnames instead of node indexes, see
+     * {@link NodeMonitoringFactory}.
+     *
+     * @param topic The topic from the address.
+     * @param msg The header and payload frames, they are consumed.
+     * @return The message or null if it could not be decoded.
+     */
+    Message decodeMessage(String topic, ZMsg msg) {
+        ZFrame header = msg.peekFirst();
+        if(header != null)
+            checkNodeTable(MessageCodec.fingerprintOf(header.getData()));
+        return MessageCodec.fromZMsg(topic, msg, nodes_);
+    }
+
+    /**
+     * @return The interned hostnames of the cluster including this node.
+     */
+    NodeTable getNodeTable() {
+        return nodes_;
+    }
+
+    /**
+     * @return The configured NodeExpirationTime in ms.
+     */
+    long getNodeExpirationTime() {
+        return expireDeltaMilliseconds_;
     }
 
     // Incoming handler for tcp://* SUB incoming messages.
     private int fromExternalCluster(ZLoop loop, ZMQ.PollItem item, Object arg) {
         ZMsg recvMsg = indirectCall_.call(item.getSocket(), true);
-        String topic = recvMsg.removeFirst().getString(StandardCharsets.UTF_8);
-        String sender = recvMsg.removeFirst().getString(StandardCharsets.UTF_8);
-        if(topic.equals(ALIVE)) {
+        String address = recvMsg.removeFirst().getString(StandardCharsets.UTF_8);
+        if(address.equals(ALIVE)) {
+            String sender = recvMsg.removeFirst().getString(StandardCharsets.UTF_8);
             log_.trace(String.format("Received ALIVE message from '%s'!", sender));
+            ZFrame fingerprint = recvMsg.pollFirst();
+            if(fingerprint != null && fingerprint.size() == Integer.BYTES)
+                checkNodeTable(ByteBuffer.wrap(fingerprint.getData()).getInt());
+            if(!lastSeen_.containsKey(sender)) {
+                log_.debug(String.format("Ignored ALIVE message from '%s' which is not in the list of hostnames!",
+                        sender));
+                return 0;
+            }
             long previous = lastSeen_.get(sender).first;
             lastSeen_.get(sender).first = Instant.now().toEpochMilli();
             if(previous == 0L && nodeStateChangeHandler_ != null) {
@@ -263,15 +354,16 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
             }
             return 0;
         }
-        Message message = new Message(topic, sender, recvMsg.removeFirst().getString(StandardCharsets.UTF_8));
-        if(message.targetsContains(me_)) {
-            MessageHandler handler = messageHandlers_.getOrDefault(topic, null);
-            if(handler != null) {
-                for(ZFrame frame: recvMsg)
-                    message.addMessageParts(frame.getString(StandardCharsets.UTF_8));
-                callMessageHandlerOnThread(message);
-            }
-        }
+        // Subscriptions are prefixes and may lag a removed handler, so the topic is still checked here.
+        String topic = MessageCodec.topicOf(address);
+        if(topic == null || onProtocolMessage(topic, recvMsg) || !messageHandlers_.containsKey(topic))
+            return 0;
+        Message message = decodeMessage(topic, recvMsg);
+        if(message == null)
+            log_.warn(String.format("Dropped a '%s' message that could not be decoded or used a different list " +
+                    "of hostnames!", topic));
+        else if(message.targetsContainsNode(nodes_, myIndex_))
+            callMessageHandlerOnThread(message);
         return 0;
     }
 
@@ -283,16 +375,64 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
             Thread.currentThread().interrupt();
         else if(topic.equals(RELAY))
             recvMsg.send(publish_);
+        else if(topic.equals(SUBSCRIPTION))
+            updateSubscription(recvMsg.removeFirst().getString(StandardCharsets.UTF_8));
         return 0;
     }
 
+    // Get or create the PUSH socket used by the current (non-ZeroMQ) thread to reach the ZeroMQ thread.
+    private ZMQ.Socket inprocSocket() {
+        ZMQ.Socket socket = nonZeroMQThreads_.getOrDefault(Thread.currentThread().getId(), null);
+        if (socket == null) {
+            socket = CTX.socket(SocketType.PUSH);
+            socket.connect(INPROC_URL);
+            nonZeroMQThreads_.put(Thread.currentThread().getId(), socket);
+        }
+        return socket;
+    }
+
+    // Ask the ZeroMQ thread to match the SUB socket's subscription for a topic to the registered handlers.
+    private void syncSubscription(String topic) {
+        if(zeroMQThreadId_ == Long.MIN_VALUE)
+            return; // startBlocking() subscribes to all registered topics.
+        if(Thread.currentThread().getId() == zeroMQThreadId_)
+            updateSubscription(topic);
+        else
+            ZMsg.newStringMsg(SUBSCRIPTION, topic).send(inprocSocket());
+    }
+
+    // Only call on the ZeroMQ thread. Checks the handlers rather than trusting the request so requests from
+    // different threads can arrive in any order. ZeroMQ counts subscriptions so each is only made once.
+    private void updateSubscription(String topic) {
+        if(subscriber_ == null)
+            return;
+        boolean wanted;
+        synchronized (messageHandlers_) {
+            wanted = messageHandlers_.containsKey(topic);
+        }
+        if(wanted && subscriptions_.add(topic))
+            subscriber_.subscribe(MessageCodec.topicPrefix(topic));
+        else if(!wanted && subscriptions_.remove(topic))
+            subscriber_.unsubscribe(MessageCodec.topicPrefix(topic));
+    }
+
     private void sendAlive() {
         ZMsg msg = new ZMsg();
         msg.add(ALIVE);
         msg.add(me_);
+        msg.add(ByteBuffer.allocate(Integer.BYTES).putInt(nodes_.fingerprint()).array());
         msg.send(publish_);
     }
 
+    // Once any node is seen with a different node table, only hostnames are sent so every node can decode them.
+    private void checkNodeTable(int fingerprint) {
+        if(fingerprint == 0 || fingerprint == nodes_.fingerprint() || sendNodes_ != nodes_)
+            return;
+        sendNodes_ = nodes_.withoutIndexes();
+        log_.warn("A node in the cluster uses a different list of hostnames, sending hostnames instead of node " +
+                "indexes from now on. Configure the same list of hostnames on all nodes.");
+    }
+
     private void checkForMissingNodes() {
         long now = Instant.now().toEpochMilli();
         final List<String> missingList = new ArrayList<>();
@@ -332,10 +472,7 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
     }
 
     private ZMsg convertMessage(Message message) {
-        ZMsg msg = ZMsg.newStringMsg(message.getTopic(), message.getSender(), message.getTargetsAsString());
-        for(String part: message.getMessagePartsIterable())
-            msg.add(part);
-        return msg;
+        return MessageCodec.toZMsg(message, sendNodes_);
     }
 
     // Call MessageHandler on a separate thread to avoid blocking main loop.
@@ -346,7 +483,7 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
     }
 
     // Call NodeStateChangeHandler on a separate thread to avoid blocking main loop.
-    private void callNodeStateChangeHandlerOnThread(String node, RemoteNodeState state, long lastSeen) {
+    void callNodeStateChangeHandlerOnThread(String node, RemoteNodeState state, long lastSeen) {
         ZMsg msg = ZMsg.newStringMsg("NodeStateChangeHandler", node, state.toString(), Long.toString(lastSeen));
         msg.send(push_, false);
     }
@@ -368,11 +505,11 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
                             handler.nodeStateChanged(node, state, seen);
                     }
                 } else if(call.equals("MessageHandler")) {
-                    String topic = msg.removeFirst().getString(StandardCharsets.UTF_8);
+                    String topic = MessageCodec.topicOf(msg.removeFirst().getString(StandardCharsets.UTF_8));
                     MessageHandler handler = messageHandlers_.getOrDefault(topic, null);
-                    Message message = new Message(topic, msg.removeFirst().getString(StandardCharsets.UTF_8),
-                            msg.removeFirst().getString(StandardCharsets.UTF_8), parseFrames(msg));
-                    handler.handleMessage(message);
+                    Message message = MessageCodec.fromZMsg(topic, msg, nodes_);
+                    if(handler != null && message != null)
+                        handler.handleMessage(message);
                 } else
                     log_.warn("Unknown callback on thread: '" + call + "'!");
             }
@@ -383,24 +520,30 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
     // Constructor of instance set only
     private final Logger log_;
     private final String me_;
+    private final NodeTable nodes_;
+    private final int myIndex_;
     private final Map<String, Pair<Long,RemoteNodeState>> lastSeen_ = new HashMap<>();
     private final int port_;
     private final Set<NodeStateChangeHandler> nodeStateChangeHandler_ = new HashSet<>();
     private final Map<Long, ZMQ.Socket> nonZeroMQThreads_ = new HashMap<>();
     private final Map<String, MessageHandler> messageHandlers_ = new HashMap<>();
     private final List<Thread> threadPool_ = new ArrayList<>();
+    private final Set<String> subscriptions_ = new HashSet<>(); // Only used on the ZeroMQ thread.
     private       ZLoop loop_; // Not final for UT override.
     private       ZMsgReceiveMsg indirectCall_ = ZMsg::recvMsg; // For test overriding...
 
     // Variables
     private ZMQ.Socket publish_;
+    private ZMQ.Socket subscriber_ = null;
     private ZMQ.Socket push_;
+    private volatile NodeTable sendNodes_; // nodes_ until a node with a different table is seen.
     private long zeroMQThreadId_ = Long.MIN_VALUE;
     private Thread zeroMQThread_ = null;
     private long expireDeltaMilliseconds_ = 4_000L;
     private long checkPeriodMilliseconds_ = 1_900L;
     private int zeroMQThreadCount_ = 1;
     private int threadPoolCount_ = 3;
+    private int directTargetLimit_ = 8;
 
     // Static Variables
     private static ZMQ.Context CTX = null;
@@ -410,6 +553,7 @@ class NodeMonitoringZeroMQ implements NodeMonitoring {
     private static final String ALIVE = "ALIVE";
     private static final String RELAY = "RELAY";
     private static final String STOP = "STOP";
+    private static final String SUBSCRIPTION = "SUBSCRIPTION";
     private static final String INPROC_URL = "inproc://in_process";
 
     // Internal classes
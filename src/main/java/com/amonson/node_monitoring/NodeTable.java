@@ -0,0 +1,90 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.node_monitoring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The interned hostnames of a cluster. Each hostname is given the index of its position in the sorted list of all
+ * hostnames so every node built from the same hostnames uses the same indexes regardless of the order they were
+ * configured in. The fingerprint identifies the table so a receiver can detect a sender using a different table.
+ */
+final class NodeTable {
+    /**
+     * Create the table.
+     *
+     * @param hostnames The hostnames of the cluster, duplicates and nulls are ignored. May be null for an empty
+     *                  table.
+     */
+    NodeTable(Collection<String> hostnames) {
+        TreeSet<String> sorted = new TreeSet<>();
+        if(hostnames != null)
+            for(String hostname: hostnames)
+                if(hostname != null)
+                    sorted.add(hostname);
+        names_ = sorted.toArray(new String[0]);
+        CRC32 crc = new CRC32();
+        for(int i = 0; i < names_.length; i++) {
+            indexes_.put(names_[i], i);
+            crc.update(names_[i].getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        // 0 is reserved for the empty table, i.e. a sender that only sends hostnames by name.
+        fingerprint_ = (names_.length == 0) ? 0 : ((int)crc.getValue() | 1);
+    }
+
+    // A table without hostnames that keeps the fingerprint of another table, see withoutIndexes().
+    private NodeTable(int fingerprint) {
+        names_ = new String[0];
+        fingerprint_ = fingerprint;
+    }
+
+    /**
+     * Get a table with the same fingerprint but no hostnames. A sender using it sends every hostname by name, so
+     * a receiver with a different table can still decode its messages and learns that the tables differ.
+     *
+     * @return The table without hostnames.
+     */
+    NodeTable withoutIndexes() {
+        return new NodeTable(fingerprint_);
+    }
+
+    /**
+     * Get the index of a hostname.
+     *
+     * @param hostname The hostname.
+     * @return The index or -1 if the hostname is not in the table.
+     */
+    int indexOf(String hostname) {
+        Integer index = indexes_.get(hostname);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Get the hostname at an index.
+     *
+     * @param index The index from 0 to size() - 1.
+     * @return The interned hostname.
+     */
+    String nameOf(int index) {
+        return names_[index];
+    }
+
+    int size() {
+        return names_.length;
+    }
+
+    int fingerprint() {
+        return fingerprint_;
+    }
+
+    private final String[] names_;
+    private final Map<String,Integer> indexes_ = new HashMap<>();
+    private final int fingerprint_;
+
+    static final NodeTable EMPTY = new NodeTable(null);
+}
@@ -0,0 +1,402 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.prop_store;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * PropStore decorator that encrypts selected values or subtrees of a document individually using envelope
+ * encryption. Each selected value is serialized by the wrapped store, encrypted with AES-GCM using a new random data
+ * key and stored as a string "ENC1:&lt;Base64&gt;" that also holds the data key encrypted (wrapped) with the master
+ * key. The path of the value is authenticated so an encrypted value cannot be moved to another path.
+ *
+ * <p>Parsing does not decrypt anything, encrypted values stay as strings in the returned PropMap or PropList. Use
+ * {@link #get(Object, String)} to decrypt only the value needed or {@link #decryptAll(PropMap)} for the whole
+ * document. Only the master key wraps data keys so it can be rotated by re-wrapping without re-encrypting values.</p>
+ *
+ * <p>Paths are the map keys and list indexes separated by '.', i.e. "database.password" or "servers.0.secret".</p>
+ *
+ * <p>Configuration when created by {@link PropStoreFactory} with the name "encrypted":</p>
+ * <ul>
+ *     <li>com.amonson.prop_store.encrypted.key - Required, the Base64 AES master key (i.e.
+ *     com.amonson.crypto.KeyData#key()).</li>
+ *     <li>com.amonson.prop_store.encrypted.store - The wrapped store name, default "json". Cannot be another
+ *     encrypted store.</li>
+ *     <li>com.amonson.prop_store.encrypted.paths - Comma separated paths encrypted when writing.</li>
+ * </ul>
+ */
+public class EncryptedPropStore extends PropStore {
+    /**
+     * Constructor used by {@link PropStoreFactory}, the configuration is also passed to the wrapped store.
+     *
+     * @param config The Properties of configuration parameters, the master key is required.
+     * @throws IllegalArgumentException When the master key is missing or not valid, or the wrapped store is an
+     *                                  encrypted store or cannot be created.
+     */
+    public EncryptedPropStore(Properties config) {
+        this(createStore(config), masterKey(config), paths(config));
+    }
+
+    /**
+     * Construct a decorator around an existing store.
+     *
+     * @param store The store used for the document and for serializing encrypted values.
+     * @param masterKey The 16, 24 or 32 byte AES key used to wrap the data keys, i.e.
+     *                  com.amonson.crypto.KeyData#keyAsBytes().
+     * @param paths The paths encrypted by toString, may be empty.
+     * @throws IllegalArgumentException When any argument is null or the master key is not a valid AES key length.
+     */
+    public EncryptedPropStore(PropStore store, byte[] masterKey, Collection<String> paths) {
+        super(null);
+        if(store == null)
+            throw new IllegalArgumentException("parameter 'store' cannot be null!");
+        if(masterKey == null)
+            throw new IllegalArgumentException("parameter 'masterKey' cannot be null!");
+        if(paths == null)
+            throw new IllegalArgumentException("parameter 'paths' cannot be null!");
+        if(masterKey.length != 16 && masterKey.length != 24 && masterKey.length != 32)
+            throw new IllegalArgumentException("parameter 'masterKey' must be 16, 24 or 32 bytes!");
+        store_ = store;
+        masterKey_ = new SecretKeySpec(masterKey, "AES");
+        paths_ = new ArrayList<>(paths);
+    }
+
+    /**
+     * Convert the PropMap to the text Store format, values at the configured paths are encrypted. The map is not
+     * modified.
+     *
+     * @param map The map to Store.
+     * @return The String version of the PropMap.
+     * @throws IllegalStateException When encryption fails.
+     */
+    @Override
+    public String toString(PropMap map) {
+        return store_.toString((PropMap)encryptPaths(map));
+    }
+
+    /**
+     * Convert the PropList to the text Store format, values at the configured paths are encrypted. The list is not
+     * modified.
+     *
+     * @param list The list to Store.
+     * @return The String version of the PropList.
+     * @throws IllegalStateException When encryption fails.
+     */
+    @Override
+    public String toString(PropList list) {
+        return store_.toString((PropList)encryptPaths(list));
+    }
+
+    /**
+     * Convert a String representation of the properties to a PropMap, encrypted values are not decrypted.
+     *
+     * @param storeText The String representation of the properties.
+     * @return The parsed PropMap.
+     * @throws PropStoreException is thrown when the wrapped store cannot parse the text representation.
+     */
+    @Override
+    public PropMap fromStringToMap(String storeText) throws PropStoreException {
+        return store_.fromStringToMap(storeText);
+    }
+
+    /**
+     * Convert a String representation of the properties to a PropList, encrypted values are not decrypted.
+     *
+     * @param storeText The String representation of the properties.
+     * @return The parsed PropList.
+     * @throws PropStoreException is thrown when the wrapped store cannot parse the text representation.
+     */
+    @Override
+    public PropList fromStringToList(String storeText) throws PropStoreException {
+        return store_.fromStringToList(storeText);
+    }
+
+    /**
+     * Get the value at a path, decrypting only the encrypted value or subtree on the path.
+     *
+     * @param root The parsed PropMap or PropList.
+     * @param path The path of the value.
+     * @return The decrypted value or null if the path does not exist.
+     * @throws PropStoreException When an encrypted value fails authentication or cannot be parsed.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public Object get(Object root, String path) throws PropStoreException {
+        if(root == null)
+            throw new IllegalArgumentException("parameter 'root' cannot be null!");
+        if(path == null)
+            throw new IllegalArgumentException("parameter 'path' cannot be null!");
+        Object value = root;
+        StringBuilder current = new StringBuilder();
+        for(String part: split(path)) {
+            value = child(value, part);
+            if(current.length() > 0)
+                current.append('.');
+            current.append(part);
+            if(isEncrypted(value))
+                value = decrypt(current.toString(), (String)value);
+        }
+        return value;
+    }
+
+    /**
+     * Encrypt a value or subtree for a path.
+     *
+     * @param path The path the value will be stored at, it is authenticated with the value.
+     * @param value The value, a PropMap, PropList, String, number, Boolean or null.
+     * @return The encrypted value to store at the path.
+     * @throws IllegalArgumentException When the path is null.
+     * @throws IllegalStateException When encryption fails.
+     */
+    public String encrypt(String path, Object value) {
+        if(path == null)
+            throw new IllegalArgumentException("parameter 'path' cannot be null!");
+        PropMap holder = new PropMap();
+        holder.put(VALUE_KEY, value);
+        byte[] plain = store_.toString(holder).getBytes(StandardCharsets.UTF_8);
+        byte[] dataKey = new byte[DATA_KEY_SIZE];
+        randoms_.get().nextBytes(dataKey);
+        try {
+            ByteBuffer envelope = ByteBuffer.allocate(1 + 2 * NONCE_SIZE + DATA_KEY_SIZE + 2 * TAG_SIZE +
+                    plain.length);
+            envelope.put(VERSION);
+            seal(masterKey_, null, dataKey, envelope);
+            seal(new SecretKeySpec(dataKey, "AES"), path, plain, envelope);
+            return PREFIX + Base64.getEncoder().encodeToString(envelope.array());
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt the value at " + path, e);
+        } finally {
+            Arrays.fill(dataKey, (byte)0);
+        }
+    }
+
+    /**
+     * Decrypt a value or subtree encrypted for a path.
+     *
+     * @param path The path the value was encrypted for.
+     * @param encrypted The encrypted value.
+     * @return The decrypted value.
+     * @throws PropStoreException When the value is not encrypted, fails authentication or cannot be parsed.
+     * @throws IllegalArgumentException When any argument is null.
+     */
+    public Object decrypt(String path, String encrypted) throws PropStoreException {
+        if(path == null)
+            throw new IllegalArgumentException("parameter 'path' cannot be null!");
+        if(encrypted == null)
+            throw new IllegalArgumentException("parameter 'encrypted' cannot be null!");
+        if(!isEncrypted(encrypted))
+            throw new PropStoreException("The value at " + path + " is not encrypted");
+        byte[] dataKey = null;
+        try {
+            ByteBuffer envelope = ByteBuffer.wrap(Base64.getDecoder().decode(encrypted.substring(PREFIX.length())));
+            if(envelope.get() != VERSION)
+                throw new PropStoreException("The encrypted value at " + path + " has an unsupported version");
+            dataKey = open(masterKey_, null, envelope, DATA_KEY_SIZE + TAG_SIZE);
+            byte[] plain = open(new SecretKeySpec(dataKey, "AES"), path, envelope, envelope.remaining() - NONCE_SIZE);
+            return store_.fromStringToMap(new String(plain, StandardCharsets.UTF_8)).get(VALUE_KEY);
+        } catch(GeneralSecurityException | RuntimeException e) { // RuntimeException: bad Base64 or too short.
+            throw new PropStoreException("Failed to decrypt the value at " + path, e);
+        } finally {
+            if(dataKey != null)
+                Arrays.fill(dataKey, (byte)0);
+        }
+    }
+
+    /**
+     * Decrypt every encrypted value in a document.
+     *
+     * @param map The parsed PropMap, it is not modified.
+     * @return A copy of the document with all values decrypted.
+     * @throws PropStoreException When an encrypted value fails authentication or cannot be parsed.
+     */
+    public PropMap decryptAll(PropMap map) throws PropStoreException {
+        return (PropMap)decryptAll("", map);
+    }
+
+    /**
+     * Check if a parsed value is encrypted.
+     *
+     * @param value The value from a parsed document.
+     * @return true if the value is an encrypted value or subtree, false otherwise.
+     */
+    public static boolean isEncrypted(Object value) {
+        return value instanceof String && ((String)value).startsWith(PREFIX);
+    }
+
+    private Object decryptAll(String path, Object value) throws PropStoreException {
+        if(isEncrypted(value))
+            value = decrypt(path, (String)value);
+        String prefix = path.isEmpty() ? "" : path + ".";
+        if(value instanceof PropMap) {
+            PropMap result = new PropMap();
+            for(Map.Entry<String,Object> entry: ((PropMap)value).entrySet())
+                result.put(entry.getKey(), decryptAll(prefix + entry.getKey(), entry.getValue()));
+            return result;
+        }
+        if(value instanceof PropList) {
+            PropList list = (PropList)value;
+            PropList result = new PropList();
+            for(int i = 0; i < list.size(); i++)
+                result.add(decryptAll(prefix + i, list.get(i)));
+            return result;
+        }
+        return value;
+    }
+
+    // Copy the containers on each configured path and encrypt the value at its end. Deeper paths are done first so
+    // a value inside another encrypted subtree is still encrypted for its own path.
+    private Object encryptPaths(Object root) {
+        List<String> paths = new ArrayList<>(paths_);
+        paths.sort(Comparator.comparingInt((String p) -> split(p).size()).reversed());
+        Object result = root;
+        for(String path: paths)
+            result = encryptPath(result, split(path), 0, path);
+        return result;
+    }
+
+    private Object encryptPath(Object node, List<String> parts, int index, String path) {
+        if(index == parts.size())
+            return isEncrypted(node) ? node : encrypt(path, node);
+        String part = parts.get(index);
+        if(node instanceof PropMap) {
+            PropMap map = (PropMap)node;
+            if(!map.containsKey(part))
+                return node;
+            PropMap copy = new PropMap(map);
+            copy.put(part, encryptPath(map.get(part), parts, index + 1, path));
+            return copy;
+        }
+        if(node instanceof PropList) {
+            PropList list = (PropList)node;
+            int position = listIndex(part);
+            if(position < 0 || position >= list.size())
+                return node;
+            PropList copy = new PropList(list);
+            copy.set(position, encryptPath(list.get(position), parts, index + 1, path));
+            return copy;
+        }
+        return node;
+    }
+
+    private static Object child(Object node, String part) {
+        if(node instanceof PropMap)
+            return ((PropMap)node).get(part);
+        if(node instanceof PropList) {
+            PropList list = (PropList)node;
+            int position = listIndex(part);
+            return (position < 0 || position >= list.size()) ? null : list.get(position);
+        }
+        return null;
+    }
+
+    private static int listIndex(String part) {
+        try {
+            return Integer.parseInt(part);
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> split(String path) {
+        return Arrays.asList(path.split("\\."));
+    }
+
+    private static void seal(SecretKeySpec key, String path, byte[] plain, ByteBuffer out)
+            throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        randoms_.get().nextBytes(nonce);
+        Cipher cipher = ciphers_.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        if(path != null)
+            cipher.updateAAD(path.getBytes(StandardCharsets.UTF_8));
+        out.put(nonce);
+        out.put(cipher.doFinal(plain));
+    }
+
+    private static byte[] open(SecretKeySpec key, String path, ByteBuffer in, int length)
+            throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        in.get(nonce);
+        byte[] sealed = new byte[length];
+        in.get(sealed);
+        Cipher cipher = ciphers_.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        if(path != null)
+            cipher.updateAAD(path.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(sealed);
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException(e); // Cannot happen, AES/GCM is required on all Java platforms.
+        }
+    }
+
+    private static PropStore createStore(Properties config) {
+        String name = (config == null) ? "json" : config.getProperty(STORE_PROPERTY, "json");
+        Class<? extends PropStore> implementation =
+                PropStoreFactory.supportedImplementations_.get(name.toLowerCase().trim());
+        if(implementation != null && EncryptedPropStore.class.isAssignableFrom(implementation))
+            throw new IllegalArgumentException("The wrapped PropStore '" + name + "' cannot be an encrypted store!");
+        try {
+            return PropStoreFactory.getStore(name, config);
+        } catch(PropStoreFactoryException e) {
+            throw new IllegalArgumentException("The wrapped PropStore '" + name + "' cannot be created!", e);
+        }
+    }
+
+    private static byte[] masterKey(Properties config) {
+        String key = (config == null) ? null : config.getProperty(KEY_PROPERTY);
+        if(key == null)
+            throw new IllegalArgumentException("The '" + KEY_PROPERTY + "' configuration is required!");
+        return Base64.getDecoder().decode(key); // Throws IllegalArgumentException when not Base64.
+    }
+
+    private static List<String> paths(Properties config) {
+        List<String> paths = new ArrayList<>();
+        String value = (config == null) ? null : config.getProperty(PATHS_PROPERTY);
+        if(value != null)
+            for(String path: value.split(","))
+                if(!path.trim().isEmpty())
+                    paths.add(path.trim());
+        return paths;
+    }
+
+    private final PropStore store_;
+    private final SecretKeySpec masterKey_;
+    private final List<String> paths_;
+
+    /**
+     * The configuration name of the Base64 master key.
+     */
+    public static final String KEY_PROPERTY = "com.amonson.prop_store.encrypted.key";
+    /**
+     * The configuration name of the wrapped store.
+     */
+    public static final String STORE_PROPERTY = "com.amonson.prop_store.encrypted.store";
+    /**
+     * The configuration name of the comma separated paths encrypted when writing.
+     */
+    public static final String PATHS_PROPERTY = "com.amonson.prop_store.encrypted.paths";
+
+    private static final String PREFIX = "ENC1:";
+    private static final String VALUE_KEY = "v";
+    private static final byte VERSION = 1;
+    private static final int DATA_KEY_SIZE = 32;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final ThreadLocal<Cipher> ciphers_ = ThreadLocal.withInitial(EncryptedPropStore::newCipher);
+    private static final ThreadLocal<SecureRandom> randoms_ = ThreadLocal.withInitial(SecureRandom::new);
+}
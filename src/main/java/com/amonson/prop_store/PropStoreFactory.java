@@ -89,5 +89,6 @@ public final class PropStoreFactory {
             new HashMap<>() {{
         put("json", JsonStore.class);
         put("yaml", YamlStore.class);
+        put("encrypted", EncryptedPropStore.class);
     }};
 }
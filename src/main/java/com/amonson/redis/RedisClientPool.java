@@ -0,0 +1,283 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.redis;
+
+import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Thread safe access to a Redis server through pools of Jedis connections. Every call names the Redis DB it uses
+ * and connections are pooled per DB so each connection has its DB selected once when it is opened, no
+ * MULTI/SELECT/EXEC round trips are required. Commands passed to {@link #submit(int, Function)} are independent
+ * and are sent by a background thread in pipelined batches; all commands queued while the previous batch was in
+ * flight go out in the next batch.
+ * {@link #pipelined(int, Consumer)}, {@link #getAll(int, Collection)} and {@link #setAll(int, Map, SetParams)} send
+ * many commands in one round trip from the calling thread.
+ */
+public class RedisClientPool implements AutoCloseable {
+    /**
+     * Create a pool of connections to a Redis server with the default maximum number of connections.
+     *
+     * @param host The Redis server hostname.
+     * @param port The Redis server port.
+     * @param password The Redis server password or null if no authentication is used.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisClientPool(String host, int port, String password) {
+        this(host, port, password, DEFAULT_MAXIMUM_CONNECTIONS);
+    }
+
+    /**
+     * Create a pool of connections to a Redis server.
+     *
+     * @param host The Redis server hostname.
+     * @param port The Redis server port.
+     * @param password The Redis server password or null if no authentication is used.
+     * @param maximumConnections The maximum number of connections open at once for each DB used, must be at
+     *                           least 2 as the pipelining thread may hold one.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisClientPool(String host, int port, String password, int maximumConnections) {
+        if(host == null || host.isBlank())
+            throw new IllegalArgumentException("parameter 'host' cannot be null or blank!");
+        if(port < 1 || port > 65535)
+            throw new IllegalArgumentException("parameter 'port' must be a valid port number!");
+        if(maximumConnections < 2)
+            throw new IllegalArgumentException("parameter 'maximumConnections' must be greater than 1!");
+        host_ = host;
+        port_ = port;
+        password_ = password;
+        maximumConnections_ = maximumConnections;
+    }
+
+    /**
+     * Run a function with a pooled connection that has the requested DB selected. The connection must not be
+     * kept or used outside the function.
+     *
+     * @param db The Redis DB index to select.
+     * @param function The function using the connection.
+     * @param <T> The result type of the function.
+     * @return The result of the function.
+     * @throws JedisException When the Redis server cannot be reached or returns an error.
+     */
+    public <T> T execute(int db, Function<Jedis,T> function) {
+        try (Jedis jedis = getPool(db).getResource()) {
+            return function.apply(jedis);
+        }
+    }
+
+    /**
+     * Queue an independent command to be sent in the next pipelined batch by the background thread.
+     *
+     * @param db The Redis DB index the command runs in.
+     * @param command The command to add to the pipeline, for example <code>(p) -&gt; p.get(key)</code>.
+     * @param <T> The result type of the command.
+     * @return The future completed with the result or exceptionally with the Redis error.
+     */
+    public <T> CompletableFuture<T> submit(int db, Function<Pipeline,Response<T>> command) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (this) {
+            if(closed_) {
+                future.completeExceptionally(new JedisException("The RedisClientPool is closed!"));
+                return future;
+            }
+            if(pipelineThread_ == null) {
+                pipelineThread_ = new Thread(this::pipelineLoop, "RedisClientPool-pipeline");
+                pipelineThread_.setDaemon(true);
+                pipelineThread_.start();
+            }
+            queue_.add(new QueuedCommand<>(db, command, future));
+        }
+        return future;
+    }
+
+    /**
+     * Send all commands added by the consumer in a single pipeline on the calling thread.
+     *
+     * @param db The Redis DB index the commands run in.
+     * @param commands Adds commands to the pipeline, the pipeline must not be synced by the consumer.
+     * @return The results of the commands in the order they were added.
+     * @throws JedisException When the Redis server cannot be reached.
+     */
+    public List<Object> pipelined(int db, Consumer<Pipeline> commands) {
+        return execute(db, (jedis) -> {
+            Pipeline pipeline = jedis.pipelined();
+            commands.accept(pipeline);
+            return pipeline.syncAndReturnAll();
+        });
+    }
+
+    /**
+     * Get many string values in one round trip.
+     *
+     * @param db The Redis DB index of the keys.
+     * @param keys The keys to get.
+     * @return The map of key to value, keys that do not exist are absent.
+     * @throws JedisException When the Redis server cannot be reached or returns an error.
+     */
+    public Map<String,String> getAll(int db, Collection<String> keys) {
+        Map<String,String> results = new HashMap<>();
+        if(keys.isEmpty())
+            return results;
+        String[] names = keys.toArray(new String[0]);
+        List<String> values = execute(db, (jedis) -> jedis.mget(names));
+        for(int i = 0; i < names.length; i++)
+            if(values.get(i) != null)
+                results.put(names[i], values.get(i));
+        return results;
+    }
+
+    /**
+     * Set many string values in one round trip.
+     *
+     * @param db The Redis DB index of the keys.
+     * @param values The map of key to value to set.
+     * @param params The parameters (expiration, etc...) applied to every key or null for none.
+     * @throws JedisException When the Redis server cannot be reached.
+     */
+    public void setAll(int db, Map<String,String> values, SetParams params) {
+        if(values.isEmpty())
+            return;
+        pipelined(db, (pipeline) -> {
+            for(Map.Entry<String,String> entry: values.entrySet())
+                if(params == null)
+                    pipeline.set(entry.getKey(), entry.getValue());
+                else
+                    pipeline.set(entry.getKey(), entry.getValue(), params);
+        });
+    }
+
+    /**
+     * Stop the pipelining thread, fail any queued commands and close all pooled connections.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed_ = true;
+            thread = pipelineThread_;
+            pipelineThread_ = null;
+        }
+        if(thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch(InterruptedException e) { /* Ignore */ }
+        }
+        List<QueuedCommand<?>> remaining = new ArrayList<>();
+        queue_.drainTo(remaining);
+        for(QueuedCommand<?> command: remaining)
+            command.future.completeExceptionally(new JedisException("The RedisClientPool is closed!"));
+        synchronized (pools_) {
+            for(JedisPool pool: pools_.values())
+                pool.close();
+            pools_.clear();
+        }
+    }
+
+    private JedisPool getPool(int db) {
+        if(db < 0)
+            throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
+        synchronized (pools_) {
+            if(closed_)
+                throw new JedisException("The RedisClientPool is closed!");
+            return pools_.computeIfAbsent(db, (index) -> poolFactory_.create(index));
+        }
+    }
+
+    private JedisPool createPool(int db) {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(maximumConnections_);
+        config.setMaxIdle(maximumConnections_);
+        config.setJmxEnabled(false);
+        return new JedisPool(config, host_, port_, TIMEOUT_MILLISECONDS, password_, db);
+    }
+
+    private void pipelineLoop() {
+        List<QueuedCommand<?>> batch = new ArrayList<>();
+        while(!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue_.take());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            queue_.drainTo(batch, MAXIMUM_BATCH_SIZE - 1);
+            Map<Integer,List<QueuedCommand<?>>> byDb = new LinkedHashMap<>();
+            for(QueuedCommand<?> command: batch)
+                byDb.computeIfAbsent(command.db, (db) -> new ArrayList<>()).add(command);
+            for(Map.Entry<Integer,List<QueuedCommand<?>>> entry: byDb.entrySet())
+                sendBatch(entry.getKey(), entry.getValue());
+            batch.clear();
+        }
+    }
+
+    // Send the commands for one DB in a single pipeline.
+    private void sendBatch(int db, List<QueuedCommand<?>> batch) {
+        try (Jedis jedis = getPool(db).getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for(QueuedCommand<?> command: batch)
+                command.addTo(pipeline);
+            pipeline.sync();
+        } catch(RuntimeException e) {
+            for(QueuedCommand<?> command: batch)
+                command.future.completeExceptionally(e);
+            return;
+        }
+        for(QueuedCommand<?> command: batch)
+            command.complete();
+    }
+
+    private final String host_;
+    private final int port_;
+    private final String password_;
+    private final int maximumConnections_;
+    private final Map<Integer,JedisPool> pools_ = new HashMap<>();
+    private final LinkedBlockingQueue<QueuedCommand<?>> queue_ = new LinkedBlockingQueue<>();
+    private volatile boolean closed_ = false;
+    private       Thread pipelineThread_ = null;
+    private       PoolFactory poolFactory_ = this::createPool; // not marked final for UT.
+
+    private static final int DEFAULT_MAXIMUM_CONNECTIONS = 8;
+    private static final int MAXIMUM_BATCH_SIZE = 1_024;
+    private static final int TIMEOUT_MILLISECONDS = 2_000;
+
+    private static final class QueuedCommand<T> {
+        QueuedCommand(int db, Function<Pipeline,Response<T>> command, CompletableFuture<T> future) {
+            this.db = db;
+            this.command = command;
+            this.future = future;
+        }
+
+        void addTo(Pipeline pipeline) {
+            response = command.apply(pipeline);
+        }
+
+        void complete() {
+            try {
+                future.complete(response.get());
+            } catch(JedisException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        final int db;
+        final Function<Pipeline,Response<T>> command;
+        final CompletableFuture<T> future;
+        Response<T> response = null;
+    }
+
+    @FunctionalInterface // Allows mocking of the JedisPool creation.
+    interface PoolFactory {
+        JedisPool create(int db);
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.redis;
+
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Updates many proof of life variables on a Redis server from one scheduled thread. This is an alternative to a
+ * {@link RedisProofOfLifeVariable} per component, which uses one thread and one round trip per variable each
+ * period. Every tick all registered variables that are due are written in a single pipelined batch, so the thread
+ * count and round trips stay constant as the number of registered names grows. Each variable uses the same key,
+ * value and expiration (twice the period) as {@link RedisProofOfLifeVariable}. Variables that fail to be written
+ * are retried on the next tick.
+ */
+public class RedisHeartbeatCoordinator implements AutoCloseable {
+    /**
+     * Construct a coordinator with the default tick of 250 ms.
+     *
+     * @param pool The pool of Redis connections shared with other objects.
+     * @param db The Redis DB index for all the proof of life variables.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisHeartbeatCoordinator(RedisClientPool pool, int db) {
+        this(pool, db, DEFAULT_TICK);
+    }
+
+    /**
+     * Construct a coordinator with the specified tick.
+     *
+     * @param pool The pool of Redis connections shared with other objects.
+     * @param db The Redis DB index for all the proof of life variables.
+     * @param tick The time in milliseconds between checks for due variables, this is the most an update can be
+     *             late. Cannot be less than 10 ms or more than 500 ms.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisHeartbeatCoordinator(RedisClientPool pool, int db, int tick) {
+        if(pool == null)
+            throw new IllegalArgumentException("parameter 'pool' cannot be null!");
+        if(db < 0)
+            throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
+        if(tick < MINIMUM_TICK || tick > MINIMUM_PERIOD)
+            throw new IllegalArgumentException("parameter 'tick' must be from 10 to 500!");
+        pool_ = pool;
+        db_ = db;
+        executor_ = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "RedisHeartbeatCoordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor_.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Register a proof of life variable with the default period of 5000 ms. The variable is written on the next
+     * tick. Registering an existing name replaces its period.
+     *
+     * @param name The name of the variable on the redis server.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public void register(String name) {
+        register(name, DEFAULT_PERIOD);
+    }
+
+    /**
+     * Register a proof of life variable with the specified period. The variable is written on the next tick.
+     * Registering an existing name replaces its period.
+     *
+     * @param name The name of the variable on the redis server.
+     * @param period The period in milliseconds of the redis server variable update, the redis variable expires
+     *              in twice this value. Cannot be less than 500 ms.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public void register(String name, int period) {
+        if(name == null || name.isBlank())
+            throw new IllegalArgumentException("parameter 'name' cannot be null or blank!");
+        if(period < MINIMUM_PERIOD)
+            throw new IllegalArgumentException("cannot set period to less than 500!");
+        variables_.put(name, new Variable("proofOfLife." + name, period, System.nanoTime()));
+    }
+
+    /**
+     * Stop updating a proof of life variable. The variable expires on the redis server after at most twice its
+     * period. Will fail silently if the name is not registered.
+     *
+     * @param name The name of the variable on the redis server.
+     */
+    public void unregister(String name) {
+        if(name != null)
+            variables_.remove(name);
+    }
+
+    /**
+     * Check if a name is registered.
+     *
+     * @param name The name of the variable on the redis server.
+     * @return true if the name is registered, false otherwise.
+     */
+    public boolean isRegistered(String name) {
+        return name != null && variables_.containsKey(name);
+    }
+
+    /**
+     * Get the number of batches that failed to be written to the redis server.
+     *
+     * @return The count of failed batches.
+     */
+    public long getErrorCount() {
+        return errorCount_.get();
+    }
+
+    /**
+     * Stop updating all proof of life variables and stop the scheduled thread.
+     */
+    @Override
+    public void close() {
+        executor_.shutdownNow();
+        try {
+            executor_.awaitTermination(1, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Write all due variables in one pipeline, they are rescheduled only after a successful write.
+    private void tick() {
+        long now = System.nanoTime();
+        List<Variable> due = new ArrayList<>();
+        for(Map.Entry<String,Variable> entry: variables_.entrySet())
+            if(now - entry.getValue().nextDue >= 0L)
+                due.add(entry.getValue());
+        if(due.isEmpty())
+            return;
+        String value = Date.from(Instant.now()).toString();
+        try {
+            pool_.pipelined(db_, (pipeline) -> {
+                for(Variable variable: due)
+                    pipeline.set(variable.key, value, variable.params);
+            });
+        } catch(JedisException e) {
+            errorCount_.incrementAndGet();
+            return;
+        }
+        for(Variable variable: due)
+            variable.nextDue = now + variable.period;
+    }
+
+    private final RedisClientPool pool_;
+    private final int db_;
+    private final ScheduledExecutorService executor_;
+    private final Map<String,Variable> variables_ = new ConcurrentHashMap<>();
+    private final AtomicLong errorCount_ = new AtomicLong(0L);
+
+    private static final int DEFAULT_TICK = 250;
+    private static final int DEFAULT_PERIOD = 5000;
+    private static final int MINIMUM_TICK = 10;
+    private static final int MINIMUM_PERIOD = 500;
+    private static final int HALF_A_SECOND = 500;
+
+    private static final class Variable {
+        Variable(String key, int period, long nextDue) {
+            this.key = key;
+            this.period = TimeUnit.MILLISECONDS.toNanos(period);
+            this.nextDue = nextDue;
+            params.ex(period / HALF_A_SECOND);
+        }
+
+        final String key;
+        final long period;
+        final SetParams params = new SetParams();
+        volatile long nextDue;
+    }
+}
@@ -0,0 +1,334 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread safe allocator of unique IDs by name from a Redis server. Threads claim IDs from a locally reserved block
+ * with a single atomic increment. A configurable number of further blocks are kept reserved ahead of use and are
+ * refilled on a background thread, so callers only wait on the Redis server when every reserved block is used up.
+ * If the Redis server is slow or unavailable the refill is retried with a growing delay while callers continue to
+ * use the reserved blocks. The size of reserved blocks adapts to the rate IDs are consumed, aiming for one block
+ * per second between the minimum and maximum block sizes. The time callers spend waiting for a block is available
+ * from {@link #getBlockedNanoseconds()}.
+ *
+ * The same Redis key as {@link RedisUniqueId} is used so both may allocate IDs for the same name. A Jedis client
+ * is only used from the background thread and must not be shared with other threads, a {@link RedisClientPool}
+ * may be shared.
+ */
+public class RedisIdAllocator implements AutoCloseable {
+    /**
+     * Construct an allocator for the unique ID name with the default block sizes and reserved block count.
+     *
+     * @param client The Jedis client object used only by this object for communications.
+     * @param db The Redis Server DB number (0-max of server).
+     * @param name The name of the unique ID to access on the redis server.
+     * @throws IllegalArgumentException When the input arguments are incorrect.
+     */
+    public RedisIdAllocator(Jedis client, int db, String name) {
+        this(client, db, name, DEFAULT_MINIMUM_BLOCK_SIZE, DEFAULT_MAXIMUM_BLOCK_SIZE, DEFAULT_RESERVED_BLOCKS);
+    }
+
+    /**
+     * Construct an allocator for the unique ID name with specified block sizes and the default reserved block count.
+     *
+     * @param client The Jedis client object used only by this object for communications.
+     * @param db The Redis Server DB number (0-max of server).
+     * @param name The name of the unique ID to access on the redis server.
+     * @param minimumBlockSize The smallest block of IDs reserved at a time, must be at least 2.
+     * @param maximumBlockSize The largest block of IDs reserved at a time, must be at least minimumBlockSize.
+     * @throws IllegalArgumentException When the input arguments are incorrect.
+     */
+    public RedisIdAllocator(Jedis client, int db, String name, int minimumBlockSize, int maximumBlockSize) {
+        this(client, db, name, minimumBlockSize, maximumBlockSize, DEFAULT_RESERVED_BLOCKS);
+    }
+
+    /**
+     * Construct an allocator for the unique ID name with specified block sizes and reserved block count.
+     *
+     * @param client The Jedis client object used only by this object for communications.
+     * @param db The Redis Server DB number (0-max of server).
+     * @param name The name of the unique ID to access on the redis server.
+     * @param minimumBlockSize The smallest block of IDs reserved at a time, must be at least 2.
+     * @param maximumBlockSize The largest block of IDs reserved at a time, must be at least minimumBlockSize.
+     * @param reservedBlocks The number of blocks kept reserved ahead of the block in use, must be at least 1.
+     * @throws IllegalArgumentException When the input arguments are incorrect.
+     */
+    public RedisIdAllocator(Jedis client, int db, String name, int minimumBlockSize, int maximumBlockSize,
+                            int reservedBlocks) {
+        this(client, null, db, name, minimumBlockSize, maximumBlockSize, reservedBlocks);
+    }
+
+    /**
+     * Construct an allocator for the unique ID name using pooled connections with the default block sizes and
+     * reserved block count.
+     *
+     * @param pool The pool of Redis connections shared with other objects.
+     * @param db The Redis Server DB number (0-max of server).
+     * @param name The name of the unique ID to access on the redis server.
+     * @throws IllegalArgumentException When the input arguments are incorrect.
+     */
+    public RedisIdAllocator(RedisClientPool pool, int db, String name) {
+        this(pool, db, name, DEFAULT_MINIMUM_BLOCK_SIZE, DEFAULT_MAXIMUM_BLOCK_SIZE, DEFAULT_RESERVED_BLOCKS);
+    }
+
+    /**
+     * Construct an allocator for the unique ID name using pooled connections with specified block sizes and
+     * reserved block count.
+     *
+     * @param pool The pool of Redis connections shared with other objects.
+     * @param db The Redis Server DB number (0-max of server).
+     * @param name The name of the unique ID to access on the redis server.
+     * @param minimumBlockSize The smallest block of IDs reserved at a time, must be at least 2.
+     * @param maximumBlockSize The largest block of IDs reserved at a time, must be at least minimumBlockSize.
+     * @param reservedBlocks The number of blocks kept reserved ahead of the block in use, must be at least 1.
+     * @throws IllegalArgumentException When the input arguments are incorrect.
+     */
+    public RedisIdAllocator(RedisClientPool pool, int db, String name, int minimumBlockSize, int maximumBlockSize,
+                            int reservedBlocks) {
+        this(null, pool, db, name, minimumBlockSize, maximumBlockSize, reservedBlocks);
+    }
+
+    private RedisIdAllocator(Jedis client, RedisClientPool pool, int db, String name, int minimumBlockSize,
+                             int maximumBlockSize, int reservedBlocks) {
+        if(client == null && pool == null)
+            throw new IllegalArgumentException("parameter 'client' or 'pool' cannot be null!");
+        if(name == null || name.isBlank())
+            throw new IllegalArgumentException("parameter 'name' cannot be null or blank!");
+        if(db < 0)
+            throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
+        if(minimumBlockSize < 2)
+            throw new IllegalArgumentException("parameter 'minimumBlockSize' must be greater than 1!");
+        if(maximumBlockSize < minimumBlockSize)
+            throw new IllegalArgumentException("parameter 'maximumBlockSize' cannot be less than 'minimumBlockSize'!");
+        if(reservedBlocks < 1)
+            throw new IllegalArgumentException("parameter 'reservedBlocks' must be greater than 0!");
+        client_ = client;
+        pool_ = pool;
+        db_ = db;
+        name_ = "uniqueId." + name;
+        minimumBlockSize_ = minimumBlockSize;
+        maximumBlockSize_ = maximumBlockSize;
+        reservedBlocks_ = reservedBlocks;
+        blockSize_ = minimumBlockSize;
+        executor_ = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "RedisIdAllocator-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the next unique ID. Safe to call from any number of threads. The first call waits for the first
+     * blocks to be reserved.
+     *
+     * @return The next ID from the locally reserved block.
+     * @throws RedisException When no block could be reserved from the Redis server in time.
+     */
+    public long getNext() throws RedisException {
+        while(true) {
+            Block block = current_.get();
+            long id = block.next.getAndIncrement();
+            if(id < block.end)
+                return id;
+            advance(block);
+        }
+    }
+
+    /**
+     * Get the size of blocks currently being reserved.
+     *
+     * @return The number of IDs in each newly reserved block.
+     */
+    public int getBlockSize() {
+        return blockSize_;
+    }
+
+    /**
+     * Get the total time callers of {@link #getNext()} spent waiting for a block to be reserved.
+     *
+     * @return The total blocked time in nanoseconds.
+     */
+    public long getBlockedNanoseconds() {
+        return blockedNanoseconds_.get();
+    }
+
+    /**
+     * Get the number of times a caller of {@link #getNext()} had to wait for a block to be reserved.
+     *
+     * @return The count of blocking waits.
+     */
+    public long getBlockedCount() {
+        return blockedCount_.get();
+    }
+
+    /**
+     * Get the number of failed attempts to reserve a block from the Redis server.
+     *
+     * @return The count of failed reservations.
+     */
+    public long getReservationFailures() {
+        return reservationFailures_.get();
+    }
+
+    /**
+     * Stop the background thread. IDs left in the current and reserved blocks may still be claimed but no more
+     * blocks will be reserved.
+     */
+    @Override
+    public void close() {
+        executor_.shutdownNow();
+    }
+
+    // Replace an exhausted block with a reserved block, waiting only if none are reserved.
+    private void advance(Block block) throws RedisException {
+        Block successor = reserved_.pollFirst();
+        if(successor == null)
+            successor = waitForBlock();
+        if(current_.compareAndSet(block, successor)) {
+            adaptBlockSize(block);
+            successor.started = System.nanoTime();
+        } else
+            reserved_.offerFirst(successor); // Another thread advanced first, keep the block for later.
+        refill();
+    }
+
+    private Block waitForBlock() throws RedisException {
+        refill();
+        if(executor_.isShutdown() && reserved_.isEmpty())
+            throw new RedisException("The allocator is closed and has no reserved blocks left!");
+        long start = System.nanoTime();
+        try {
+            Block block = reserved_.pollFirst(maximumWaitMilliseconds_, TimeUnit.MILLISECONDS);
+            if(block == null)
+                throw new RedisException("Timed out waiting for a block of IDs from the Redis server!",
+                        lastFailure_);
+            return block;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisException("Interrupted while waiting for a block of IDs!", e);
+        } finally {
+            blockedNanoseconds_.addAndGet(System.nanoTime() - start);
+            blockedCount_.incrementAndGet();
+        }
+    }
+
+    // Start the background refill if it is not already running.
+    private void refill() {
+        if(reserved_.size() >= reservedBlocks_ || !refilling_.compareAndSet(false, true))
+            return;
+        try {
+            executor_.execute(this::refillReservedBlocks);
+        } catch(RejectedExecutionException e) {
+            refilling_.set(false);
+        }
+    }
+
+    // Runs only on the background thread.
+    private void refillReservedBlocks() {
+        try {
+            while(reserved_.size() < reservedBlocks_) {
+                int size = blockSize_;
+                long end = reserver_.reserve(size);
+                reserved_.offerLast(new Block(end - size, size));
+                consecutiveFailures_ = 0;
+            }
+        } catch(JedisException e) {
+            lastFailure_ = e;
+            reservationFailures_.incrementAndGet();
+            long delay = Math.min(MAXIMUM_RETRY_DELAY_MILLISECONDS,
+                    MINIMUM_RETRY_DELAY_MILLISECONDS << Math.min(consecutiveFailures_++, 10));
+            try {
+                executor_.schedule(this::refillReservedBlocks, delay, TimeUnit.MILLISECONDS);
+                return;
+            } catch(RejectedExecutionException e2) { /* Closed so stop refilling. */ }
+        } catch(RuntimeException e) {
+            refilling_.set(false);
+            throw e;
+        }
+        refilling_.set(false);
+        refill(); // A consumer may have taken a block after the loop ended.
+    }
+
+    // Double or halve the block size so a block is consumed in about TARGET_BLOCK_NANOS.
+    private void adaptBlockSize(Block finished) {
+        if(finished.size == 0)
+            return;
+        long elapsed = System.nanoTime() - finished.started;
+        long size = finished.size;
+        if(elapsed < TARGET_BLOCK_NANOS / 2L)
+            size *= 2L;
+        else if(elapsed > TARGET_BLOCK_NANOS * 2L)
+            size /= 2L;
+        blockSize_ = (int)Math.max(minimumBlockSize_, Math.min(maximumBlockSize_, size));
+    }
+
+    private long reserveFromRedis(int size) {
+        if(pool_ != null)
+            return pool_.execute(db_, (jedis) -> jedis.incrBy(name_, size));
+        Response<Long> response;
+        try (Transaction trans = client_.multi()) {
+            trans.select(db_);
+            response = trans.incrBy(name_, size);
+            trans.exec();
+        }
+        return response.get();
+    }
+
+    private final Jedis client_;
+    private final RedisClientPool pool_;
+    private final String name_;
+    private final int db_;
+    private final int minimumBlockSize_;
+    private final int maximumBlockSize_;
+    private final int reservedBlocks_;
+    private final ScheduledExecutorService executor_;
+    private final AtomicReference<Block> current_ = new AtomicReference<>(new Block(0L, 0));
+    private final LinkedBlockingDeque<Block> reserved_ = new LinkedBlockingDeque<>();
+    private final AtomicBoolean refilling_ = new AtomicBoolean(false);
+    private final AtomicLong blockedNanoseconds_ = new AtomicLong(0L);
+    private final AtomicLong blockedCount_ = new AtomicLong(0L);
+    private final AtomicLong reservationFailures_ = new AtomicLong(0L);
+    private volatile int blockSize_;
+    private volatile JedisException lastFailure_ = null;
+    private       int consecutiveFailures_ = 0; // Background thread only.
+    private       long maximumWaitMilliseconds_ = 10_000L; // not marked final for UT.
+    private       BlockReserver reserver_ = this::reserveFromRedis; // not marked final for UT.
+
+    private static final int  DEFAULT_MINIMUM_BLOCK_SIZE = 1_024;
+    private static final int  DEFAULT_MAXIMUM_BLOCK_SIZE = 1_048_576;
+    private static final int  DEFAULT_RESERVED_BLOCKS = 2;
+    private static final long TARGET_BLOCK_NANOS = 1_000_000_000L;
+    private static final long MINIMUM_RETRY_DELAY_MILLISECONDS = 50L;
+    private static final long MAXIMUM_RETRY_DELAY_MILLISECONDS = 5_000L;
+
+    // A reserved range of IDs [start, end) with a claim counter.
+    private static final class Block {
+        Block(long start, int size) {
+            this.end = start + size;
+            this.size = size;
+            this.next = new AtomicLong(start);
+        }
+
+        final long end;
+        final int size;
+        final AtomicLong next;
+        volatile long started = System.nanoTime();
+    }
+
+    @FunctionalInterface // Allows mocking of the Redis reservation.
+    interface BlockReserver {
+        long reserve(int size);
+    }
+}
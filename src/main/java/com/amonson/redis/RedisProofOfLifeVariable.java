@@ -52,6 +52,48 @@ public class RedisProofOfLifeVariable implements Runnable {
         if(period < MINIMUM_PERIOD)
             throw new IllegalArgumentException("cannot set period to less than 500!");
         client_ = client;
+        pool_ = null;
+        db_ = db;
+        name_ = "proofOfLife." + name;
+        period_ = period;
+        params_.ex(period_ / HALF_A_SECOND);
+    }
+
+    /**
+     * Construct an object with a pool of Redis connections and specified name with the default period of 5000ms.
+     *
+     * @param pool The pool of Redis connections shared with other objects. Updates are pipelined with other
+     *             commands submitted to the pool.
+     * @param db The Redis DB index to use for the specified name.
+     * @param name The name of the variable on the redis server.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisProofOfLifeVariable(RedisClientPool pool, int db, String name) {
+        this(pool, db, name, 5000);
+    }
+
+    /**
+     * Construct an object with a pool of Redis connections and specified name and period.
+     *
+     * @param pool The pool of Redis connections shared with other objects. Updates are pipelined with other
+     *             commands submitted to the pool.
+     * @param db The Redis DB index to select.
+     * @param name The name of the variable on the redis server.
+     * @param period The period in milliseconds of the redis server variable update, the redis variable expires
+     *              in twice this value. Cannot be less than 500 ms.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisProofOfLifeVariable(RedisClientPool pool, int db, String name, int period) {
+        if(pool == null)
+            throw new IllegalArgumentException("parameter 'pool' cannot be null!");
+        if(db < 0)
+            throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
+        if(name == null || name.isBlank())
+            throw new IllegalArgumentException("parameter 'name' cannot be null or blank!");
+        if(period < MINIMUM_PERIOD)
+            throw new IllegalArgumentException("cannot set period to less than 500!");
+        client_ = null;
+        pool_ = pool;
         db_ = db;
         name_ = "proofOfLife." + name;
         period_ = period;
@@ -67,13 +109,21 @@ public class RedisProofOfLifeVariable implements Runnable {
         if(thread_ == null) {
             thread_ = new Thread(() -> {
                 while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                        Transaction trans = client_.multi();
-                        trans.select(db_);
-                        trans.set(name_, Date.from(Instant.now()).toString(), params_);
-                        trans.exec();
-                    } catch(JedisConnectionException | JedisDataException e) {
-                        errorCount_.incrementAndGet();
+                    if(pool_ != null)
+                        pool_.submit(db_, (pipeline) -> pipeline.set(name_, Date.from(Instant.now()).toString(),
+                                params_)).whenComplete((result, e) -> {
+                                    if(e != null)
+                                        errorCount_.incrementAndGet();
+                                });
+                    else {
+                        try {
+                            Transaction trans = client_.multi();
+                            trans.select(db_);
+                            trans.set(name_, Date.from(Instant.now()).toString(), params_);
+                            trans.exec();
+                        } catch(JedisConnectionException | JedisDataException e) {
+                            errorCount_.incrementAndGet();
+                        }
                     }
                     try {
                         Thread.sleep(period_);
@@ -108,6 +158,7 @@ public class RedisProofOfLifeVariable implements Runnable {
     }
 
     private final Jedis client_;
+    private final RedisClientPool pool_;
     private final int db_;
     private final String name_;
     private final AtomicLong errorCount_ = new AtomicLong(0L);
@@ -0,0 +1,232 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.redis;
+
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watches the proof of life variables written by {@link RedisProofOfLifeVariable} or
+ * {@link RedisHeartbeatCoordinator} and keeps a table of the names that are alive. Changes are received from Redis
+ * keyspace notifications so no polling of the server is required. The keys are only scanned when the subscription
+ * is (re)established to recover any changes missed while disconnected. The listener is called from the watcher
+ * thread only when a name changes between alive and expired.
+ *
+ * <b>NOTE:</b> The Redis server must have keyspace notifications enabled for string, generic, expired and evicted
+ * events, i.e. <code>notify-keyspace-events K$gxe</code>. Without evicted events a name whose key is evicted under
+ * memory pressure stays alive until the next (re)subscription scan.
+ */
+public class RedisProofOfLifeWatcher implements Runnable {
+    /**
+     * Construct a watcher for the proof of life variables in a Redis DB.
+     *
+     * @param pool The pool of Redis connections, one connection is held for the subscription while running.
+     * @param db The Redis DB index of the proof of life variables.
+     * @param listener The listener called when a name becomes alive or expires.
+     * @throws IllegalArgumentException When any argument is incorrect.
+     */
+    public RedisProofOfLifeWatcher(RedisClientPool pool, int db, Listener listener) {
+        if(pool == null)
+            throw new IllegalArgumentException("parameter 'pool' cannot be null!");
+        if(db < 0)
+            throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
+        if(listener == null)
+            throw new IllegalArgumentException("parameter 'listener' cannot be null!");
+        pool_ = pool;
+        db_ = db;
+        listener_ = listener;
+        channelPrefix_ = "__keyspace@" + db + "__:";
+    }
+
+    /**
+     * Start the thread that subscribes to the keyspace notifications. Will fail silently if the watcher is already
+     * running.
+     */
+    @Override
+    public synchronized void run() {
+        if(thread_ == null) {
+            thread_ = new Thread(this::watchLoop, "RedisProofOfLifeWatcher");
+            thread_.setDaemon(true);
+            thread_.start();
+        }
+    }
+
+    /**
+     * Check to see if the watcher thread is running.
+     *
+     * @return true if the thread is running, false otherwise.
+     */
+    public synchronized boolean isRunning() {
+        return thread_ != null && thread_.isAlive();
+    }
+
+    /**
+     * Stops a running watcher. Will fail silently if the watcher is not running.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = thread_;
+            thread_ = null;
+        }
+        if(thread != null) {
+            thread.interrupt();
+            try {
+                while(thread.isAlive()) { // The subscription may not be established yet.
+                    if(subscriber_.isSubscribed())
+                        subscriber_.punsubscribe();
+                    thread.join(STOP_POLL_MILLISECONDS);
+                }
+            } catch(InterruptedException e) { /* Ignore */ }
+        }
+    }
+
+    /**
+     * Check if a name is currently alive.
+     *
+     * @param name The name of the proof of life variable, without the "proofOfLife." prefix.
+     * @return true if the variable exists on the redis server, false otherwise.
+     */
+    public boolean isAlive(String name) {
+        return name != null && alive_.contains(name);
+    }
+
+    /**
+     * Get the names currently alive.
+     *
+     * @return A copy of the set of names, without the "proofOfLife." prefix.
+     */
+    public Set<String> getAlive() {
+        return new HashSet<>(alive_);
+    }
+
+    private void watchLoop() {
+        long delay = MINIMUM_RETRY_DELAY;
+        while(!Thread.currentThread().isInterrupted()) {
+            if(subscribe())
+                delay = MINIMUM_RETRY_DELAY;
+            else {
+                try {
+                    Thread.sleep(delay);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delay = Math.min(delay * 2L, MAXIMUM_RETRY_DELAY);
+            }
+        }
+    }
+
+    // Blocks while subscribed, returns false if the subscription or the scan after subscribing failed.
+    private boolean subscribe() {
+        scanFailed_ = false;
+        try {
+            pool_.execute(db_, (jedis) -> {
+                jedis.psubscribe(subscriber_, channelPrefix_ + PREFIX + "*");
+                return null;
+            });
+            return !scanFailed_;
+        } catch(JedisException e) {
+            return false;
+        }
+    }
+
+    // Called once subscribed, so no notification is missed between scan and events. The scan uses a separate
+    // connection from the pool as the subscription connection cannot run other commands.
+    private void resynchronize() {
+        Set<String> found = new HashSet<>();
+        ScanParams params = new ScanParams().match(PREFIX + "*").count(SCAN_COUNT);
+        pool_.execute(db_, (jedis) -> {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, params);
+                for(String key: result.getResult())
+                    found.add(key.substring(PREFIX.length()));
+                cursor = result.getCursor();
+            } while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+            return null;
+        });
+        for(String name: new ArrayList<>(alive_))
+            if(!found.contains(name))
+                markExpired(name);
+        for(String name: found)
+            markAlive(name);
+    }
+
+    private void notification(String channel, String event) {
+        if(!channel.startsWith(channelPrefix_ + PREFIX))
+            return;
+        String name = channel.substring(channelPrefix_.length() + PREFIX.length());
+        if(ALIVE_EVENTS.contains(event))
+            markAlive(name);
+        else if(EXPIRED_EVENTS.contains(event))
+            markExpired(name);
+    }
+
+    private void markAlive(String name) {
+        if(alive_.add(name))
+            listener_.alive(name);
+    }
+
+    private void markExpired(String name) {
+        if(alive_.remove(name))
+            listener_.expired(name);
+    }
+
+    private final RedisClientPool pool_;
+    private final int db_;
+    private final Listener listener_;
+    private final String channelPrefix_;
+    private final Set<String> alive_ = ConcurrentHashMap.newKeySet();
+    private final JedisPubSub subscriber_ = new JedisPubSub() {
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+            try {
+                resynchronize();
+            } catch(JedisException e) {
+                scanFailed_ = true;
+                punsubscribe(); // Retry the subscription and scan after the retry delay.
+            }
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+            notification(channel, message);
+        }
+    };
+    private       Thread thread_ = null;
+    private volatile boolean scanFailed_ = false;
+
+    private static final String PREFIX = "proofOfLife.";
+    private static final int SCAN_COUNT = 1_000;
+    private static final long MINIMUM_RETRY_DELAY = 50L;
+    private static final long MAXIMUM_RETRY_DELAY = 5_000L;
+    private static final long STOP_POLL_MILLISECONDS = 100L;
+    private static final Set<String> ALIVE_EVENTS = Set.of("set");
+    private static final Set<String> EXPIRED_EVENTS = Set.of("expired", "del", "evicted");
+
+    /**
+     * Receives the transitions of proof of life variables, called from the watcher thread.
+     */
+    public interface Listener {
+        /**
+         * Called when a name becomes alive.
+         *
+         * @param name The name of the proof of life variable, without the "proofOfLife." prefix.
+         */
+        void alive(String name);
+
+        /**
+         * Called when a name expires or is deleted.
+         *
+         * @param name The name of the proof of life variable, without the "proofOfLife." prefix.
+         */
+        void expired(String name);
+    }
+}
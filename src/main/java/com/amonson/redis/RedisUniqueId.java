@@ -28,6 +28,28 @@ public class RedisUniqueId {
         if(db < 0)
             throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
         client_ = client;
+        pool_ = null;
+        db_ = db;
+        name_ = "uniqueId." + name;
+    }
+
+    /**
+     * Construct a object to get a unique ID from the specified name using pooled connections.
+     *
+     * @param pool The pool of Redis connections shared with other objects.
+     * @param db The Redis Server DB number (0-max of server).
+     * @param name The name of the unique ID to access on the redis server.
+     * @throws IllegalArgumentException When the input arguments are incorrect.
+     */
+    public RedisUniqueId(RedisClientPool pool, int db, String name) {
+        if(pool == null)
+            throw new IllegalArgumentException("parameter 'pool' cannot be null!");
+        if(name == null || name.isBlank())
+            throw new IllegalArgumentException("parameter 'name' cannot be null or blank!");
+        if(db < 0)
+            throw new IllegalArgumentException("parameter 'db' must be greater than or equal to 0!");
+        client_ = null;
+        pool_ = pool;
         db_ = db;
         name_ = "uniqueId." + name;
     }
@@ -36,12 +58,16 @@ public class RedisUniqueId {
      * Reset the redis unique named value to 0
      */
     public void reset() {
-        try (Transaction trans = client_.multi()) {
-            trans.select(db_);
-            trans.del(name_);
-            trans.exec();
-            current_ = 0L;
+        if(pool_ != null)
+            pool_.execute(db_, (jedis) -> jedis.del(name_));
+        else {
+            try (Transaction trans = client_.multi()) {
+                trans.select(db_);
+                trans.del(name_);
+                trans.exec();
+            }
         }
+        current_ = 0L;
     }
 
     /**
@@ -51,17 +77,22 @@ public class RedisUniqueId {
      */
     public long getNext() {
         if((current_ % CACHE_SIZE) == 0) {
-            try (Transaction trans = client_.multi()) {
-                trans.select(db_);
-                Response<Long> response = trans.incrBy(name_, CACHE_SIZE);
-                trans.exec();
-                current_ = response.get() - CACHE_SIZE;
+            if(pool_ != null)
+                current_ = pool_.execute(db_, (jedis) -> jedis.incrBy(name_, CACHE_SIZE)) - CACHE_SIZE;
+            else {
+                try (Transaction trans = client_.multi()) {
+                    trans.select(db_);
+                    Response<Long> response = trans.incrBy(name_, CACHE_SIZE);
+                    trans.exec();
+                    current_ = response.get() - CACHE_SIZE;
+                }
             }
         }
         return current_++;
     }
 
     private final Jedis client_;
+    private final RedisClientPool pool_;
     private final String name_;
     private final int db_;
     private       long current_ = 0L;
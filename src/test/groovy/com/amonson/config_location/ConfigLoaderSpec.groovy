@@ -1,11 +1,17 @@
 package com.amonson.config_location
 
 import com.amonson.prop_store.PropMap
+import com.amonson.redis.RedisClientPool
 import org.apache.logging.log4j.core.Logger
 import redis.clients.jedis.HostAndPort
 import redis.clients.jedis.Jedis
 import spock.lang.Specification
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+
 
 // This class does not test the Redis configure location as that should be treated as a functional test not a unit test.
 // Effort was made to mock the Jedis code but no real processing occurs. Need functional test for this.
@@ -43,6 +49,7 @@ class ConfigLoaderSpec extends Specification {
     }
 
     def cleanup() {
+        underTest_.close()
         File f = new File(underTest_.userDir_)
         f.deleteDir()
         f = new File(underTest_.systemDir_)
@@ -178,6 +185,309 @@ class ConfigLoaderSpec extends Specification {
             props.size() == 0
     }
 
+    def "Test Redis configuration from pool"() {
+        given:
+            def pool = Mock(RedisClientPool)
+            pool.execute(1, _) >> """{ "property": false, "type": "redis", "redis": true }"""
+            def loader = new ConfigLoader("testApp", Mock(Logger), pool)
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            loader.customDir_ = underTest_.customDir_
+            new File((String)underTest_.userDir_ + "/test.json").text = goodJson_
+            PropMap props = loader.getConfigurationByName("test")
+        expect:
+            props.getBoolean("property")
+        and:
+            props.getString("type") == "json"
+        and:
+            props.getBoolean("redis")
+    }
+
+    def "Test cached configuration follows file changes"() {
+        given:
+            new File(ConfigLoader.ETC_DIR + "/testApp.json").text = """{ "custom_dir": "./build/tmp/etc" }"""
+            def loader = new ConfigLoader("testApp", Mock(Logger))
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            loader.fileCheckMilliseconds_ = 0L
+            def file = new File((String)underTest_.userDir_ + "/test.json")
+            file.text = goodJson_
+            PropMap first = loader.getConfigurationByName("test")
+            first.put("type", "changed")
+            PropMap second = loader.getConfigurationByName("test")
+            file.text = goodJsonUser_
+            PropMap third = loader.getConfigurationByName("test")
+        expect:
+            second.getString("type") == "json"
+        and:
+            third.getString("type") == null
+        and:
+            third.getMap("overridden").getString("key2") == "overrode"
+        and:
+            loader.cache_.size() == 1
+        cleanup:
+            loader.close()
+    }
+
+    def "Test Redis configuration cache cleared by notification"() {
+        given:
+            def released = new CountDownLatch(1)
+            def subscribed = new CountDownLatch(1)
+            def jedis = Mock(Jedis)
+            jedis.subscribe(*_) >> { args ->
+                args[1].eachWithIndex { String channel, int index -> args[0].onSubscribe(channel, index + 1) }
+                subscribed.countDown()
+                released.await()
+            }
+            jedis.hget("testApp", "test") >>> ['{"value": "1"}', '{"value": "2"}', '{"value": "3"}']
+            def pool = Mock(RedisClientPool)
+            pool.execute(1, _) >> { int db, Function function -> function.apply(jedis) }
+            def loader = new ConfigLoader("testApp", Mock(Logger), pool)
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            loader.customDir_ = underTest_.customDir_
+            loader.redisCacheMilliseconds_ = 0L
+            loader.startWatchingRedis()
+            subscribed.await(5, TimeUnit.SECONDS)
+            def first = loader.getConfigurationByName("test").getString("value")
+            def second = loader.getConfigurationByName("test").getString("value")
+            loader.subscriber_.onMessage("testApp.changed", "")
+            def third = loader.getConfigurationByName("test").getString("value")
+        expect:
+            first == "1"
+        and:
+            second == "1"
+        and:
+            third == "2"
+        cleanup:
+            released.countDown()
+            loader.close()
+    }
+
+    def "Test Redis subscription reloads watched configurations once"() {
+        given:
+            def jedis = Mock(Jedis)
+            def pool = Mock(RedisClientPool)
+            pool.execute(1, _) >> { int db, Function function -> function.apply(jedis) }
+            def loader = new ConfigLoader("testApp", Mock(Logger), pool)
+            def watched = new ConfigLoader.WatchedConfig()
+            for(int layer = 0; layer < watched.layers.length; layer++)
+                watched.layers[layer] = new PropMap()
+            loader.watched_.put("test", watched)
+        when:
+            loader.redisChannels_.eachWithIndex { String channel, int index ->
+                loader.subscriber_.onSubscribe(channel, index + 1)
+            }
+        then:
+            1 * jedis.hget("testApp", "test") >> '{"value": "1"}'
+            loader.redisWatched_
+            watched.layers[0].getString("value") == "1"
+        cleanup:
+            loader.close()
+    }
+
+    def "Test Redis configuration cached for a limited time without watching"() {
+        given:
+            def jedis = Mock(Jedis)
+            jedis.hget("testApp", "test") >>> ['{"value": "1"}', '{"value": "2"}', '{"value": "3"}']
+            def pool = Mock(RedisClientPool)
+            pool.execute(1, _) >> { int db, Function function -> function.apply(jedis) }
+            def loader = new ConfigLoader("testApp", Mock(Logger), pool)
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            loader.customDir_ = underTest_.customDir_
+            def first = loader.getConfigurationByName("test").getString("value")
+            def second = loader.getConfigurationByName("test").getString("value")
+            loader.redisCacheMilliseconds_ = 0L
+            def third = loader.getConfigurationByName("test").getString("value")
+        expect:
+            first == "1"
+        and:
+            second == "1"
+        and:
+            third == "2"
+        and:
+            loader.redisWatchThread_ == null
+        and:
+            0 * jedis.subscribe(*_)
+        cleanup:
+            loader.close()
+    }
+
+    def "Test listener pushed file changes"() {
+        given:
+            def changes = new LinkedBlockingQueue<PropMap>()
+            new File(ConfigLoader.ETC_DIR + "/testApp.json").text = "{}"
+            def loader = new ConfigLoader("testApp", Mock(Logger))
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            def userFile = new File((String)underTest_.userDir_ + "/test.json")
+            userFile.text = goodJsonUser_
+            loader.addListener("test", { name, config -> changes.put(config) } as ConfigLoader.Listener)
+            new File((String)underTest_.systemDir_ + "/test.json").text = goodJsonSystem_
+            PropMap first = changes.poll(10, TimeUnit.SECONDS)
+            userFile.delete()
+            PropMap second = changes.poll(10, TimeUnit.SECONDS)
+        expect:
+            first.getBoolean("property")
+        and:
+            first.getString("new") == "string"
+        and:
+            first.getMap("overridden").getString("key2") == "overrode"
+        and:
+            !second.getBoolean("property")
+        and:
+            second.getMap("overridden").getString("key2") == null
+        cleanup:
+            loader.close()
+    }
+
+    def "Test listener with bad inputs"() {
+        when:
+            underTest_.addListener(NAME, LISTENER)
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            NAME   | LISTENER
+            null   | Mock(ConfigLoader.Listener)
+            " "    | Mock(ConfigLoader.Listener)
+            "test" | null
+    }
+
+    def "Test many configurations in one pass"() {
+        given:
+            def jedis = Mock(Jedis)
+            jedis.hmget("testApp", "test", "other", "none") >> ['{"redis": "test"}', null, "bad"]
+            def pool = Mock(RedisClientPool)
+            pool.execute(1, _) >> { int db, Function function -> function.apply(jedis) }
+            def loader = new ConfigLoader("testApp", Mock(Logger), pool)
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            loader.customDir_ = underTest_.customDir_
+            new File((String)underTest_.systemDir_ + "/test.json").text = goodJsonSystem_
+            new File((String)underTest_.userDir_ + "/test.yml").text = goodYamlUser_
+            new File((String)underTest_.systemDir_ + "/other.yml").text = goodYaml_
+            def configs = loader.getConfigurationsByName(["test", "other", "none", "test"])
+        expect:
+            configs.keySet().toList() == ["test", "other", "none"]
+        and:
+            configs.test.getString("redis") == "test"
+        and:
+            configs.test.getString("type") == "yaml"
+        and:
+            configs.test.getMap("overridden").getString("key1") == "overrode"
+        and:
+            configs.other.getBoolean("property")
+        and:
+            configs.none.size() == 0
+        cleanup:
+            loader.close()
+    }
+
+    def "Test many configurations share the cache"() {
+        given:
+            def jedis = Mock(Jedis)
+            def pool = Mock(RedisClientPool)
+            pool.execute(1, _) >> { int db, Function function -> function.apply(jedis) }
+            def loader = new ConfigLoader("testApp", Mock(Logger), pool)
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            loader.customDir_ = underTest_.customDir_
+            new File((String)underTest_.systemDir_ + "/test.json").text = goodJsonSystem_
+        when:
+            def first = loader.getConfigurationsByName(["test", "other"])
+        then:
+            1 * jedis.hmget("testApp", "test", "other") >> ['{"redis": "test"}', null]
+        when:
+            def second = loader.getConfigurationsByName(["test", "other"])
+            def single = loader.getConfigurationByName("test")
+        then:
+            0 * jedis.hmget(*_)
+            0 * jedis.hget(*_)
+            second == first
+            single == first.test
+            single.getString("redis") == "test"
+            loader.cache_.size() == 2
+        cleanup:
+            loader.close()
+    }
+
+    def "Test many configurations with bad inputs"() {
+        when:
+            underTest_.getConfigurationsByName(NAMES)
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            NAMES << [ null, ["test", null], ["test", " "] ]
+    }
+
+    def "Test snapshot"() {
+        given:
+            new File(ConfigLoader.ETC_DIR + "/testApp.json").text = "{}"
+            def snapshotFile = new File("./build/tmp/testApp.config.snapshot")
+            snapshotFile.delete()
+            def createLoader = {
+                def loader = new ConfigLoader("testApp", Mock(Logger))
+                loader.userDir_ = underTest_.userDir_
+                loader.systemDir_ = underTest_.systemDir_
+                loader.snapshotFile_ = snapshotFile.toPath()
+                loader
+            }
+            new File((String)underTest_.systemDir_ + "/test.json").text = goodJsonSystem_
+            new File((String)underTest_.userDir_ + "/test.yml").text = goodYamlUser_
+            def first = createLoader()
+            def firstCurrent = first.useSnapshot()
+            def second = createLoader()
+            def secondCurrent = second.useSnapshot()
+            new File((String)underTest_.userDir_ + "/test.yml").text = goodYaml_
+            def third = createLoader()
+            def thirdCurrent = third.useSnapshot()
+        expect:
+            !firstCurrent
+        and:
+            secondCurrent
+        and:
+            second.getConfigurationByName("test") == first.getConfigurationByName("test")
+        and:
+            second.getConfigurationByName("test").getMap("overridden").getString("key1") == "overrode"
+        and:
+            !thirdCurrent
+        and:
+            third.getConfigurationByName("test").getMap("overridden").getString("key1") == null
+        and:
+            third.getConfigurationsByName(["test", "none"]).none.isEmpty()
+        cleanup:
+            snapshotFile.delete()
+    }
+
+    def "Test corrupt snapshot falls back to the files"() {
+        given:
+            new File(ConfigLoader.ETC_DIR + "/testApp.json").text = "{}"
+            def snapshotFile = new File("./build/tmp/testApp.corrupt.snapshot")
+            def loader = new ConfigLoader("testApp", Mock(Logger))
+            loader.userDir_ = underTest_.userDir_
+            loader.systemDir_ = underTest_.systemDir_
+            new File((String)underTest_.systemDir_ + "/test.json").text = goodJsonSystem_
+            def expected = loader.getConfigurationByName("test")
+            ConfigSnapshot.write(snapshotFile.toPath(), [], [test: expected])
+            new RandomAccessFile(snapshotFile, "rw").withCloseable { it.setLength(it.length() - 4) }
+        when:
+            loader.snapshot_ = ConfigSnapshot.open(snapshotFile.toPath())
+            def single = loader.getConfigurationByName("test")
+        then:
+            single == expected
+            loader.snapshot_ == null
+        when:
+            loader.snapshot_ = ConfigSnapshot.open(snapshotFile.toPath())
+            def many = loader.getConfigurationsByName(["test"])
+        then:
+            many.test == expected
+            loader.snapshot_ == null
+        cleanup:
+            loader.close()
+            snapshotFile.delete()
+    }
+
     def "Test original Jedis factory"() {
         expect: underTest_.createInternalClient(new HostAndPort("localhost", 6379)) != null
     }
@@ -0,0 +1,86 @@
+package com.amonson.config_location
+
+import com.amonson.prop_store.PropList
+import com.amonson.prop_store.PropMap
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+
+class ConfigSnapshotSpec extends Specification {
+    Path dir_
+    File source_
+    Path snapshot_
+
+    def setup() {
+        dir_ = Files.createTempDirectory("snapshot")
+        source_ = dir_.resolve("test.json").toFile()
+        source_.text = "{}"
+        snapshot_ = dir_.resolve("test.snapshot")
+    }
+
+    def cleanup() {
+        dir_.toFile().deleteDir()
+    }
+
+    def "Test write and open all value types"() {
+        given:
+            def inner = new PropMap()
+            inner.put("key", "value")
+            def list = new PropList([1, 2L, null, "text", inner])
+            def config = new PropMap()
+            config.put("string", "text")
+            config.put("true", true)
+            config.put("false", false)
+            config.put("short", (short)3)
+            config.put("integer", 4)
+            config.put("long", 5L)
+            config.put("float", 6.5f)
+            config.put("double", 7.5d)
+            config.put("bigInteger", new BigInteger("123456789012345678901234567890"))
+            config.put("bigDecimal", new BigDecimal("1.23456789012345678901234567890"))
+            config.put("null", null)
+            config.put("map", inner)
+            config.put("list", list)
+            ConfigSnapshot.write(snapshot_, ConfigSnapshot.describe([source_]), [test: config])
+            def snapshot = ConfigSnapshot.open(snapshot_)
+        expect:
+            snapshot.get("test") == config
+        and:
+            snapshot.get("missing").isEmpty()
+    }
+
+    def "Test isCurrent"() {
+        given:
+            ConfigSnapshot.write(snapshot_, ConfigSnapshot.describe([source_]), [test: new PropMap()])
+            def snapshot = ConfigSnapshot.open(snapshot_)
+            def other = dir_.resolve("other.json").toFile()
+            other.text = "{}"
+        expect:
+            snapshot.isCurrent([source_])
+        and:
+            !snapshot.isCurrent([])
+        and:
+            !snapshot.isCurrent([other])
+        and:
+            !snapshot.isCurrent([source_, other])
+        when:
+            Files.setLastModifiedTime(source_.toPath(), FileTime.fromMillis(1_000L))
+        then:
+            snapshot.isCurrent([source_])
+        when:
+            source_.text = "[]"
+        then:
+            !snapshot.isCurrent([source_])
+    }
+
+    def "Test open missing or bad file"() {
+        given:
+            dir_.resolve("bad.snapshot").toFile().text = "not a snapshot"
+        expect:
+            ConfigSnapshot.open(dir_.resolve("none.snapshot")) == null
+        and:
+            ConfigSnapshot.open(dir_.resolve("bad.snapshot")) == null
+    }
+}
@@ -12,6 +12,7 @@ import org.voltdb.client.ClientResponse
 import org.voltdb.client.ClientStatusListenerExt
 import spock.lang.Specification
 
+import java.security.MessageDigest
 
 class VoltWrapperClientSpec extends Specification {
     def list = new ArrayList<InetSocketAddress>()
@@ -87,7 +88,7 @@ class VoltWrapperClientSpec extends Specification {
     def "Test initialization"() {
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: underTest.initializeVoltDBAfterConnect()
     }
@@ -96,7 +97,7 @@ class VoltWrapperClientSpec extends Specification {
         props_.remove("resource_file")
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: underTest.initializeVoltDBAfterConnect()
     }
@@ -105,7 +106,7 @@ class VoltWrapperClientSpec extends Specification {
         props_.remove("filename")
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: underTest.initializeVoltDBAfterConnect()
     }
@@ -114,7 +115,7 @@ class VoltWrapperClientSpec extends Specification {
         props_.remove("jar_files")
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: underTest.initializeVoltDBAfterConnect()
     }
@@ -123,7 +124,7 @@ class VoltWrapperClientSpec extends Specification {
         props_.put("resource_file", "/tmp/missing.sql")
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: !underTest.initializeVoltDBAfterConnect()
     }
@@ -132,7 +133,7 @@ class VoltWrapperClientSpec extends Specification {
         props_.put("filename", "/tmp/missing.sql")
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: !underTest.initializeVoltDBAfterConnect()
     }
@@ -141,8 +142,84 @@ class VoltWrapperClientSpec extends Specification {
         props_.put("jar_files", "/tmp/missing.jar")
         ClientResponse response = Mock(ClientResponse)
         response.getStatus() >> ClientResponse.SUCCESS
-        underTest.client_.callProcedure("@AdHoc", _ as String) >> response
+        underTest.client_.callProcedure("@AdHoc", *_) >> response
         underTest.client_.updateClasses(_ as File, _ as String) >> response
         expect: !underTest.initializeVoltDBAfterConnect()
     }
+
+    def "Test initialization skips unchanged content"() {
+        underTest.client_ = Mock(Client)
+        ClientResponse catalog = Mock(ClientResponse)
+        catalog.getStatus() >> ClientResponse.SUCCESS
+        catalog.getResults() >> new VoltTable[] { trackedTables() }
+        underTest.client_.callProcedure("@SystemCatalog", "tables") >> catalog
+        ClientResponse recorded = Mock(ClientResponse)
+        recorded.getStatus() >> ClientResponse.SUCCESS
+        recorded.getResults() >> new VoltTable[] { checksums(new File("./build/tmp/test.jar").bytes) }
+        underTest.client_.callProcedure("@AdHoc", "SELECT NAME, CHECKSUM FROM BOOTSTRAP_CHECKSUMS;") >> recorded
+        when: boolean result = underTest.initializeVoltDBAfterConnect()
+        then: result
+        and:  0 * underTest.client_.updateClasses(_, _)
+        and:  0 * underTest.client_.callProcedure("@AdHoc", { !it.startsWith("SELECT") }, *_)
+    }
+
+    def "Test initialization reloads changed content"() {
+        underTest.client_ = Mock(Client)
+        ClientResponse catalog = Mock(ClientResponse)
+        catalog.getStatus() >> ClientResponse.SUCCESS
+        catalog.getResults() >> new VoltTable[] { trackedTables() }
+        underTest.client_.callProcedure("@SystemCatalog", "tables") >> catalog
+        ClientResponse recorded = Mock(ClientResponse)
+        recorded.getStatus() >> ClientResponse.SUCCESS
+        recorded.getResults() >> new VoltTable[] { checksums("stale".bytes) }
+        underTest.client_.callProcedure("@AdHoc", "SELECT NAME, CHECKSUM FROM BOOTSTRAP_CHECKSUMS;") >> recorded
+        ClientResponse response = Mock(ClientResponse)
+        response.getStatus() >> ClientResponse.SUCCESS
+        when: boolean result = underTest.initializeVoltDBAfterConnect()
+        then: result
+        and:  1 * underTest.client_.updateClasses(_ as File, "") >> response
+        and:  1 * underTest.client_.callProcedure("@AdHoc", { it.startsWith("UPSERT") },
+                "jar_files:./build/tmp/test.jar", _ as String) >> response
+    }
+
+    def "Test initialization reports changed SQL without loading or recording it"() {
+        props_.remove("jar_files")
+        underTest.client_ = Mock(Client)
+        ClientResponse catalog = Mock(ClientResponse)
+        catalog.getStatus() >> ClientResponse.SUCCESS
+        catalog.getResults() >> new VoltTable[] { trackedTables() }
+        underTest.client_.callProcedure("@SystemCatalog", "tables") >> catalog
+        ClientResponse recorded = Mock(ClientResponse)
+        recorded.getStatus() >> ClientResponse.SUCCESS
+        VoltTable table = new VoltTable(new VoltTable.ColumnInfo("NAME", VoltType.STRING),
+                new VoltTable.ColumnInfo("CHECKSUM", VoltType.STRING))
+        table.addRow("resource_file:test.sql", checksum(ClassLoader.getSystemResourceAsStream("test.sql").bytes))
+        table.addRow("filename:./build/tmp/test.sql", checksum("stale".bytes))
+        recorded.getResults() >> new VoltTable[] { table }
+        underTest.client_.callProcedure("@AdHoc", "SELECT NAME, CHECKSUM FROM BOOTSTRAP_CHECKSUMS;") >> recorded
+        when: boolean result = underTest.initializeVoltDBAfterConnect()
+        then: result
+        and:  0 * underTest.client_.callProcedure("@AdHoc", { it.startsWith("-- Dummy") })
+        and:  0 * underTest.client_.callProcedure("@AdHoc", { it.startsWith("UPSERT") }, _, _)
+    }
+
+    private static VoltTable trackedTables() {
+        VoltTable table = new VoltTable(new VoltTable.ColumnInfo("TABLE_NAME", VoltType.STRING))
+        table.addRow("USERS")
+        table.addRow("BOOTSTRAP_CHECKSUMS")
+        return table
+    }
+
+    private static VoltTable checksums(byte[] jarContents) {
+        VoltTable table = new VoltTable(new VoltTable.ColumnInfo("NAME", VoltType.STRING),
+                new VoltTable.ColumnInfo("CHECKSUM", VoltType.STRING))
+        table.addRow("resource_file:test.sql", checksum(ClassLoader.getSystemResourceAsStream("test.sql").bytes))
+        table.addRow("filename:./build/tmp/test.sql", checksum(new File("./build/tmp/test.sql").bytes))
+        table.addRow("jar_files:./build/tmp/test.jar", checksum(jarContents))
+        return table
+    }
+
+    private static String checksum(byte[] bytes) {
+        return MessageDigest.getInstance("SHA-256").digest(bytes).encodeHex().toString()
+    }
 }
@@ -0,0 +1,134 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.node_monitoring
+
+import org.zeromq.ZMsg
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class MessageCodecSpec extends Specification {
+    NodeTable nodes_
+    def setup() {
+        List<String> hostnames = new ArrayList<>()
+        for(int i = 0; i < 100; i++)
+            hostnames.add("n" + i)
+        nodes_ = new NodeTable(hostnames)
+    }
+
+    def "Test NodeTable is independent of order"() {
+        def reversed = new NodeTable(Arrays.asList("n2", "n1", "n1", null))
+        def sorted = new NodeTable(Arrays.asList("n1", "n2"))
+        expect: reversed.fingerprint() == sorted.fingerprint()
+        and:    reversed.size() == 2
+        and:    reversed.indexOf("n2") == sorted.indexOf("n2")
+        and:    reversed.indexOf("other") == -1
+        and:    NodeTable.EMPTY.fingerprint() == 0
+    }
+
+    def "Test round trip with a target list"() {
+        def message = new Message("topic", "n1", Arrays.asList("n2", "unknown"))
+        def result = MessageCodec.decodeHeader("topic", MessageCodec.encodeHeader(message, nodes_), nodes_)
+        expect: result.sender == "n1"
+        and:    result.targetsContains("n2")
+        and:    result.targetsContains("unknown")
+        and:    result.getNodeTargets().cardinality() == 1
+        and:    result.getNamedTargets() == ["unknown"].toSet()
+    }
+
+    def "Test round trip with a target bitmap"() {
+        def message = new Message("topic", "outsider", nodes_.names_.toList())
+        message.addTargets("unknown")
+        byte[] header = MessageCodec.encodeHeader(message, nodes_)
+        def result = MessageCodec.decodeHeader("topic", header, nodes_)
+        expect: header.length < 64
+        and:    result.sender == "outsider"
+        and:    result.targetsAsString.split(",").length == 101
+        and:    result.targetsContainsNode(nodes_, nodes_.indexOf("n42"))
+        and:    result.targetsContains("n99")
+        and:    result.targetsContains("unknown")
+    }
+
+    def "Test the empty table is decoded by any table"() {
+        def message = new Message("topic", "n1", "n2,n3")
+        def result = MessageCodec.decodeHeader("topic", MessageCodec.encodeHeader(message, NodeTable.EMPTY), nodes_)
+        expect: result.targetsAsString.split(",").toList().toSet() == ["n2", "n3"].toSet()
+    }
+
+    def "Test a different table only decodes hostnames"() {
+        def other = new NodeTable(Arrays.asList("n1", "n2", "n3"))
+        byte[] indexed = MessageCodec.encodeHeader(new Message("topic", "n1", "n2,n3"), other)
+        byte[] named = MessageCodec.encodeHeader(new Message("topic", "n1", "n2,n3"), other.withoutIndexes())
+        def result = MessageCodec.decodeHeader("topic", named, nodes_)
+        expect: MessageCodec.decodeHeader("topic", indexed, nodes_) == null
+        and:    MessageCodec.fingerprintOf(named) == other.fingerprint()
+        and:    MessageCodec.fingerprintOf(new byte[0]) == 0
+        and:    result.sender == "n1"
+        and:    result.targetsContainsNode(nodes_, nodes_.indexOf("n2"))
+        and:    result.targetsContains("n3")
+    }
+
+    def "Test decode negative"() {
+        def message = new Message("topic", "n1", "n2")
+        byte[] header = MessageCodec.encodeHeader(message, nodes_)
+        expect: MessageCodec.decodeHeader("topic", header, new NodeTable(Arrays.asList("n1", "n2"))) == null
+        and:    MessageCodec.decodeHeader("topic", Arrays.copyOf(header, 6), nodes_) == null
+        and:    MessageCodec.decodeHeader("topic", "n1,n2".getBytes(StandardCharsets.UTF_8), nodes_) == null
+        and:    MessageCodec.fromZMsg("topic", new ZMsg(), nodes_) == null
+    }
+
+    def "Test ZMsg round trip keeps binary parts"() {
+        def message = new Message("topic", "n1", "n2", "text")
+        message.addMessagePartsAsBytes([0, -1, 127] as byte[])
+        ZMsg msg = MessageCodec.toZMsg(message, nodes_)
+        def topic = MessageCodec.topicOf(msg.removeFirst().getString(StandardCharsets.UTF_8))
+        def result = MessageCodec.fromZMsg(topic, msg, nodes_)
+        expect: result.topic == "topic"
+        and:    result.messageParts[0] == "text"
+        and:    result.messagePartsAsBytes[1] == [0, -1, 127] as byte[]
+    }
+
+    def "Test broadcast to all nodes"() {
+        def message = new Message("topic", "n1", "*")
+        message.targetAllNodes(nodes_)
+        def result = MessageCodec.decodeHeader("topic", MessageCodec.encodeHeader(message, nodes_), nodes_)
+        expect: !message.targetsContains("*")
+        and:    result.getNodeTargets().cardinality() == 100
+        and:    result.getNamedTargets().isEmpty()
+    }
+
+    def "Test address"() {
+        ZMsg single = MessageCodec.toZMsg(new Message("topic", "n1", "n2"), nodes_)
+        ZMsg multiple = MessageCodec.toZMsg(new Message("topic", "n1", "n2,n3"), nodes_)
+        String singleAddress = single.removeFirst().getString(StandardCharsets.UTF_8)
+        String multipleAddress = multiple.removeFirst().getString(StandardCharsets.UTF_8)
+        expect: singleAddress.startsWith(MessageCodec.nodePrefix("n2"))
+        and:    multipleAddress.startsWith(MessageCodec.topicPrefix("topic"))
+        and:    !MessageCodec.topicPrefix("topic2").startsWith(MessageCodec.topicPrefix("topic"))
+        and:    MessageCodec.topicOf(singleAddress) == "topic"
+        and:    MessageCodec.topicOf(multipleAddress) == "topic"
+        and:    MessageCodec.topicOf("ALIVE") == null
+        and:    MessageCodec.topicOf("\u0000n2") == null
+    }
+
+    def "Test direct copies"() {
+        def message = new Message("topic", "n1", "n2,n3,unknown", "text")
+        List<ZMsg> msgs = MessageCodec.toDirectZMsgs(message, nodes_, null)
+        def addresses = msgs.collect { it.removeFirst().getString(StandardCharsets.UTF_8) }.toSet()
+        def result = MessageCodec.fromZMsg("topic", msgs[0], nodes_)
+        expect: msgs.size() == 3
+        and:    addresses == ["n2", "n3", "unknown"].collect { MessageCodec.nodePrefix(it) + "topic" }.toSet()
+        and:    result.targetsAsString.split(",").length == 3
+        and:    result.messageParts[0] == "text"
+    }
+
+    def "Test direct copies exclude the sender"() {
+        def message = new Message("topic", "n1", "n1,n2,n3", "text")
+        List<ZMsg> msgs = MessageCodec.toDirectZMsgs(message, nodes_, "n1")
+        def addresses = msgs.collect { it.removeFirst().getString(StandardCharsets.UTF_8) }.toSet()
+        expect: msgs.size() == 2
+        and:    addresses == ["n2", "n3"].collect { MessageCodec.nodePrefix(it) + "topic" }.toSet()
+    }
+}
@@ -81,9 +81,47 @@ class MessageSpec extends Specification {
         and:    underTest_.targetsAsString == "n3,n4"
     }
 
+    def "Test interned targets"() {
+        def nodes = new NodeTable(Arrays.asList("n1", "n2", "n3"))
+        underTest_.addTargets("other")
+        underTest_.internTargets(nodes)
+        String s1 = underTest_.targetsAsString
+        underTest_.addTargets("n3")
+        expect: s1 == "n1,n2,other"
+        and:    underTest_.targetsContainsNode(nodes, nodes.indexOf("n3"))
+        and:    !underTest_.targetsContainsNode(new NodeTable(Arrays.asList("n4")), 0)
+        and:    underTest_.targetsContains("other")
+        and:    underTest_.getNodeTargets().cardinality() == 3
+    }
+
     def "Test other message parts"() {
         underTest_.addMessageParts("part3", "part4")
         underTest_.addMessageParts(Arrays.asList("part5", "part6"))
         expect: underTest_.getMessageParts().length == 6
     }
+
+    def "Test binary message parts"() {
+        underTest_.addMessagePartsAsBytes([1, 2, 3] as byte[])
+        expect: underTest_.getMessagePartsAsBytes().size() == 3
+        and:    underTest_.getMessagePartsAsBytes()[0] == "part1".bytes
+        and:    underTest_.getMessagePartsAsBytes()[2] == [1, 2, 3] as byte[]
+    }
+
+    def "Test buffer message parts"() {
+        byte[] whole = [1, 2] as byte[]
+        def direct = java.nio.ByteBuffer.allocateDirect(4)
+        direct.put((byte)9).put((byte)8).flip()
+        underTest_.addMessagePartsAsBuffers(java.nio.ByteBuffer.wrap(whole), direct)
+        expect: underTest_.messagePartCount == 4
+        and:    underTest_.getMessagePartsAsBytes()[2].is(whole)
+        and:    underTest_.getMessagePartsAsBytes()[3] == [9, 8] as byte[]
+        and:    direct.remaining() == 2
+        and:    underTest_.getMessagePart(1) == "part2"
+        and:    underTest_.getMessagePartAsBuffer(0).readOnly
+    }
+
+    def "Test null message part"() {
+        when: underTest_.addMessagePartsAsBytes([null] as byte[][])
+        then: thrown(IllegalArgumentException)
+    }
 }
@@ -0,0 +1,86 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+package com.amonson.node_monitoring
+
+import org.apache.logging.log4j.core.Logger
+import org.zeromq.ZMQ
+import org.zeromq.ZMsg
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class NodeMonitoringSwimSpec extends Specification {
+    NodeMonitoringSwim underTest_
+    List<String> changes_
+
+    void setup() {
+        def config = new Properties()
+        config.setProperty("NodeAlivePeriod", "100")
+        config.setProperty("ProbeTimeout", "30")
+        config.setProperty("NodeExpirationTime", "200")
+        changes_ = new ArrayList<>()
+        underTest_ = new NodeMonitoringSwim("me", Arrays.asList("n1", "n2", "n3"), 8300, this::stateCallback,
+                Mock(Logger), config)
+        underTest_.push_ = Mock(ZMQ.Socket)
+    }
+
+    void stateCallback(String node, RemoteNodeState state, long lastSeen) {
+        changes_.add(node + "=" + state)
+    }
+
+    ZMsg swimMsg(String sender, byte type, int incarnation, byte[]... updates) {
+        def message = new Message(NodeMonitoringSwim.TOPIC, sender, "me")
+        byte[] header = ByteBuffer.allocate(9).put(type).putInt(1).putInt(incarnation).array()
+        message.addMessagePartsAsBytes(header, "me".bytes, "".bytes)
+        message.addMessagePartsAsBytes(updates)
+        ZMsg msg = MessageCodec.toZMsg(message, underTest_.nodeTable)
+        msg.removeFirst()
+        return msg
+    }
+
+    def "Test ctor negative"() {
+        def config = new Properties()
+        config.setProperty("ProbeTimeout", "1900")
+        when: new NodeMonitoringSwim("me", Arrays.asList("n1"), 8300, null, Mock(Logger), config)
+        then: thrown(IllegalArgumentException)
+    }
+
+    def "Test other topics are not consumed"() {
+        expect: !underTest_.onProtocolMessage("topic", new ZMsg())
+        and:    underTest_.onProtocolMessage(NodeMonitoringSwim.TOPIC, new ZMsg())
+    }
+
+    def "Test ping marks the sender alive"() {
+        underTest_.onProtocolMessage(NodeMonitoringSwim.TOPIC, swimMsg("n1", (byte)1, 0))
+        expect: underTest_.members_["n1"].state == 1
+        and:    underTest_.members_["n2"].state == 3
+    }
+
+    def "Test gossip updates members"() {
+        byte[] alive = NodeMonitoringSwim.encodeUpdate("n2", (byte)1, 4)
+        underTest_.onProtocolMessage(NodeMonitoringSwim.TOPIC, swimMsg("n1", (byte)3, 0, alive))
+        expect: underTest_.members_["n2"].state == 1
+        and:    underTest_.members_["n2"].incarnation == 4
+    }
+
+    def "Test suspicion of this node is refuted"() {
+        byte[] suspect = NodeMonitoringSwim.encodeUpdate("me", (byte)2, 0)
+        underTest_.onProtocolMessage(NodeMonitoringSwim.TOPIC, swimMsg("n1", (byte)1, 0, suspect))
+        expect: underTest_.incarnation_ == 1
+    }
+
+    def "Test unacknowledged probe suspects and then reports missing"() {
+        for(String node: ["n1", "n2", "n3"])
+            underTest_.onProtocolMessage(NodeMonitoringSwim.TOPIC, swimMsg(node, (byte)1, 0))
+        underTest_.onTimer()
+        Thread.sleep(120)
+        underTest_.onTimer()
+        def suspected = underTest_.members_.findAll { it.value.state == 2 }
+        suspected.values()[0].suspected = 0L
+        underTest_.onTimer()
+        expect: suspected.size() == 1
+        and:    underTest_.members_.findAll { it.value.state == 3 }.size() == 1
+    }
+}
@@ -12,6 +12,9 @@ import org.zeromq.ZMsg
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
 
 class NodeMonitoringZeroMQSpec extends Specification {
     boolean stateCallbackCalled
@@ -43,8 +46,7 @@ class NodeMonitoringZeroMQSpec extends Specification {
     }
 
     ZMsg getMsg(ZMQ.Socket socket, boolean wait) {
-        ZMsg msg = ZMsg.newStringMsg("A", "n1,me", "hello")
-        return msg
+        return MessageCodec.toZMsg(new Message("A", "n1", "n2", "hello"), underTest_.nodes_)
     }
 
     ZMsg getAlive(ZMQ.Socket socket, boolean wait) {
@@ -120,11 +122,13 @@ class NodeMonitoringZeroMQSpec extends Specification {
         underTest_.sendMessage(message)
         expect: true
         where:
-            TOPIC | TO   | THREAD
-            "A"   | "n1" | 0L
-            "A"   | "*"  | 0L
-            "A"   | "n1" | Long.MIN_VALUE
-            "A"   | "n1" | Thread.currentThread().getId()
+            TOPIC | TO      | THREAD
+            "A"   | "n1"    | 0L
+            "A"   | "*"     | 0L
+            "A"   | "n1"    | Long.MIN_VALUE
+            "A"   | "n1"    | Thread.currentThread().getId()
+            "A"   | "n1,n2" | 0L
+            "A"   | "n1,n2" | Thread.currentThread().getId()
     }
 
     def "Test ctor negative"() {
@@ -187,7 +191,119 @@ class NodeMonitoringZeroMQSpec extends Specification {
         expect: true
     }
 
+    def "Test configure DirectTargetLimit"() {
+        def config = new Properties()
+        config.setProperty("DirectTargetLimit", "2")
+        underTest_.configure(config)
+        expect: underTest_.directTargetLimit_ == 2
+        cleanup: underTest_.directTargetLimit_ = 8
+    }
+
+    // Send a message on the ZeroMQ thread and return the address frame of each ZMsg published.
+    List<String> publishedAddresses(Message message) {
+        def addresses = []
+        boolean first = true
+        underTest_.publish_ = Mock(ZMQ.Socket) {
+            send(_ as byte[], _ as int) >> { byte[] data, int flags ->
+                if(first)
+                    addresses.add(new String(data, StandardCharsets.UTF_8))
+                first = (flags & ZMQ.SNDMORE) == 0
+                return true
+            }
+        }
+        underTest_.zeroMQThreadId_ = Thread.currentThread().getId()
+        try {
+            underTest_.sendMessage(message)
+        } finally {
+            underTest_.zeroMQThreadId_ = Long.MIN_VALUE
+            underTest_.publish_ = null
+        }
+        return addresses
+    }
+
+    def "Test broadcast on a small cluster is one topic copy"() {
+        def addresses = publishedAddresses(new Message("topic", "me", "*", "text"))
+        expect: addresses == [MessageCodec.topicPrefix("topic")]
+    }
+
+    def "Test direct copies skip this node"() {
+        def addresses = publishedAddresses(new Message("topic", "me", "me,n1,n2", "text"))
+        expect: addresses.sort() == ["n1", "n2"].collect { MessageCodec.nodePrefix(it) + "topic" }
+    }
+
     def "Test removeNodeStateChangeHandler"() {
         expect: !underTest_.removeNodeStateChangeHandler(this::stateCallback)
     }
+
+    def "Test subscriptions follow handlers"() {
+        def subscriber = Mock(ZMQ.Socket)
+        underTest_.subscriber_ = subscriber
+        underTest_.zeroMQThreadId_ = Thread.currentThread().getId()
+        when:
+            underTest_.addMessageHandler("topic", this::messageCallback)
+            underTest_.addOrReplaceMessageHandler("topic", this::messageCallback)
+            underTest_.removeMessageHandler("topic")
+            underTest_.removeMessageHandler("topic")
+        then:
+            1 * subscriber.subscribe("topic\u0000")
+            1 * subscriber.unsubscribe("topic\u0000")
+        cleanup:
+            underTest_.zeroMQThreadId_ = Long.MIN_VALUE
+            underTest_.subscriber_ = null
+    }
+
+    def "Test subscription from other thread"() {
+        def inproc = Mock(ZMQ.Socket)
+        underTest_.nonZeroMQThreads_.put(Thread.currentThread().getId(), inproc)
+        underTest_.zeroMQThreadId_ = 0L
+        when:
+            underTest_.addMessageHandler("topic", this::messageCallback)
+        then:
+            1 * inproc.send({ new String(it as byte[], StandardCharsets.UTF_8) == "SUBSCRIPTION" }, ZMQ.SNDMORE) >> true
+            1 * inproc.send({ new String(it as byte[], StandardCharsets.UTF_8) == "topic" }, 0) >> true
+            underTest_.subscriptions_.isEmpty()
+        cleanup:
+            underTest_.zeroMQThreadId_ = Long.MIN_VALUE
+            underTest_.nonZeroMQThreads_.clear()
+            underTest_.messageHandlers_.clear()
+    }
+
+    def "Test fromOtherThreadInProcess subscription"() {
+        underTest_.subscriber_ = Mock(ZMQ.Socket)
+        underTest_.messageHandlers_.put("topic", this::messageCallback)
+        underTest_.indirectCall_ = { ZMQ.Socket socket, boolean wait -> ZMsg.newStringMsg("SUBSCRIPTION", "topic") }
+        underTest_.fromOtherThreadInProcess(Mock(ZLoop), new ZMQ.PollItem(Mock(ZMQ.Socket), ZMQ.Poller.POLLIN), null)
+        expect: underTest_.subscriptions_.contains("topic")
+        cleanup:
+            underTest_.messageHandlers_.clear()
+            underTest_.subscriptions_.clear()
+            underTest_.subscriber_ = null
+    }
+
+    def "Test fromExternalCluster with unknown address"() {
+        underTest_.messageHandlers_.put("A", this::messageCallback)
+        underTest_.indirectCall_ = { ZMQ.Socket socket, boolean wait -> ZMsg.newStringMsg("A", "n1") }
+        underTest_.fromExternalCluster(Mock(ZLoop), new ZMQ.PollItem(Mock(ZMQ.Socket), ZMQ.Poller.POLLIN), null)
+        expect: true
+        cleanup: underTest_.messageHandlers_.clear()
+    }
+
+    def "Test a node with a different list of hostnames switches to hostnames"() {
+        def other = new NodeTable(Arrays.asList("me", "n1", "n2", "n3"))
+        underTest_.indirectCall_ = { ZMQ.Socket socket, boolean wait ->
+            ZMsg alive = ZMsg.newStringMsg("ALIVE", "n3")
+            alive.add(ByteBuffer.allocate(4).putInt(other.fingerprint()).array())
+            return alive
+        }
+        underTest_.fromExternalCluster(Mock(ZLoop), new ZMQ.PollItem(Mock(ZMQ.Socket), ZMQ.Poller.POLLIN), null)
+        ZMsg msg = underTest_.convertMessage(new Message("topic", "me", "n1,n2"))
+        msg.removeFirst()
+        def result = MessageCodec.decodeHeader("topic", msg.removeFirst().getData(), other)
+        expect: underTest_.sendNodes_.size() == 0
+        and:    underTest_.sendNodes_.fingerprint() == underTest_.nodes_.fingerprint()
+        and:    result.sender == "me"
+        and:    result.targetsContains("n1")
+        and:    result.targetsContains("n2")
+        cleanup: underTest_.sendNodes_ = underTest_.nodes_
+    }
 }
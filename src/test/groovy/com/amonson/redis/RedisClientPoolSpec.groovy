@@ -0,0 +1,99 @@
+package com.amonson.redis
+
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.JedisPool
+import redis.clients.jedis.Pipeline
+import redis.clients.jedis.Response
+import redis.clients.jedis.exceptions.JedisConnectionException
+import redis.clients.jedis.exceptions.JedisException
+import redis.clients.jedis.params.SetParams
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class RedisClientPoolSpec extends Specification {
+    def jedis_
+    def pipeline_
+    def pool_
+    def dbs_ = []
+
+    def underTest_
+    void setup() {
+        jedis_ = Mock(Jedis)
+        pipeline_ = Mock(Pipeline)
+        pool_ = Mock(JedisPool)
+        jedis_.pipelined() >> pipeline_
+        pool_.getResource() >> jedis_
+
+        underTest_ = new RedisClientPool("localhost", 6379, null)
+        underTest_.poolFactory_ = { int db -> dbs_.add(db); pool_ } as RedisClientPool.PoolFactory
+    }
+
+    void cleanup() {
+        underTest_.close()
+    }
+
+    def "Test Execute"() {
+        jedis_.get("key") >> "value"
+        expect: underTest_.execute(3, { it.get("key") }) == "value"
+        and:    underTest_.execute(3, { it.get("key") }) == "value"
+        and:    dbs_ == [3]
+    }
+
+    def "Test Submit"() {
+        def response = Mock(Response)
+        response.get() >> "value"
+        pipeline_.get("key") >> response
+        def future = underTest_.submit(1, { it.get("key") })
+        expect: future.get(5, TimeUnit.SECONDS) == "value"
+    }
+
+    def "Test Submit failure"() {
+        pipeline_.sync() >> { throw new JedisConnectionException("TEST") }
+        def future = underTest_.submit(1, { it.get("key") })
+        when: future.get(5, TimeUnit.SECONDS)
+        then: def e = thrown(ExecutionException)
+        and:  e.cause instanceof JedisConnectionException
+    }
+
+    def "Test Submit after close"() {
+        underTest_.close()
+        def future = underTest_.submit(1, { it.get("key") })
+        when: future.get(5, TimeUnit.SECONDS)
+        then: def e = thrown(ExecutionException)
+        and:  e.cause instanceof JedisException
+    }
+
+    def "Test GetAll"() {
+        jedis_.mget("a", "b", "c") >> ["1", null, "3"]
+        expect: underTest_.getAll(0, ["a", "b", "c"]) == [a: "1", c: "3"]
+        and:    underTest_.getAll(0, []) == [:]
+    }
+
+    def "Test SetAll"() {
+        def params = SetParams.setParams().px(1000L)
+        when: underTest_.setAll(0, [a: "1", b: "2"], params)
+        then: 1 * pipeline_.set("a", "1", params)
+        and:  1 * pipeline_.set("b", "2", params)
+        and:  1 * pipeline_.syncAndReturnAll()
+    }
+
+    def "Test Execute after close"() {
+        underTest_.close()
+        when: underTest_.execute(0, { it.get("key") })
+        then: thrown(JedisException)
+    }
+
+    def "Test ctor() with bad inputs"() {
+        when: new RedisClientPool(host, port, null, connections)
+        then: thrown(IllegalArgumentException)
+        where:
+        host        | port  | connections
+        null        | 6379  | 8
+        ""          | 6379  | 8
+        "localhost" | 0     | 8
+        "localhost" | 65536 | 8
+        "localhost" | 6379  | 1
+    }
+}
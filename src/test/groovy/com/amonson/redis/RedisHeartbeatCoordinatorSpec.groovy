@@ -0,0 +1,85 @@
+package com.amonson.redis
+
+import redis.clients.jedis.Pipeline
+import redis.clients.jedis.exceptions.JedisConnectionException
+import redis.clients.jedis.params.SetParams
+import spock.lang.Specification
+
+import java.util.function.Consumer
+
+class RedisHeartbeatCoordinatorSpec extends Specification {
+    def pool_
+    def pipeline_
+    def batches_ = 0
+
+    def underTest_
+    void setup() {
+        pool_ = Mock(RedisClientPool)
+        pipeline_ = Mock(Pipeline)
+        pool_.pipelined(0, _) >> { int db, Consumer<Pipeline> commands -> batches_++; commands.accept(pipeline_); [] }
+        underTest_ = new RedisHeartbeatCoordinator(pool_, 0, 500)
+        underTest_.executor_.shutdownNow() // Ticks are driven by the tests.
+    }
+
+    def "Test Tick writes all due variables in one batch"() {
+        underTest_.register("A")
+        underTest_.register("B", 1000)
+        when: underTest_.tick()
+        then: 1 * pipeline_.set("proofOfLife.A", _ as String, _ as SetParams)
+        and:  1 * pipeline_.set("proofOfLife.B", _ as String, _ as SetParams)
+        and:  batches_ == 1
+    }
+
+    def "Test Tick skips variables not due"() {
+        underTest_.register("A")
+        underTest_.tick()
+        when: underTest_.tick()
+        then: 0 * pipeline_.set(*_)
+        and:  batches_ == 1
+    }
+
+    def "Test Tick retries after failure"() {
+        def failing = Mock(RedisClientPool)
+        failing.pipelined(0, _) >> { throw new JedisConnectionException("TEST") }
+        def coordinator = new RedisHeartbeatCoordinator(failing, 0)
+        coordinator.executor_.shutdownNow()
+        coordinator.register("A")
+        coordinator.tick()
+        coordinator.tick()
+        expect: coordinator.getErrorCount() == 2
+    }
+
+    def "Test Unregister"() {
+        underTest_.register("A")
+        underTest_.unregister("A")
+        underTest_.unregister(null)
+        underTest_.tick()
+        expect: !underTest_.isRegistered("A")
+        and:    batches_ == 0
+    }
+
+    def "Test Register with bad inputs"() {
+        when: underTest_.register(name, period)
+        then: thrown(IllegalArgumentException)
+        where:
+        name | period
+        null | 5000
+        ""   | 5000
+        "A"  | 499
+    }
+
+    def "Test ctor() with bad inputs"() {
+        when: new RedisHeartbeatCoordinator(pool, db, tick)
+        then: thrown(IllegalArgumentException)
+        where:
+        pool                  | db | tick
+        null                  | 0  | 250
+        Mock(RedisClientPool) | -1 | 250
+        Mock(RedisClientPool) | 0  | 5
+        Mock(RedisClientPool) | 0  | 501
+    }
+
+    void cleanup() {
+        underTest_.close()
+    }
+}
@@ -0,0 +1,108 @@
+package com.amonson.redis
+
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.exceptions.JedisConnectionException
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+class RedisIdAllocatorSpec extends Specification {
+    def counter_ = new AtomicLong(0L)
+    def underTest_
+
+    void setup() {
+        underTest_ = new RedisIdAllocator(Mock(Jedis), 0, "testKey", 16, 1024)
+        underTest_.reserver_ = { int size -> counter_.addAndGet(size) } as RedisIdAllocator.BlockReserver
+    }
+
+    void cleanup() {
+        underTest_.close()
+    }
+
+    def "Test GetNext"() {
+        expect: underTest_.getNext() == 0L
+        and:    underTest_.getNext() == 1L
+        and:    underTest_.getBlockSize() == 16
+    }
+
+    def "Test GetNext crosses blocks"() {
+        def ids = (0..<100).collect { underTest_.getNext() }
+        expect: ids == (0L..<100L).toList()
+    }
+
+    def "Test GetNext adapts block size"() {
+        (0..<10_000).each { underTest_.getNext() }
+        expect: underTest_.getBlockSize() > 16
+    }
+
+    def "Test GetNext is unique across threads"() {
+        def ids = ConcurrentHashMap.newKeySet()
+        def pool = Executors.newFixedThreadPool(8)
+        8.times { pool.execute({ 1_000.times { ids.add(underTest_.getNext()) } }) }
+        pool.shutdown()
+        pool.awaitTermination(30, TimeUnit.SECONDS)
+        expect: ids.size() == 8_000
+    }
+
+    def "Test GetNext failure"() {
+        underTest_.maximumWaitMilliseconds_ = 200L
+        underTest_.reserver_ = { int size -> throw new JedisConnectionException("TEST") } as RedisIdAllocator.BlockReserver
+        when: underTest_.getNext()
+        then: thrown(RedisException)
+        and:  underTest_.getReservationFailures() > 0
+        and:  underTest_.getBlockedCount() == 1
+        and:  underTest_.getBlockedNanoseconds() > 0
+    }
+
+    def "Test GetNext uses reserved blocks during outage"() {
+        def available = true
+        underTest_.reserver_ = { int size ->
+            if(!available)
+                throw new JedisConnectionException("TEST")
+            counter_.addAndGet(size)
+        } as RedisIdAllocator.BlockReserver
+        underTest_.getNext()
+        while(underTest_.reserved_.size() < 2)
+            Thread.sleep(1)
+        available = false
+        def ids = (0..<40).collect { underTest_.getNext() }
+        expect: ids.size() == 40
+        and:    underTest_.getBlockedCount() == 1
+    }
+
+    def "Test ctor() with bad inputs"() {
+        when: new RedisIdAllocator(client, db, name, min, max, reserved)
+        then: thrown(IllegalArgumentException)
+        where:
+        client      | db | name      | min | max | reserved
+        null        | 0  | "testkey" | 16  | 32  | 2
+        Mock(Jedis) | -1 | "testKey" | 16  | 32  | 2
+        Mock(Jedis) | 0  | null      | 16  | 32  | 2
+        Mock(Jedis) | 0  | ""        | 16  | 32  | 2
+        Mock(Jedis) | 0  | "testKey" | 1   | 32  | 2
+        Mock(Jedis) | 0  | "testKey" | 16  | 8   | 2
+        Mock(Jedis) | 0  | "testKey" | 16  | 32  | 0
+    }
+
+    def "Test GetNext with pool"() {
+        def pool = Mock(RedisClientPool)
+        pool.execute(0, _) >> { int db, fn -> counter_.addAndGet(16) }
+        def allocator = new RedisIdAllocator(pool, 0, "testKey", 16, 1024, 2)
+        expect: allocator.getNext() == 0L
+        and:    allocator.getNext() == 1L
+        cleanup: allocator.close()
+    }
+
+    def "Test ctor() with bad pool inputs"() {
+        when: new RedisIdAllocator(pool, db, name, 16, 32, 2)
+        then: thrown(IllegalArgumentException)
+        where:
+        pool                  | db | name
+        null                  | 0  | "testkey"
+        Mock(RedisClientPool) | -1 | "testKey"
+        Mock(RedisClientPool) | 0  | ""
+    }
+}
@@ -4,6 +4,8 @@ import redis.clients.jedis.Jedis
 import redis.clients.jedis.Transaction
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+
 class RedisProofOfLifeVariableSpec extends Specification {
     def client_
 
@@ -43,4 +45,24 @@ class RedisProofOfLifeVariableSpec extends Specification {
         Mock(Jedis) | 0  | ""   | 5000
         Mock(Jedis) | 0  | "A"  | 50
     }
+
+    def "Test Run with pool"() {
+        def pool = Mock(RedisClientPool)
+        pool.submit(0, _) >> CompletableFuture.completedFuture("OK")
+        def variable = new RedisProofOfLifeVariable(pool, 0, "testKey")
+        variable.run()
+        expect: variable.isRunning()
+        variable.stop()
+    }
+
+    def "Test ctor() with bad pool input"() {
+        when: new RedisProofOfLifeVariable(pool, db, name, period)
+        then: thrown(IllegalArgumentException)
+        where:
+        pool                  | db | name | period
+        null                  | 0  | "A"  | 5000
+        Mock(RedisClientPool) | -1 | "A"  | 5000
+        Mock(RedisClientPool) | 0  | ""   | 5000
+        Mock(RedisClientPool) | 0  | "A"  | 50
+    }
 }
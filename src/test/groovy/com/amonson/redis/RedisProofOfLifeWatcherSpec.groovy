@@ -0,0 +1,92 @@
+package com.amonson.redis
+
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.ScanParams
+import redis.clients.jedis.ScanResult
+import redis.clients.jedis.exceptions.JedisConnectionException
+import spock.lang.Specification
+
+import java.util.function.Function
+
+class RedisProofOfLifeWatcherSpec extends Specification {
+    def pool_
+    def jedis_
+    def events_ = []
+
+    def underTest_
+    void setup() {
+        pool_ = Mock(RedisClientPool)
+        jedis_ = Mock(Jedis)
+        pool_.execute(2, _) >> { int db, Function function -> function.apply(jedis_) }
+        def listener = [
+                alive: { String name -> events_.add("alive:" + name) },
+                expired: { String name -> events_.add("expired:" + name) }
+        ] as RedisProofOfLifeWatcher.Listener
+        underTest_ = new RedisProofOfLifeWatcher(pool_, 2, listener)
+    }
+
+    def "Test notifications"() {
+        underTest_.notification("__keyspace@2__:proofOfLife.A", "set")
+        underTest_.notification("__keyspace@2__:proofOfLife.A", "set")
+        underTest_.notification("__keyspace@2__:proofOfLife.B", "set")
+        underTest_.notification("__keyspace@2__:proofOfLife.A", "expired")
+        underTest_.notification("__keyspace@2__:proofOfLife.C", "expired")
+        underTest_.notification("__keyspace@3__:proofOfLife.D", "set")
+        underTest_.notification("__keyspace@2__:proofOfLife.B", "expire")
+        expect: events_ == ["alive:A", "alive:B", "expired:A"]
+        and:    underTest_.getAlive() == ["B"] as Set
+        and:    underTest_.isAlive("B")
+        and:    !underTest_.isAlive("A")
+    }
+
+    def "Test resynchronize scans in batches"() {
+        def first = Mock(ScanResult)
+        first.getResult() >> ["proofOfLife.A"]
+        first.getCursor() >> "17"
+        def second = Mock(ScanResult)
+        second.getResult() >> ["proofOfLife.B"]
+        second.getCursor() >> ScanParams.SCAN_POINTER_START
+        jedis_.scan(ScanParams.SCAN_POINTER_START, _ as ScanParams) >> first
+        jedis_.scan("17", _ as ScanParams) >> second
+        underTest_.notification("__keyspace@2__:proofOfLife.C", "set")
+        underTest_.resynchronize()
+        expect: events_ == ["alive:C", "expired:C", "alive:A", "alive:B"] ||
+                events_ == ["alive:C", "expired:C", "alive:B", "alive:A"]
+        and:    underTest_.getAlive() == ["A", "B"] as Set
+    }
+
+    def "Test failed scan is retried after the delay"() {
+        jedis_.psubscribe(_, _) >> { underTest_.subscriber_.onPSubscribe("pattern", 1) }
+        jedis_.scan(_, _) >> { throw new JedisConnectionException("down") }
+        expect: !underTest_.subscribe()
+        and:    underTest_.scanFailed_
+    }
+
+    def "Test ended subscription is resubscribed at once"() {
+        def result = Mock(ScanResult)
+        result.getResult() >> []
+        result.getCursor() >> ScanParams.SCAN_POINTER_START
+        jedis_.scan(_, _) >> result
+        jedis_.psubscribe(_, _) >> { underTest_.subscriber_.onPSubscribe("pattern", 1) }
+        expect: underTest_.subscribe()
+    }
+
+    def "Test Run and Stop"() {
+        underTest_.run()
+        underTest_.run()
+        expect: underTest_.isRunning()
+        underTest_.stop()
+        underTest_.stop()
+        !underTest_.isRunning()
+    }
+
+    def "Test ctor() with bad inputs"() {
+        when: new RedisProofOfLifeWatcher(pool, db, listener)
+        then: thrown(IllegalArgumentException)
+        where:
+        pool                  | db | listener
+        null                  | 0  | Mock(RedisProofOfLifeWatcher.Listener)
+        Mock(RedisClientPool) | -1 | Mock(RedisProofOfLifeWatcher.Listener)
+        Mock(RedisClientPool) | 0  | null
+    }
+}
@@ -35,6 +35,14 @@ class RedisUniqueIdSpec extends Specification {
         expect: underTest_.getNext() == 0L
     }
 
+    def "Test GetNext with pool"() {
+        def pool = Mock(RedisClientPool)
+        pool.execute(0, _) >>> [ 16384L, 16384L ]
+        def uniqueId = new RedisUniqueId(pool, 0, "testKey")
+        expect: uniqueId.getNext() == 0L
+        and:    uniqueId.getNext() == 1L
+    }
+
     def "Test ctor() with bad inputs"() {
         when: new RedisUniqueId(client, db, name)
         then: thrown(IllegalArgumentException)
@@ -45,4 +53,14 @@ class RedisUniqueIdSpec extends Specification {
         Mock(Jedis) | 0  | null
         Mock(Jedis) | 0  | ""
     }
+
+    def "Test ctor() with bad pool inputs"() {
+        when: new RedisUniqueId(pool, db, name)
+        then: thrown(IllegalArgumentException)
+        where:
+        pool                  | db | name
+        null                  | 0  | "testkey"
+        Mock(RedisClientPool) | -1 | "testKey"
+        Mock(RedisClientPool) | 0  | null
+    }
 }
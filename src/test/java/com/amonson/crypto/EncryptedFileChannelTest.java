@@ -0,0 +1,143 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EncryptedFileChannelTest {
+    private KeyData key_ = null;
+    private final Path file_ = Paths.get("file3.tmp");
+
+    @BeforeEach
+    public void setup() throws Exception {
+        if(key_ == null)
+            key_ = KeyData.newKeyData();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file_);
+    }
+
+    private byte[] data(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private void write(EncryptionMode mode, int segmentSize, byte[] data) throws Exception {
+        try (EncryptedFileChannelWriter writer = new EncryptedFileChannelWriter(file_, key_, mode, segmentSize)) {
+            int offset = 0;
+            while(offset < data.length) { // Uneven writes that cross segment boundaries.
+                int count = Math.min(data.length - offset, 1000);
+                assertEquals(count, writer.write(ByteBuffer.wrap(data, offset, count)));
+                offset += count;
+            }
+        }
+    }
+
+    private byte[] read(EncryptionMode mode) throws Exception {
+        try (EncryptedFileChannelReader reader = new EncryptedFileChannelReader(file_, key_, mode)) {
+            ByteBuffer result = ByteBuffer.allocate((int)Files.size(file_));
+            ByteBuffer buffer = ByteBuffer.allocate(777);
+            while(reader.read(buffer) >= 0) {
+                buffer.flip();
+                result.put(buffer);
+                buffer.clear();
+            }
+            return Arrays.copyOf(result.array(), result.position());
+        }
+    }
+
+    @Test
+    public void roundTripGcm() throws Exception {
+        for(int size: new int[] {0, 1, 4096, 4097, 20000}) {
+            byte[] data = data(size);
+            write(EncryptionMode.GCM, 4096, data);
+            assertArrayEquals(data, read(EncryptionMode.GCM));
+        }
+    }
+
+    @Test
+    public void roundTripCbcCompatibleWithStreams() throws Exception {
+        byte[] data = data(10000);
+        write(EncryptionMode.CBC, 4096, data);
+        assertArrayEquals(data, read(EncryptionMode.CBC));
+        try (EncryptedFileInputStream stream = new EncryptedFileInputStream(file_.toFile(), key_)) {
+            assertArrayEquals(data, stream.readAllBytes());
+        }
+        try (EncryptedFileOutputStream stream = new EncryptedFileOutputStream(file_.toFile(), key_, false)) {
+            stream.write(data);
+        }
+        assertArrayEquals(data, read(EncryptionMode.CBC));
+    }
+
+    @Test
+    public void roundTripCbcOddSegmentSize() throws Exception {
+        for(int size: new int[] {0, 1, 17, 100, 10000}) {
+            byte[] data = data(size);
+            write(EncryptionMode.CBC, 17, data);
+            assertArrayEquals(data, read(EncryptionMode.CBC));
+        }
+    }
+
+    @Test
+    public void tamperedSegment() throws Exception {
+        write(EncryptionMode.GCM, 4096, data(10000));
+        byte[] bytes = Files.readAllBytes(file_);
+        bytes[5000] ^= 1;
+        Files.write(file_, bytes);
+        assertThrows(IOException.class, () -> read(EncryptionMode.GCM));
+    }
+
+    @Test
+    public void truncatedOnSegmentBoundary() throws Exception {
+        write(EncryptionMode.GCM, 4096, data(10000));
+        byte[] bytes = Files.readAllBytes(file_);
+        Files.write(file_, Arrays.copyOf(bytes, SegmentCipher.HEADER_SIZE + 4096 + SegmentCipher.TAG_SIZE));
+        assertThrows(IOException.class, () -> read(EncryptionMode.GCM));
+    }
+
+    @Test
+    public void wrongKey() throws Exception {
+        write(EncryptionMode.GCM, 4096, data(100));
+        key_ = KeyData.newKeyData();
+        assertThrows(IOException.class, () -> read(EncryptionMode.GCM));
+    }
+
+    @Test
+    public void notSegmentedFormat() throws Exception {
+        write(EncryptionMode.CBC, 4096, data(100));
+        assertThrows(Exception.class, () -> read(EncryptionMode.GCM));
+    }
+
+    @Test
+    public void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedFileChannelWriter(null, key_));
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedFileChannelWriter(file_, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EncryptedFileChannelWriter(file_, key_, EncryptionMode.GCM, 8));
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedFileChannelReader(file_, key_, null));
+    }
+
+    @Test
+    public void closedChannel() throws Exception {
+        EncryptedFileChannelWriter writer = new EncryptedFileChannelWriter(file_, key_);
+        writer.close();
+        assertFalse(writer.isOpen());
+        writer.close();
+        assertThrows(IOException.class, () -> writer.write(ByteBuffer.allocate(1)));
+    }
+}
@@ -79,4 +79,56 @@ public class EncryptedFileInputStreamTest {
         stream.read(bytes);
         stream.close();
     }
+
+    @Test
+    public void randomIV() throws Exception {
+        File file = new File("file.tmp");
+        try (EncryptedFileOutputStream stream = new EncryptedFileOutputStream(file, key_, true)) {
+            stream.write(golden_.getBytes());
+        }
+        byte[] first = java.nio.file.Files.readAllBytes(file.toPath());
+        try (EncryptedFileInputStream stream = new EncryptedFileInputStream(file, key_, true)) {
+            Assertions.assertEquals(golden_, new String(stream.readAllBytes()));
+        }
+        try (EncryptedFileOutputStream stream = new EncryptedFileOutputStream("file.tmp", key_, true)) {
+            stream.write(golden_.getBytes());
+        }
+        Assertions.assertFalse(java.util.Arrays.equals(first, java.nio.file.Files.readAllBytes(file.toPath())));
+        try (EncryptedFileInputStream stream = new EncryptedFileInputStream("file.tmp", key_, true)) {
+            Assertions.assertEquals(golden_, new String(stream.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void randomIVByDefault() throws Exception {
+        byte[] first = java.nio.file.Files.readAllBytes(new File("file.tmp").toPath());
+        Assertions.assertEquals(EncryptedFileOutputStream.HEADER_SIZE + 48, first.length);
+        try (EncryptedFileOutputStream stream = new EncryptedFileOutputStream("file.tmp", key_)) {
+            stream.write(golden_.getBytes());
+        }
+        Assertions.assertFalse(java.util.Arrays.equals(first,
+                java.nio.file.Files.readAllBytes(new File("file.tmp").toPath())));
+    }
+
+    @Test
+    public void legacyFile() throws Exception {
+        try (EncryptedFileOutputStream stream = new EncryptedFileOutputStream("file.tmp", key_, false)) {
+            stream.write(golden_.getBytes());
+        }
+        Assertions.assertEquals(48, new File("file.tmp").length());
+        try (EncryptedFileInputStream stream = new EncryptedFileInputStream("file.tmp", key_)) {
+            Assertions.assertEquals(golden_, new String(stream.readAllBytes()));
+        }
+        try (EncryptedFileInputStream stream = new EncryptedFileInputStream("file.tmp", key_, false)) {
+            Assertions.assertEquals(golden_, new String(stream.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void randomIVMissingHeader() throws Exception {
+        try (EncryptedFileOutputStream stream = new EncryptedFileOutputStream("file.tmp", key_, false)) {
+            stream.write(golden_.getBytes());
+        }
+        Assertions.assertThrows(java.io.IOException.class, () -> new EncryptedFileInputStream("file.tmp", key_, true));
+    }
 }
@@ -0,0 +1,116 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EncryptedSeekableFileChannelTest {
+    private KeyData key_ = null;
+    private byte[] data_ = null;
+    private final Path file_ = Paths.get("file4.tmp");
+
+    @BeforeEach
+    public void setup() throws Exception {
+        if(key_ == null)
+            key_ = KeyData.newKeyData();
+        data_ = new byte[10000];
+        new Random(7).nextBytes(data_);
+        try (EncryptedFileChannelWriter writer = new EncryptedFileChannelWriter(file_, key_, EncryptionMode.GCM,
+                1024)) {
+            writer.write(ByteBuffer.wrap(data_));
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file_);
+    }
+
+    @Test
+    public void size() throws Exception {
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            assertEquals(10000L, channel.size());
+            assertEquals(0L, channel.position());
+        }
+    }
+
+    @Test
+    public void seekAndRead() throws Exception {
+        Random random = new Random(11);
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            for(int i = 0; i < 100; i++) {
+                int position = random.nextInt(data_.length);
+                int length = Math.min(data_.length - position, 1 + random.nextInt(3000));
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                channel.position(position);
+                while(buffer.hasRemaining())
+                    assertTrue(channel.read(buffer) > 0);
+                assertEquals(position + length, channel.position());
+                assertArrayEquals(Arrays.copyOfRange(data_, position, position + length), buffer.array());
+            }
+        }
+    }
+
+    @Test
+    public void positionalRead() throws Exception {
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            assertEquals(100, channel.read(buffer, 9000L));
+            assertEquals(0L, channel.position());
+            assertArrayEquals(Arrays.copyOfRange(data_, 9000, 9100), buffer.array());
+            buffer.clear();
+            assertEquals(50, channel.read(buffer, 9950L));
+            assertEquals(-1, channel.read(buffer, 10000L));
+        }
+    }
+
+    @Test
+    public void readPastEnd() throws Exception {
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            channel.position(20000L);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+            assertThrows(IllegalArgumentException.class, () -> channel.position(-1L));
+        }
+    }
+
+    @Test
+    public void readOnly() throws Exception {
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+            assertThrows(NonWritableChannelException.class, () -> channel.truncate(0L));
+        }
+    }
+
+    @Test
+    public void truncatedOnSegmentBoundary() throws Exception {
+        byte[] bytes = Files.readAllBytes(file_);
+        Files.write(file_, Arrays.copyOf(bytes, SegmentCipher.HEADER_SIZE + 2 * (1024 + SegmentCipher.TAG_SIZE)));
+        assertThrows(IOException.class, () -> new EncryptedSeekableFileChannel(file_, key_));
+    }
+
+    @Test
+    public void tamperedSegment() throws Exception {
+        byte[] bytes = Files.readAllBytes(file_);
+        bytes[SegmentCipher.HEADER_SIZE + 3 * (1024 + SegmentCipher.TAG_SIZE) + 5] ^= 1;
+        Files.write(file_, bytes);
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            assertEquals(10, channel.read(buffer, 0L));
+            buffer.clear();
+            assertThrows(IOException.class, () -> channel.read(buffer, 3 * 1024L));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amonson.prop_store.PropMap;
+import com.amonson.prop_store.PropStore;
+import com.amonson.prop_store.PropStoreFactory;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EncryptedSegmentStreamTest {
+    private KeyData key_ = null;
+    private final Path file_ = Paths.get("file8.tmp");
+
+    @BeforeEach
+    public void setup() throws Exception {
+        if(key_ == null)
+            key_ = KeyData.newKeyData();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file_);
+    }
+
+    private byte[] encrypt(byte[] data, CompressionCodec codec, int segmentSize) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (EncryptedSegmentOutputStream stream = new EncryptedSegmentOutputStream(bytes, key_, codec,
+                segmentSize)) {
+            for(int offset = 0; offset < data.length; offset += 1000)
+                stream.write(data, offset, Math.min(1000, data.length - offset));
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws Exception {
+        try (EncryptedSegmentInputStream stream = new EncryptedSegmentInputStream(
+                new ByteArrayInputStream(encrypted), key_)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    // Encrypt already compressed data as a single segment so the data after the compressed data can be chosen.
+    private byte[] encryptCompressed(byte[] compressed, CompressionCodec codec) throws Exception {
+        SegmentCipher segments = SegmentCipher.create(key_, 4096, codec.id());
+        ByteBuffer encrypted = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE + segments.encryptedSegmentSize());
+        encrypted.put(segments.header());
+        segments.encrypt(0L, true, ByteBuffer.wrap(compressed), encrypted);
+        return Arrays.copyOf(encrypted.array(), encrypted.position());
+    }
+
+    private byte[] text(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(size);
+        for(int i = 0; i < size; i++)
+            data[i] = (byte)('a' + random.nextInt(4)); // Compressible.
+        return data;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        for(CompressionCodec codec: CompressionCodec.values()) {
+            for(int size: new int[] {0, 1, 256, 10000, 100000}) {
+                byte[] data = text(size);
+                assertArrayEquals(data, decrypt(encrypt(data, codec, 256)), codec + " " + size);
+            }
+        }
+    }
+
+    @Test
+    public void compresses() throws Exception {
+        byte[] data = text(100000);
+        int plain = encrypt(data, CompressionCodec.NONE, 4096).length;
+        assertTrue(encrypt(data, CompressionCodec.DEFLATE, 4096).length < plain / 2);
+        assertTrue(encrypt(data, CompressionCodec.GZIP, 4096).length < plain / 2);
+    }
+
+    @Test
+    public void truncated() throws Exception {
+        for(CompressionCodec codec: CompressionCodec.values()) {
+            byte[] encrypted = encrypt(text(10000), codec, 256);
+            int boundary = SegmentCipher.HEADER_SIZE + 3 * (256 + SegmentCipher.TAG_SIZE);
+            assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, boundary)), codec.name());
+            assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, encrypted.length - 1)));
+        }
+    }
+
+    @Test
+    public void trailingData() throws Exception {
+        byte[] data = text(1000);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(deflated)) {
+            stream.write(data);
+        }
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream stream = new GZIPOutputStream(gzipped)) {
+            stream.write(data);
+        }
+        assertArrayEquals(data, decrypt(encryptCompressed(deflated.toByteArray(), CompressionCodec.DEFLATE)));
+        assertArrayEquals(data, decrypt(encryptCompressed(gzipped.toByteArray(), CompressionCodec.GZIP)));
+        byte[] deflatedTrailing = Arrays.copyOf(deflated.toByteArray(), deflated.size() + 1);
+        assertThrows(IOException.class,
+                () -> decrypt(encryptCompressed(deflatedTrailing, CompressionCodec.DEFLATE)));
+        byte[] gzippedTrailing = Arrays.copyOf(gzipped.toByteArray(), gzipped.size() + 1);
+        assertThrows(IOException.class, () -> decrypt(encryptCompressed(gzippedTrailing, CompressionCodec.GZIP)));
+        byte[] members = Arrays.copyOf(gzipped.toByteArray(), gzipped.size() * 2);
+        System.arraycopy(gzipped.toByteArray(), 0, members, gzipped.size(), gzipped.size());
+        assertThrows(IOException.class, () -> decrypt(encryptCompressed(members, CompressionCodec.GZIP)));
+    }
+
+    @Test
+    public void tampered() throws Exception {
+        byte[] encrypted = encrypt(text(10000), CompressionCodec.GZIP, 256);
+        encrypted[SegmentCipher.HEADER_SIZE + 10] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+    }
+
+    @Test
+    public void interchangeableWithChannels() throws Exception {
+        byte[] data = text(10000);
+        Files.write(file_, encrypt(data, CompressionCodec.NONE, 1024));
+        try (EncryptedSeekableFileChannel channel = new EncryptedSeekableFileChannel(file_, key_)) {
+            assertEquals(data.length, channel.size());
+        }
+        Files.write(file_, encrypt(data, CompressionCodec.DEFLATE, 1024));
+        assertThrows(IOException.class, () -> new EncryptedFileChannelReader(file_, key_));
+        assertArrayEquals(data, decrypt(Files.readAllBytes(file_)));
+    }
+
+    @Test
+    public void propStore() throws Exception {
+        PropStore store = PropStoreFactory.getStore("yaml");
+        PropMap map = new PropMap();
+        map.put("name", "value");
+        map.put("count", 42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.writeTo(new EncryptedSegmentOutputStream(bytes, key_, CompressionCodec.GZIP), map);
+        PropMap result = store.readMap(new EncryptedSegmentInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()), key_));
+        assertEquals("value", result.getString("name"));
+        assertEquals(42, result.getInteger("count"));
+    }
+
+    @Test
+    public void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedSegmentOutputStream(null, key_));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EncryptedSegmentOutputStream(new ByteArrayOutputStream(), key_, null));
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedSegmentInputStream(null, key_));
+    }
+}
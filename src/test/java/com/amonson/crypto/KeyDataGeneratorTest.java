@@ -0,0 +1,46 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyDataGeneratorTest {
+    @Test
+    public void newKeyData() {
+        Set<String> seen = new HashSet<>();
+        for(int i = 0; i < 100; i++) {
+            KeyData data = KeyDataGenerator.newKeyData();
+            assertEquals(16, data.IVAsBytes().length);
+            assertEquals(KeyData.BYTES, data.keyAsBytes().length);
+            assertTrue(seen.add(data.key()));
+            assertTrue(seen.add(data.IV()));
+        }
+    }
+
+    @Test
+    public void nextBytes() {
+        byte[] first = new byte[32];
+        byte[] second = new byte[32];
+        KeyDataGenerator.nextBytes(first);
+        KeyDataGenerator.nextBytes(second);
+        assertFalse(java.util.Arrays.equals(first, second));
+    }
+
+    @Test
+    public void randomPerThread() throws Exception {
+        AtomicReference<Object> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> other.set(KeyDataGenerator.random()));
+        thread.start();
+        thread.join();
+        assertSame(KeyDataGenerator.random(), KeyDataGenerator.random());
+        assertNotSame(KeyDataGenerator.random(), other.get());
+    }
+}
@@ -63,6 +63,25 @@ public class KeyDataTest {
         }
     }
 
+    @Test
+    public void cachedKeyMaterial() {
+        assertArrayEquals(new byte[KeyData.BYTES], keyObj.keyAsBytes());
+        keyObj.keyAsBytes()[0] = 1; // Callers get copies.
+        assertArrayEquals(new byte[KeyData.BYTES], keyObj.keyAsBytes());
+        assertSame(keyObj.secretKey(), keyObj.secretKey());
+        assertSame(keyObj.ivSpec(), keyObj.ivSpec());
+        keyObj.key_ = one; // i.e. Gson setting the field.
+        assertEquals(1, keyObj.keyAsBytes()[0]);
+        assertEquals(1, keyObj.secretKey().getEncoded()[0]);
+    }
+
+    @Test
+    public void getCipher() throws Exception {
+        assertNotSame(KeyData.getCipher("AES/CBC/PKCS5PADDING"), KeyData.getCipher("AES/CBC/PKCS5PADDING"));
+        assertEquals(KeyData.getCipher("AES/GCM/NoPadding").getProvider(),
+                KeyData.getCipher("AES/GCM/NoPadding").getProvider());
+    }
+
     private KeyData keyObj;
     private String sZero;
     private String sIv;
@@ -0,0 +1,152 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedEncryptedFileTest {
+    private KeyData key_ = null;
+    private byte[] data_ = null;
+    private final Path file_ = Paths.get("file9.tmp");
+
+    @BeforeEach
+    public void setup() throws Exception {
+        if(key_ == null)
+            key_ = KeyData.newKeyData();
+        data_ = new byte[10000];
+        new Random(3).nextBytes(data_);
+        try (EncryptedFileChannelWriter writer = new EncryptedFileChannelWriter(file_, key_, EncryptionMode.GCM,
+                1024)) {
+            writer.write(ByteBuffer.wrap(data_));
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file_);
+    }
+
+    @Test
+    public void inputStream() throws Exception {
+        try (MappedEncryptedFile file = new MappedEncryptedFile(file_, key_, 2)) {
+            assertEquals(10000L, file.size());
+            for(int scan = 0; scan < 2; scan++) {
+                try (InputStream stream = file.newInputStream()) {
+                    assertArrayEquals(data_, stream.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void skipMarkReset() throws Exception {
+        try (MappedEncryptedFile file = new MappedEncryptedFile(file_, key_);
+             InputStream stream = file.newInputStream()) {
+            assertEquals(5000L, stream.skip(5000L));
+            assertTrue(stream.markSupported());
+            stream.mark(0);
+            assertEquals(data_[5000] & 0xff, stream.read());
+            stream.reset();
+            byte[] bytes = new byte[100];
+            assertEquals(100, stream.read(bytes));
+            assertArrayEquals(Arrays.copyOfRange(data_, 5000, 5100), bytes);
+            assertEquals(4900, stream.available());
+            assertEquals(4900L, stream.skip(10000L));
+            assertEquals(-1, stream.read());
+        }
+    }
+
+    @Test
+    public void positionalRead() throws Exception {
+        Random random = new Random(5);
+        try (MappedEncryptedFile file = new MappedEncryptedFile(file_, key_, 3)) {
+            for(int i = 0; i < 100; i++) {
+                int position = random.nextInt(data_.length);
+                ByteBuffer buffer = ByteBuffer.allocate(Math.min(data_.length - position, 1 + random.nextInt(3000)));
+                assertEquals(buffer.capacity(), file.read(buffer, position));
+                assertArrayEquals(Arrays.copyOfRange(data_, position, position + buffer.capacity()), buffer.array());
+            }
+            assertEquals(-1, file.read(ByteBuffer.allocate(1), 10000L));
+        }
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        try (MappedEncryptedFile file = new MappedEncryptedFile(file_, key_, 2)) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                for(int reader = 0; reader < 8; reader++) {
+                    Random random = new Random(reader);
+                    results.add(pool.submit(() -> {
+                        for(int i = 0; i < 200; i++) {
+                            int position = random.nextInt(data_.length);
+                            ByteBuffer buffer = ByteBuffer.allocate(Math.min(data_.length - position,
+                                    1 + random.nextInt(3000)));
+                            file.read(buffer, position);
+                            if(!Arrays.equals(Arrays.copyOfRange(data_, position, position + buffer.capacity()),
+                                    buffer.array()))
+                                return false;
+                        }
+                        return true;
+                    }));
+                }
+                for(Future<Boolean> result: results)
+                    assertTrue(result.get());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void tamperedSegment() throws Exception {
+        byte[] bytes = Files.readAllBytes(file_);
+        bytes[SegmentCipher.HEADER_SIZE + 2 * (1024 + SegmentCipher.TAG_SIZE) + 5] ^= 1;
+        Files.write(file_, bytes);
+        try (MappedEncryptedFile file = new MappedEncryptedFile(file_, key_, 1)) {
+            assertEquals(10, file.read(ByteBuffer.allocate(10), 0L));
+            assertThrows(IOException.class, () -> file.read(ByteBuffer.allocate(10), 2 * 1024L));
+            assertEquals(10, file.read(ByteBuffer.allocate(10), 3 * 1024L));
+        }
+    }
+
+    @Test
+    public void truncatedOnSegmentBoundary() throws Exception {
+        byte[] bytes = Files.readAllBytes(file_);
+        Files.write(file_, Arrays.copyOf(bytes, SegmentCipher.HEADER_SIZE + 2 * (1024 + SegmentCipher.TAG_SIZE)));
+        assertThrows(IOException.class, () -> new MappedEncryptedFile(file_, key_));
+    }
+
+    @Test
+    public void closed() throws Exception {
+        MappedEncryptedFile file = new MappedEncryptedFile(file_, key_);
+        file.close();
+        assertThrows(IOException.class, () -> file.read(ByteBuffer.allocate(10), 0L));
+    }
+
+    @Test
+    public void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new MappedEncryptedFile(null, key_));
+        assertThrows(IllegalArgumentException.class, () -> new MappedEncryptedFile(file_, null));
+        assertThrows(IllegalArgumentException.class, () -> new MappedEncryptedFile(file_, key_, 0));
+    }
+}
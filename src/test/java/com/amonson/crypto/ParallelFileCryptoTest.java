@@ -0,0 +1,112 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelFileCryptoTest {
+    private KeyData key_ = null;
+    private final Path plain_ = Paths.get("file5.tmp");
+    private final Path encrypted_ = Paths.get("file6.tmp");
+    private final Path decrypted_ = Paths.get("file7.tmp");
+    private static final ForkJoinPool pool_ = new ForkJoinPool(4);
+
+    @BeforeEach
+    public void setup() throws Exception {
+        if(key_ == null)
+            key_ = KeyData.newKeyData();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(plain_);
+        Files.deleteIfExists(encrypted_);
+        Files.deleteIfExists(decrypted_);
+    }
+
+    private byte[] writePlain(int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Files.write(plain_, data);
+        return data;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        ParallelFileCrypto crypto = new ParallelFileCrypto(key_, pool_, 1000);
+        for(int size: new int[] {0, 1, 1000, 1001, 100000}) {
+            byte[] data = writePlain(size);
+            crypto.encrypt(plain_, encrypted_);
+            crypto.decrypt(encrypted_, decrypted_);
+            assertArrayEquals(data, Files.readAllBytes(decrypted_));
+        }
+    }
+
+    @Test
+    public void interchangeableWithChannels() throws Exception {
+        byte[] data = writePlain(50000);
+        new ParallelFileCrypto(key_, pool_, 4096).encrypt(plain_, encrypted_);
+        try (EncryptedFileChannelReader reader = new EncryptedFileChannelReader(encrypted_, key_)) {
+            ByteBuffer buffer = ByteBuffer.allocate(data.length);
+            while(buffer.hasRemaining())
+                reader.read(buffer);
+            assertArrayEquals(data, buffer.array());
+        }
+        try (EncryptedFileChannelWriter writer = new EncryptedFileChannelWriter(encrypted_, key_)) {
+            writer.write(ByteBuffer.wrap(data));
+        }
+        new ParallelFileCrypto(key_).decrypt(encrypted_, decrypted_);
+        assertArrayEquals(data, Files.readAllBytes(decrypted_));
+    }
+
+    @Test
+    public void tamperedFileLeavesNoOutput() throws Exception {
+        writePlain(100000);
+        ParallelFileCrypto crypto = new ParallelFileCrypto(key_, pool_, 1000);
+        crypto.encrypt(plain_, encrypted_);
+        byte[] bytes = Files.readAllBytes(encrypted_);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(encrypted_, bytes);
+        assertThrows(IOException.class, () -> crypto.decrypt(encrypted_, decrypted_));
+        assertFalse(Files.exists(decrypted_));
+    }
+
+    @Test
+    public void calledFromAPoolWorker() throws Exception {
+        byte[] data = writePlain(100000);
+        ForkJoinPool caller = new ForkJoinPool(1);
+        try {
+            caller.submit(() -> {
+                ParallelFileCrypto crypto = new ParallelFileCrypto(key_, pool_, 1000);
+                crypto.encrypt(plain_, encrypted_);
+                new ParallelFileCrypto(key_).decrypt(encrypted_, decrypted_);
+                return null;
+            }).get();
+        } finally {
+            caller.shutdown();
+        }
+        assertArrayEquals(data, Files.readAllBytes(decrypted_));
+    }
+
+    @Test
+    public void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelFileCrypto(null));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelFileCrypto(key_, null, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelFileCrypto(key_, pool_, 8));
+        ParallelFileCrypto crypto = new ParallelFileCrypto(key_);
+        assertThrows(IllegalArgumentException.class, () -> crypto.encrypt(null, encrypted_));
+        assertThrows(IllegalArgumentException.class, () -> crypto.decrypt(plain_, null));
+    }
+}
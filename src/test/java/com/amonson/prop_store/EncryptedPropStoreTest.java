@@ -0,0 +1,130 @@
+// Copyright (C) 2021 Paul Amonson
+//
+// SPDX-License-Identifier: Apache-2.0
+//
+
+package com.amonson.prop_store;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EncryptedPropStoreTest {
+    private byte[] key_;
+    private EncryptedPropStore store_;
+
+    private static byte[] newKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    @BeforeEach
+    public void setup() {
+        key_ = newKey();
+        store_ = new EncryptedPropStore(new YamlStore(null), key_, List.of("database.password", "servers.1",
+                "missing.path"));
+    }
+
+    private PropMap document() {
+        PropMap database = new PropMap();
+        database.put("host", "db.local");
+        database.put("password", "secret");
+        PropMap server = new PropMap();
+        server.put("token", "abc");
+        server.put("port", 8443);
+        PropList servers = new PropList();
+        servers.add("public");
+        servers.add(server);
+        PropMap map = new PropMap();
+        map.put("database", database);
+        map.put("servers", servers);
+        return map;
+    }
+
+    @Test
+    public void encryptsOnlyPaths() throws Exception {
+        PropMap original = document();
+        String text = store_.toString(original);
+        assertFalse(text.contains("secret"));
+        assertFalse(text.contains("abc"));
+        assertTrue(text.contains("db.local"));
+        assertEquals("secret", original.getMap("database").getString("password")); // Not modified.
+        PropMap parsed = store_.fromStringToMap(text);
+        assertTrue(EncryptedPropStore.isEncrypted(parsed.getMap("database").get("password")));
+        assertEquals("db.local", parsed.getMap("database").getString("host"));
+    }
+
+    @Test
+    public void getDecryptsOnPath() throws Exception {
+        PropMap parsed = store_.fromStringToMap(store_.toString(document()));
+        assertEquals("secret", store_.get(parsed, "database.password"));
+        assertEquals("abc", store_.get(parsed, "servers.1.token"));
+        assertEquals(8443, ((Number)store_.get(parsed, "servers.1.port")).intValue());
+        assertEquals("public", store_.get(parsed, "servers.0"));
+        assertNull(store_.get(parsed, "database.user"));
+        assertNull(store_.get(parsed, "servers.9"));
+    }
+
+    @Test
+    public void decryptAll() throws Exception {
+        PropMap parsed = store_.fromStringToMap(store_.toString(document()));
+        PropMap plain = store_.decryptAll(parsed);
+        assertEquals("secret", plain.getMap("database").getString("password"));
+        assertEquals("abc", ((PropMap)plain.getArray("servers").get(1)).getString("token"));
+        assertTrue(EncryptedPropStore.isEncrypted(parsed.getMap("database").get("password")));
+    }
+
+    @Test
+    public void list() throws Exception {
+        EncryptedPropStore store = new EncryptedPropStore(new YamlStore(null), key_, List.of("1"));
+        PropList list = new PropList();
+        list.add("a");
+        list.add("b");
+        PropList parsed = store.fromStringToList(store.toString(list));
+        assertTrue(EncryptedPropStore.isEncrypted(parsed.get(1)));
+        assertEquals("b", store.get(parsed, "1"));
+    }
+
+    @Test
+    public void wrongPathOrKey() throws Exception {
+        String encrypted = store_.encrypt("a.b", "value");
+        assertEquals("value", store_.decrypt("a.b", encrypted));
+        assertThrows(PropStoreException.class, () -> store_.decrypt("a.c", encrypted));
+        EncryptedPropStore other = new EncryptedPropStore(new YamlStore(null), newKey(),
+                List.of());
+        assertThrows(PropStoreException.class, () -> other.decrypt("a.b", encrypted));
+        assertThrows(PropStoreException.class, () -> store_.decrypt("a.b", "plain"));
+        assertThrows(PropStoreException.class, () -> store_.decrypt("a.b", "ENC1:!!"));
+    }
+
+    @Test
+    public void factory() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(EncryptedPropStore.KEY_PROPERTY, Base64.getEncoder().encodeToString(key_));
+        config.setProperty(EncryptedPropStore.STORE_PROPERTY, "yaml");
+        config.setProperty(EncryptedPropStore.PATHS_PROPERTY, "database.password, servers.1");
+        PropStore store = PropStoreFactory.getStore("encrypted", config);
+        PropMap parsed = store.fromStringToMap(store.toString(document()));
+        assertEquals("secret", store_.get(parsed, "database.password"));
+        assertThrows(PropStoreFactoryException.class, () -> PropStoreFactory.getStore("encrypted"));
+        config.setProperty(EncryptedPropStore.STORE_PROPERTY, "Encrypted");
+        assertThrows(PropStoreFactoryException.class, () -> PropStoreFactory.getStore("encrypted", config));
+    }
+
+    @Test
+    public void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedPropStore(null, key_, List.of()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EncryptedPropStore(new YamlStore(null), null, List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedPropStore(new YamlStore(null), key_, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EncryptedPropStore(new YamlStore(null), new byte[15], List.of()));
+        assertThrows(IllegalArgumentException.class, () -> store_.get(null, "a"));
+        assertThrows(IllegalArgumentException.class, () -> store_.encrypt(null, "a"));
+    }
+}
@@ -69,6 +69,7 @@ public class PropStoreFactoryTest {
         PropStoreFactory.supportedImplementations_ = new HashMap<String, Class<? extends PropStore>>() {{
             put("json", JsonStore.class);
             put("yaml", YamlStore.class);
+            put("encrypted", EncryptedPropStore.class);
         }};
     }
 
@@ -76,9 +77,10 @@ public class PropStoreFactoryTest {
     public void allTests() throws Exception {
         Assertions.assertNotNull(PropStoreFactory.getStore(" YamL "));
         Assertions.assertNotNull(PropStoreFactory.getStore("JSON"));
-        Assertions.assertEquals(2, PropStoreFactory.getNames().size());
+        Assertions.assertEquals(3, PropStoreFactory.getNames().size());
         Assertions.assertTrue(PropStoreFactory.getNames().contains("json"));
         Assertions.assertTrue(PropStoreFactory.getNames().contains("yaml"));
+        Assertions.assertTrue(PropStoreFactory.getNames().contains("encrypted"));
     }
 
     @Test